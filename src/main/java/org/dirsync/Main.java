@@ -2,12 +2,26 @@ package org.dirsync;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.dirsync.audit.AuditJournal;
+import org.dirsync.controller.BidirectionalSynchronizer;
 import org.dirsync.controller.DirectorySynchronizerImpl;
+import org.dirsync.controller.DeadLetterStore;
 import org.dirsync.controller.DirectorySynchronizer;
+import org.dirsync.controller.EchoSuppressor;
+import org.dirsync.controller.RenameDetector;
+import org.dirsync.controller.SyncEventQueue;
+import org.dirsync.controller.SyncOperationScheduler;
+import org.dirsync.controller.SyncRetryQueue;
 import org.dirsync.model.dir.SyncDirectoriesInfo;
 import org.dirsync.model.file.SyncFileFactoryImpl;
+import org.dirsync.model.file.SyncFileOptions;
+import org.dirsync.util.RetryScheduler;
 import org.dirsync.view.ConsoleView;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 @Slf4j
 public class Main {
     public static void main(String[] args) {
@@ -17,12 +31,15 @@ public class Main {
             log.info("Exiting.");
             System.exit(0);
         }
+        syncDirectoriesInfo = syncDirectoriesInfo.withFilters(
+                getListProperty("dir.sync.include"), getListProperty("dir.sync.exclude"));
         FileAlterationMonitor fileAlterationMonitor = createFileAlterationMonitor();
-        DirectorySynchronizer directorySynchronizer =
-                createDirectorySynchronizer(syncDirectoriesInfo, fileAlterationMonitor);
         try {
+            DirectorySynchronizer directorySynchronizer =
+                    createDirectorySynchronizer(syncDirectoriesInfo, fileAlterationMonitor);
             directorySynchronizer.start();
             consoleView.runSyncLoop();
+            directorySynchronizer.stop();
             System.exit(0);
         } catch (Exception e) {
             if (e instanceof InterruptedException) {
@@ -34,9 +51,60 @@ public class Main {
     }
 
     private static DirectorySynchronizer createDirectorySynchronizer(SyncDirectoriesInfo syncDirectoriesInfo,
-                                                                     FileAlterationMonitor fileAlterationMonitor) {
-        SyncFileFactoryImpl syncFileFactory = new SyncFileFactoryImpl();
-        return new DirectorySynchronizerImpl(syncDirectoriesInfo, fileAlterationMonitor, syncFileFactory);
+                                                                     FileAlterationMonitor fileAlterationMonitor)
+            throws IOException {
+        SyncFileOptions options = SyncFileOptions.fromSystemProperties();
+        // Shared by both directions of a two-way synchronization
+        AuditJournal auditJournal = Boolean.getBoolean("dir.sync.audit.journal.enabled")
+                ? AuditJournal.fromSystemProperties()
+                : null;
+        if (!options.bidirectional()) {
+            return createDirectorySynchronizer(syncDirectoriesInfo, fileAlterationMonitor, options, null,
+                    auditJournal);
+        }
+        EchoSuppressor echoSuppressor = EchoSuppressor.fromSystemProperties();
+        return new BidirectionalSynchronizer(
+                createDirectorySynchronizer(syncDirectoriesInfo, fileAlterationMonitor, options, echoSuppressor,
+                        auditJournal),
+                createDirectorySynchronizer(BidirectionalSynchronizer.reverse(syncDirectoriesInfo),
+                        createFileAlterationMonitor(), options, echoSuppressor, auditJournal));
+    }
+
+    private static DirectorySynchronizer createDirectorySynchronizer(SyncDirectoriesInfo syncDirectoriesInfo,
+                                                                     FileAlterationMonitor fileAlterationMonitor,
+                                                                     SyncFileOptions options,
+                                                                     EchoSuppressor echoSuppressor,
+                                                                     AuditJournal auditJournal)
+            throws IOException {
+        SyncFileFactoryImpl syncFileFactory = new SyncFileFactoryImpl(syncDirectoriesInfo, options);
+        SyncOperationScheduler syncOperationScheduler = Boolean.getBoolean("dir.sync.scheduler.enabled")
+                ? SyncOperationScheduler.fromSystemProperties()
+                : null;
+        SyncRetryQueue syncRetryQueue =
+                new SyncRetryQueue(new RetryScheduler(options.retryPolicy()), DeadLetterStore.fromSystemProperties());
+        RenameDetector renameDetector = Boolean.getBoolean("dir.sync.rename.detection") ? new RenameDetector() : null;
+        SyncEventQueue syncEventQueue = Boolean.getBoolean("dir.sync.event.queue.enabled")
+                ? SyncEventQueue.fromSystemProperties(syncDirectoriesInfo)
+                : null;
+        return DirectorySynchronizerImpl.builder()
+                .syncDirectoriesInfo(syncDirectoriesInfo)
+                .fileAlterationMonitor(fileAlterationMonitor)
+                .syncFileFactory(syncFileFactory)
+                .syncOperationScheduler(syncOperationScheduler)
+                .syncRetryQueue(syncRetryQueue)
+                .renameDetector(renameDetector)
+                .echoSuppressor(echoSuppressor)
+                .syncEventQueue(syncEventQueue)
+                .auditJournal(auditJournal)
+                .build();
+    }
+
+    private static List<String> getListProperty(String key) {
+        String value = System.getProperty(key, "");
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(rule -> !rule.isEmpty())
+                .toList();
     }
 
     private static FileAlterationMonitor createFileAlterationMonitor() {
@@ -0,0 +1,255 @@
+package org.dirsync.audit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.dirsync.audit.AuditJournalFormat.BYTES_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.CAPACITY_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.DURATION_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.HEADER_SIZE;
+import static org.dirsync.audit.AuditJournalFormat.MAGIC;
+import static org.dirsync.audit.AuditJournalFormat.MAGIC_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.OPERATION_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.PATH_ID_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.RECORD_SIZE;
+import static org.dirsync.audit.AuditJournalFormat.RECORD_SIZE_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.RESULT_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.SEQUENCE_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.TIMESTAMP_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.VERSION;
+import static org.dirsync.audit.AuditJournalFormat.VERSION_OFFSET;
+
+/**
+ * Records every synchronization operation as a fixed-size binary record in a memory-mapped ring file, so operations
+ * stay traceable without logging a line per file. Recording a record is a few writes to memory, the operating system
+ * writes them to the file, including when the process crashes. Once the ring is full, the oldest records are
+ * overwritten. Paths are written once to a paths file next to the journal, and referenced by id in the records.
+ * Once the paths file holds twice as many paths as the ring holds records, it is compacted to the paths of the records
+ * still in the ring, so both stay bounded. Path ids are never reused, so a record keeps its path or none.
+ * See {@link AuditJournalFormat} for the layout and {@link AuditJournalReader} to decode the journal.
+ */
+@Slf4j
+public class AuditJournal implements Closeable {
+
+    public enum Operation {
+        COPY,
+        UPDATE,
+        DELETE,
+        MOVE,
+        COPY_DIRECTORY,
+        DELETE_DIRECTORY
+    }
+
+    public enum Result {
+        SUCCEEDED,
+        FAILED,
+        // Not needed, e.g. a target file modified after the source file in a two-way synchronization
+        SKIPPED
+    }
+
+    private static final int DEFAULT_CAPACITY = 256 * 1024;
+    private static final int UNKNOWN_PATH_ID = -1;
+
+    private final Path file;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer journal;
+    private FileChannel pathsChannel;
+    private final Map<String, Integer> pathIds = new ConcurrentHashMap<>();
+    private final int maxPaths;
+    private int nextPathId;
+    private final AtomicLong nextSequence;
+    private volatile boolean closed;
+
+    private AuditJournal(Path file, int capacity, FileChannel channel, MappedByteBuffer journal,
+                         FileChannel pathsChannel, Map<Integer, String> pathsById) {
+        this.file = file;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.journal = journal;
+        this.pathsChannel = pathsChannel;
+        this.nextSequence = new AtomicLong(nextSequence(journal, capacity));
+        this.maxPaths = (int) Math.min(Integer.MAX_VALUE, 2L * capacity);
+        pathsById.forEach((pathId, path) -> pathIds.put(path, pathId));
+        this.nextPathId = pathsById.keySet().stream().mapToInt(pathId -> pathId + 1).max().orElse(0);
+    }
+
+    /**
+     * Open a journal, or create it if it does not exist. An existing journal is appended to, and keeps its capacity.
+     * @param capacity the number of records kept when creating the journal
+     * @throws IOException if the file exists and is not an audit journal
+     */
+    public static AuditJournal open(Path file, int capacity) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file, READ, WRITE, CREATE);
+        try {
+            boolean created = channel.size() == 0;
+            long size = created ? HEADER_SIZE + (long) capacity * RECORD_SIZE : channel.size();
+            MappedByteBuffer journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (created) {
+                journal.putInt(MAGIC_OFFSET, MAGIC);
+                journal.putInt(VERSION_OFFSET, VERSION);
+                journal.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+                journal.putInt(CAPACITY_OFFSET, capacity);
+            }
+            int journalCapacity = AuditJournalFormat.readCapacity(journal, file);
+            Path pathsFile = AuditJournalFormat.pathsFile(file);
+            Map<Integer, String> pathsById = new HashMap<>();
+            FileChannel pathsChannel = FileChannel.open(pathsFile, READ, WRITE, CREATE);
+            try {
+                // A path cut short by a crash is dropped, so new paths are not appended after it
+                long length = AuditJournalFormat.readPaths(Channels.newInputStream(pathsChannel), pathsById);
+                pathsChannel.truncate(length);
+                pathsChannel.position(length);
+            } catch (IOException | RuntimeException e) {
+                pathsChannel.close();
+                throw e;
+            }
+            return new AuditJournal(file, journalCapacity, channel, journal, pathsChannel, pathsById);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static AuditJournal fromSystemProperties() throws IOException {
+        String defaultFile = Path.of(System.getProperty("user.home"), ".dirsync", "audit.journal").toString();
+        return open(Path.of(System.getProperty("dir.sync.audit.journal.file", defaultFile)),
+                Integer.getInteger("dir.sync.audit.journal.records", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Record an operation. Recording does not fail: an operation that cannot be recorded is logged instead.
+     * @param path          the source path of the operation
+     * @param bytes         the length of the file, 0 if not relevant
+     * @param durationNanos how long the operation took
+     */
+    public void record(Operation operation, Path path, long bytes, long durationNanos, Result result) {
+        if (closed) {
+            return;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        int offset = AuditJournalFormat.recordOffset(sequence, capacity);
+        // Marked as being written, so a reader never decodes a record half overwritten
+        journal.putLong(offset + SEQUENCE_OFFSET, 0);
+        journal.putLong(offset + TIMESTAMP_OFFSET, System.currentTimeMillis());
+        journal.putLong(offset + BYTES_OFFSET, bytes);
+        journal.putLong(offset + DURATION_OFFSET, durationNanos);
+        journal.putInt(offset + PATH_ID_OFFSET, pathId(path));
+        journal.put(offset + OPERATION_OFFSET, (byte) operation.ordinal());
+        journal.put(offset + RESULT_OFFSET, (byte) result.ordinal());
+        journal.putLong(offset + SEQUENCE_OFFSET, sequence + 1);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the records to the file. Closing more than once, e.g. by both directions of a two-way synchronization
+     * sharing the journal, has no effect.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        journal.force();
+        try (channel; FileChannel paths = pathsChannel) {
+            paths.force(false);
+        }
+    }
+
+    private int pathId(Path path) {
+        String key = path.toString();
+        Integer pathId = pathIds.get(key);
+        if (pathId != null) {
+            return pathId;
+        }
+        synchronized (this) {
+            pathId = pathIds.get(key);
+            if (pathId != null) {
+                return pathId;
+            }
+            int newPathId = nextPathId;
+            try {
+                if (pathIds.size() >= maxPaths) {
+                    compactPaths();
+                }
+                ByteBuffer entry = ByteBuffer.wrap(AuditJournalFormat.encodePath(newPathId, key));
+                while (entry.hasRemaining()) {
+                    pathsChannel.write(entry);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to write path: {} to audit journal: {}", path, file, e);
+                return UNKNOWN_PATH_ID;
+            }
+            pathIds.put(key, newPathId);
+            nextPathId++;
+            return newPathId;
+        }
+    }
+
+    /**
+     * Replace the paths file by the paths of the records in the ring. A record being written with a path dropped
+     * meanwhile is read without its path.
+     */
+    private void compactPaths() throws IOException {
+        Set<Integer> referenced = new HashSet<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            if (journal.getLong(offset + SEQUENCE_OFFSET) != 0) {
+                referenced.add(journal.getInt(offset + PATH_ID_OFFSET));
+            }
+        }
+        ByteArrayOutputStream paths = new ByteArrayOutputStream();
+        for (Map.Entry<String, Integer> entry : pathIds.entrySet()) {
+            if (referenced.contains(entry.getValue())) {
+                paths.writeBytes(AuditJournalFormat.encodePath(entry.getValue(), entry.getKey()));
+            }
+        }
+        Path pathsFile = AuditJournalFormat.pathsFile(file);
+        Path tempFile = pathsFile.resolveSibling(pathsFile.getFileName() + ".tmp");
+        Files.write(tempFile, paths.toByteArray());
+        Files.move(tempFile, pathsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        pathsChannel.close();
+        pathsChannel = FileChannel.open(pathsFile, WRITE);
+        pathsChannel.position(pathsChannel.size());
+        pathIds.values().removeIf(pathId -> !referenced.contains(pathId));
+        log.debug("Compacted the paths of audit journal: {} to {} paths", file, pathIds.size());
+    }
+
+    /**
+     * @return the sequence number following the latest record in the journal
+     */
+    private static long nextSequence(ByteBuffer journal, int capacity) {
+        long latest = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            latest = Math.max(latest, journal.getLong(HEADER_SIZE + slot * RECORD_SIZE + SEQUENCE_OFFSET));
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,115 @@
+package org.dirsync.audit;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The layout of an audit journal, written by {@link AuditJournal} and read by {@link AuditJournalReader}.
+ * <p>
+ * The journal file starts with a header of {@link #HEADER_SIZE} bytes: a magic number, the format version, the record
+ * size and the number of record slots. Slots follow, each holding a record of {@link #RECORD_SIZE} bytes:
+ * <pre>
+ * offset  size  field
+ *      0     8  sequence number + 1, 0 while the record is written
+ *      8     8  timestamp, in milliseconds since the epoch
+ *     16     8  bytes of the file
+ *     24     8  duration, in nanoseconds
+ *     32     4  path id
+ *     36     1  operation ordinal
+ *     37     1  result ordinal
+ * </pre>
+ * The record of sequence number n is in slot n modulo the number of slots, so the oldest records are overwritten.
+ * <p>
+ * Paths are written once to a paths file next to the journal, as entries of a path id followed by the path in
+ * modified UTF-8, see {@link DataOutputStream#writeUTF}. The file is replaced by one with the paths of the records
+ * still in the journal when it grows past twice the number of slots.
+ */
+@UtilityClass
+class AuditJournalFormat {
+
+    static final int MAGIC = 0x44534A4E;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 12;
+
+    static final int SEQUENCE_OFFSET = 0;
+    static final int TIMESTAMP_OFFSET = 8;
+    static final int BYTES_OFFSET = 16;
+    static final int DURATION_OFFSET = 24;
+    static final int PATH_ID_OFFSET = 32;
+    static final int OPERATION_OFFSET = 36;
+    static final int RESULT_OFFSET = 37;
+
+    static Path pathsFile(Path journalFile) {
+        return journalFile.resolveSibling(journalFile.getFileName() + ".paths");
+    }
+
+    static int recordOffset(long sequence, int capacity) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * @throws IOException if the header is not the one of an audit journal of this version
+     * @return the number of record slots
+     */
+    static int readCapacity(ByteBuffer journal, Path journalFile) throws IOException {
+        if (journal.capacity() < HEADER_SIZE || journal.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not an audit journal: " + journalFile);
+        }
+        if (journal.getInt(VERSION_OFFSET) != VERSION || journal.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+            throw new IOException("Unsupported audit journal version: " + journal.getInt(VERSION_OFFSET));
+        }
+        int capacity = journal.getInt(CAPACITY_OFFSET);
+        if (capacity <= 0 || journal.capacity() < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+            throw new IOException("Truncated audit journal: " + journalFile);
+        }
+        return capacity;
+    }
+
+    static byte[] encodePath(int pathId, String path) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length() + 6);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(pathId);
+            out.writeUTF(path);
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the entries of a paths file into a map of path by id, ignoring an entry cut short by a crash
+     * @return the length of the complete entries
+     */
+    static long readPaths(InputStream paths, Map<Integer, String> pathsById) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(paths));
+        long length = 0;
+        while (true) {
+            try {
+                int pathId = in.readInt();
+                String path = in.readUTF();
+                pathsById.put(pathId, path);
+                length += encodePath(pathId, path).length;
+            } catch (EOFException e) {
+                return length;
+            }
+        }
+    }
+}
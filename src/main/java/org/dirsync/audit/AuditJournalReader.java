@@ -0,0 +1,99 @@
+package org.dirsync.audit;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.dirsync.audit.AuditJournalFormat.BYTES_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.DURATION_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.OPERATION_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.PATH_ID_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.RESULT_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.SEQUENCE_OFFSET;
+import static org.dirsync.audit.AuditJournalFormat.TIMESTAMP_OFFSET;
+
+/**
+ * Decodes an {@link AuditJournal}, also while it is written: records being written are skipped.
+ * <pre>
+ * java -cp dirsync.jar org.dirsync.audit.AuditJournalReader ~/.dirsync/audit.journal
+ * </pre>
+ */
+@UtilityClass
+public class AuditJournalReader {
+
+    /**
+     * @param path the source path of the operation, or null if it could not be written to the paths file
+     */
+    public record Entry(long sequence, Instant time, AuditJournal.Operation operation, Path path, long bytes,
+                        long durationNanos, AuditJournal.Result result) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: AuditJournalReader <journal file>");
+            System.exit(1);
+        }
+        for (Entry entry : read(Path.of(args[0]))) {
+            System.out.printf("%d\t%s\t%s\t%s\t%s\t%d bytes\t%.3f ms%n", entry.sequence(), entry.time(),
+                    entry.operation(), entry.result(), entry.path(), entry.bytes(), entry.durationNanos() / 1e6);
+        }
+    }
+
+    /**
+     * @return the records of the journal, oldest first
+     * @throws IOException if the file is not an audit journal
+     */
+    public List<Entry> read(Path file) throws IOException {
+        Map<Integer, String> pathsById = new HashMap<>();
+        try (InputStream paths = Files.newInputStream(AuditJournalFormat.pathsFile(file))) {
+            AuditJournalFormat.readPaths(paths, pathsById);
+        } catch (NoSuchFileException e) {
+            // Every path is then unknown
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int capacity = AuditJournalFormat.readCapacity(journal, file);
+            for (int slot = 0; slot < capacity; slot++) {
+                Entry entry = readEntry(journal, slot, capacity, pathsById);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::sequence));
+        return entries;
+    }
+
+    private Entry readEntry(MappedByteBuffer journal, int slot, int capacity, Map<Integer, String> pathsById) {
+        int offset = AuditJournalFormat.HEADER_SIZE + slot * AuditJournalFormat.RECORD_SIZE;
+        long sequence = journal.getLong(offset + SEQUENCE_OFFSET) - 1;
+        if (sequence < 0 || AuditJournalFormat.recordOffset(sequence, capacity) != offset) {
+            // Never written, or being written
+            return null;
+        }
+        String path = pathsById.get(journal.getInt(offset + PATH_ID_OFFSET));
+        Entry entry = new Entry(sequence,
+                Instant.ofEpochMilli(journal.getLong(offset + TIMESTAMP_OFFSET)),
+                AuditJournal.Operation.values()[journal.get(offset + OPERATION_OFFSET)],
+                path == null ? null : Path.of(path),
+                journal.getLong(offset + BYTES_OFFSET),
+                journal.getLong(offset + DURATION_OFFSET),
+                AuditJournal.Result.values()[journal.get(offset + RESULT_OFFSET)]);
+        // Overwritten while decoding it
+        return journal.getLong(offset + SEQUENCE_OFFSET) == sequence + 1 ? entry : null;
+    }
+}
@@ -0,0 +1,76 @@
+package org.dirsync.controller;
+
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+
+import java.io.File;
+
+/**
+ * Synchronizes two directories with each other, with a synchronizer for each direction. The synchronizers share an
+ * {@link EchoSuppressor}, so the files one writes are not synchronized back by the other, and concurrent changes of a
+ * file are resolved by keeping the last written one.
+ * <p>
+ * The file events are received by the synchronizers of both directions, not by this synchronizer.
+ */
+public class BidirectionalSynchronizer implements DirectorySynchronizer {
+
+    private final DirectorySynchronizer forward;
+    private final DirectorySynchronizer backward;
+
+    /**
+     * @param forward  synchronizes the source directory to the target directory
+     * @param backward synchronizes the target directory back to the source directory, sharing the echo suppressor
+     *                 of the forward synchronizer
+     */
+    public BidirectionalSynchronizer(DirectorySynchronizer forward, DirectorySynchronizer backward) {
+        this.forward = forward;
+        this.backward = backward;
+    }
+
+    /**
+     * @return the directories of the synchronizer of the opposite direction
+     */
+    public static SyncDirectoriesInfo reverse(SyncDirectoriesInfo syncDirectoriesInfo) {
+        return new SyncDirectoriesInfo(syncDirectoriesInfo.targetDirPath(), syncDirectoriesInfo.sourceDirPath(),
+                syncDirectoriesInfo.includes(), syncDirectoriesInfo.excludes());
+    }
+
+    @Override
+    public void start() throws InterruptedException {
+        forward.start();
+        try {
+            backward.start();
+        } catch (RuntimeException | InterruptedException e) {
+            forward.stop();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isFailed() {
+        return forward.isFailed() || backward.isFailed();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return forward.isRunning() && backward.isRunning();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            forward.stop();
+        } finally {
+            backward.stop();
+        }
+    }
+
+    @Override
+    public void onFileCreate(File file) {
+        // Received by the synchronizer of each direction
+    }
+
+    @Override
+    public void onFileDelete(File file) {
+        // Received by the synchronizer of each direction
+    }
+}
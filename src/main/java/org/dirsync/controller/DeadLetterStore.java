@@ -0,0 +1,88 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the synchronization operations that kept failing after all retries, so they can be inspected and handled
+ * manually. When created with a file, dead letters are appended to it and loaded from it on creation.
+ */
+@Slf4j
+public class DeadLetterStore {
+
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * @param time      when the operation was given up on
+     * @param operation the operation that failed, e.g. copy or delete
+     * @param path      the source path of the operation
+     * @param error     the last error of the operation
+     */
+    public record DeadLetter(Instant time, String operation, Path path, String error) {
+    }
+
+    private final Path file;
+    private final List<DeadLetter> deadLetters = new ArrayList<>();
+
+    /**
+     * Create a dead letter store that is not persisted
+     */
+    public DeadLetterStore() {
+        this.file = null;
+    }
+
+    public DeadLetterStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    deadLetters.add(parse(lines.get(i)));
+                } catch (RuntimeException e) {
+                    // A line cut short by a crash, or edited by hand, does not lose the other dead letters
+                    log.warn("Skipping malformed dead letter at line {} of: {}", i + 1, file, e);
+                }
+            }
+        }
+    }
+
+    public static DeadLetterStore fromSystemProperties() throws IOException {
+        String defaultFile = Path.of(System.getProperty("user.home"), ".dirsync", "dead-letters.log").toString();
+        return new DeadLetterStore(Path.of(System.getProperty("dir.sync.dead.letter.file", defaultFile)));
+    }
+
+    /**
+     * Add a dead letter. It is kept in memory even if persisting it fails.
+     * @throws IOException if the dead letter cannot be appended to the file
+     */
+    public synchronized void add(DeadLetter deadLetter) throws IOException {
+        deadLetters.add(deadLetter);
+        if (file != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Files.writeString(file, format(deadLetter) + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    public synchronized List<DeadLetter> getDeadLetters() {
+        return List.copyOf(deadLetters);
+    }
+
+    private static String format(DeadLetter deadLetter) {
+        return String.join(SEPARATOR, deadLetter.time().toString(), deadLetter.operation(),
+                deadLetter.path().toString(), String.valueOf(deadLetter.error()).replaceAll("[\\t\\r\\n]+", " "));
+    }
+
+    private static DeadLetter parse(String line) {
+        String[] fields = line.split(SEPARATOR, 4);
+        return new DeadLetter(Instant.parse(fields[0]), fields[1], Path.of(fields[2]), fields.length > 3 ? fields[3] : "");
+    }
+}
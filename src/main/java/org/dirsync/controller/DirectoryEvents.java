@@ -0,0 +1,113 @@
+package org.dirsync.controller;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the directories created and deleted during a check of the source directory, so they are synchronized as
+ * a whole and the events of the files inside them are suppressed.
+ * <p>
+ * A check reports a created directory before its content, so creations inside it are suppressed as they arrive. A
+ * deleted directory is reported after its content, so deletions of files whose directory is gone are deferred until
+ * the directory deletion, and dropped when it arrives. Only the thread checking the source directory uses this.
+ */
+class DirectoryEvents {
+
+    /**
+     * @param createdDirs the created directories, without the directories inside them
+     * @param deletedDirs the deleted directories, without the directories inside them
+     * @param deletions   the deferred file deletions that are not inside a deleted directory
+     */
+    record Resolution(List<Path> createdDirs, List<Path> deletedDirs, List<Path> deletions) {
+
+        boolean isInCreatedDirectory(Path path) {
+            return isInside(path, createdDirs);
+        }
+
+        boolean isInDeletedDirectory(Path path) {
+            return isInside(path, deletedDirs);
+        }
+    }
+
+    private final List<Path> createdDirs = new ArrayList<>();
+    private final List<Path> deletedDirs = new ArrayList<>();
+    private final List<Path> deferredDeletions = new ArrayList<>();
+    // Whether the parent directories of the deleted files exist, looked up once per directory and check
+    private final Map<Path, Boolean> existingParents = new HashMap<>();
+    private boolean checking = false;
+
+    void startCheck() {
+        checking = true;
+    }
+
+    boolean isChecking() {
+        return checking;
+    }
+
+    /**
+     * @return whether the directory is inside a directory created during the check, so it is synchronized with it
+     */
+    boolean directoryCreated(Path dir) {
+        if (isInCreatedDirectory(dir)) {
+            return true;
+        }
+        createdDirs.add(dir);
+        return false;
+    }
+
+    /**
+     * @return whether the path is inside a directory created during the check
+     */
+    boolean isInCreatedDirectory(Path path) {
+        return isInside(path, createdDirs);
+    }
+
+    void directoryDeleted(Path dir) {
+        deletedDirs.removeIf(deletedDir -> deletedDir.startsWith(dir));
+        deletedDirs.add(dir);
+    }
+
+    /**
+     * @return whether the deletion is deferred, because the directory of the file was deleted too
+     */
+    boolean deferDeletion(Path path) {
+        if (!checking || existingParents.computeIfAbsent(path.getParent(), Files::exists)) {
+            return false;
+        }
+        deferredDeletions.add(path);
+        return true;
+    }
+
+    /**
+     * @return whether the path is inside a directory deleted during the check
+     */
+    boolean isInDeletedDirectory(Path path) {
+        return isInside(path, deletedDirs);
+    }
+
+    Resolution endCheck() {
+        checking = false;
+        List<Path> deletions = deferredDeletions.stream()
+                .filter(path -> !isInDeletedDirectory(path))
+                .toList();
+        Resolution resolution = new Resolution(List.copyOf(createdDirs), List.copyOf(deletedDirs), deletions);
+        createdDirs.clear();
+        deletedDirs.clear();
+        deferredDeletions.clear();
+        existingParents.clear();
+        return resolution;
+    }
+
+    private static boolean isInside(Path path, List<Path> dirs) {
+        for (Path dir : dirs) {
+            if (path.startsWith(dir) && !path.equals(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,55 +1,138 @@
 package org.dirsync.controller;
 
+import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
-import org.dirsync.exception.DirectorySyncFailedException;
+import org.dirsync.audit.AuditJournal;
 import org.dirsync.exception.DirectoryWatchFailedException;
 import org.dirsync.input.SyncDirectoriesValidator;
 import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.dirsync.model.dir.SyncPathFilter;
+import org.dirsync.model.file.SyncDirectory;
 import org.dirsync.model.file.SyncFile;
 import org.dirsync.model.file.SyncFileFactory;
+import org.dirsync.util.RetryScheduler;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 @Slf4j
 public class DirectorySynchronizerImpl implements DirectorySynchronizer {
 
+    // Events taken from the event queue and not synchronized yet, so the queue is not emptied into the scheduler
+    private static final int MAX_IN_FLIGHT_EVENTS = 1024;
+
     private final SyncDirectoriesInfo syncDirectoriesInfo;
     private final FileAlterationMonitor fileAlterationMonitor;
     private final SyncFileFactory syncFileFactory;
+    private final SyncOperationScheduler syncOperationScheduler;
+    private final SyncRetryQueue syncRetryQueue;
+    private final RenameDetector renameDetector;
+    private final DirectoryEvents directoryEvents;
+    private final SyncPathFilter syncPathFilter;
+    private final EchoSuppressor echoSuppressor;
+    private final SyncEventQueue syncEventQueue;
+    private final AuditJournal auditJournal;
+    // Whether this direction of a two-way synchronization copies the files modified at the same time on both sides
+    private final boolean winsTies;
+    private final Semaphore inFlightEvents = new Semaphore(MAX_IN_FLIGHT_EVENTS);
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+    private final Condition eventsDispatched = dispatchLock.newCondition();
+    private long numQueuedEvents;
+    private long numDispatchedEvents;
+    private boolean dispatching;
+    private Thread dispatcher;
+    // The start of the check before the current one, the earliest time a file reported deleted may have been deleted
+    private volatile long previousCheckStartMillis = Long.MAX_VALUE;
+    private volatile long checkStartMillis = Long.MAX_VALUE;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private boolean failed = false;
-    private static final int DIR_SYNC_MAX_NUM_RETIRES = Integer.parseInt(System.getProperty("dir.sync.max.num.retries", "3"));
-    private int dirSyncNumRetries = 0;
+    private volatile boolean failed = false;
 
     public DirectorySynchronizerImpl(SyncDirectoriesInfo syncDirectoriesInfo,
                                      FileAlterationMonitor fileAlterationMonitor, SyncFileFactory syncFileFactory) {
+        this(syncDirectoriesInfo, fileAlterationMonitor, syncFileFactory, null, null, null, null, null, null);
+    }
+
+    /**
+     * Create a synchronizer with {@link #builder()}, the optional components left unset being disabled
+     * @param syncOperationScheduler runs the synchronization operations, or null to run them on the monitor thread
+     * @param syncRetryQueue         retries failed operations per path, or null to retry them with the default retry
+     *                               policy
+     * @param renameDetector         moves renamed files on the target directory instead of deleting and copying them,
+     *                               or null to not detect renames
+     * @param echoSuppressor         makes this synchronizer one direction of a two-way synchronization, shared with
+     *                               the synchronizer of the opposite direction, or null for a one-way
+     *                               synchronization. Files are then only copied over older target files, and deleted
+     *                               if their target file was not modified since the deletion
+     * @param syncEventQueue         queues the file events between their detection and their synchronization, so a
+     *                               burst of events is bounded in memory, or null to schedule them as they are
+     *                               detected. Renames and directory events wait for the queued events to be scheduled,
+     *                               to keep their order
+     * @param auditJournal           records every synchronization operation, or null to only log them at debug level
+     */
+    @Builder
+    private DirectorySynchronizerImpl(SyncDirectoriesInfo syncDirectoriesInfo,
+                                      FileAlterationMonitor fileAlterationMonitor, SyncFileFactory syncFileFactory,
+                                      SyncOperationScheduler syncOperationScheduler, SyncRetryQueue syncRetryQueue,
+                                      RenameDetector renameDetector, EchoSuppressor echoSuppressor,
+                                      SyncEventQueue syncEventQueue, AuditJournal auditJournal) {
         this.syncDirectoriesInfo = syncDirectoriesInfo;
         this.fileAlterationMonitor = fileAlterationMonitor;
         this.syncFileFactory = syncFileFactory;
+        this.syncOperationScheduler = syncOperationScheduler;
+        this.syncRetryQueue = syncRetryQueue != null
+                ? syncRetryQueue
+                : new SyncRetryQueue(new RetryScheduler(), new DeadLetterStore());
+        this.renameDetector = renameDetector;
+        this.echoSuppressor = echoSuppressor;
+        this.syncEventQueue = syncEventQueue;
+        this.auditJournal = auditJournal;
+        this.directoryEvents = syncFileFactory.mirrorsDirectories() ? new DirectoryEvents() : null;
         SyncDirectoriesValidator.validate(syncDirectoriesInfo);
+        this.winsTies = echoSuppressor != null
+                && syncDirectoriesInfo.sourceDirPath().compareTo(syncDirectoriesInfo.targetDirPath()) < 0;
+        this.syncPathFilter = SyncPathFilter.from(syncDirectoriesInfo);
+        syncFileFactory.setRepairScheduler((source, repair) -> schedule(copyLane(source.toFile()), source, repair));
     }
 
     @Override
     public void start() {
         try {
+            if (syncEventQueue != null) {
+                startDispatcher();
+            }
             monitorDirectory(syncDirectoriesInfo.sourceDirPath());
             running.set(true);
             log.info("Synchronizing directories: " + syncDirectoriesInfo);
         } catch (Exception e) {
+            setFailed();
             throw new DirectoryWatchFailedException("Failed to monitor directory", e);
         }
     }
 
     private void monitorDirectory(String directoryPath) throws Exception {
-        FileAlterationObserver fileAlterationObserver = new FileAlterationObserver(directoryPath);
+        if (renameDetector != null) {
+            renameDetector.recordAll(Path.of(directoryPath), syncPathFilter);
+        }
+        FileAlterationObserver fileAlterationObserver = new FileAlterationObserver(directoryPath, syncPathFilter);
         fileAlterationObserver.addListener(this);
         fileAlterationMonitor.addObserver(fileAlterationObserver);
         fileAlterationMonitor.start();
@@ -69,66 +152,578 @@ public class DirectorySynchronizerImpl implements DirectorySynchronizer {
         failed = true;
     }
 
-    private void stopAndFailIfMaxAttemptsReached(Exception e) {
-        dirSyncNumRetries++;
-        if (maxRetriesReached()) {
-            log.error("Directory synchronization failed after {} retries", DIR_SYNC_MAX_NUM_RETIRES, e);
-            setFailed();
-            stop();
-            throw new DirectorySyncFailedException(e);
-        }
-        log.error("Directory synchronization failed. Recover attempt {}/{}", dirSyncNumRetries, DIR_SYNC_MAX_NUM_RETIRES, e);
-    }
-
-    private boolean maxRetriesReached() {
-        return dirSyncNumRetries > DIR_SYNC_MAX_NUM_RETIRES;
+    public DeadLetterStore getDeadLetterStore() {
+        return syncRetryQueue.getDeadLetterStore();
     }
 
     @Override
     public void stop() {
         try {
             fileAlterationMonitor.stop();
+            if (syncEventQueue != null) {
+                // The events in memory are synchronized before the scheduler is shut down, the spilled events are
+                // replayed on the next start rather than delaying the stop
+                syncEventQueue.closeKeepingSpilled();
+                if (dispatcher != null) {
+                    dispatcher.join();
+                }
+                syncEventQueue.release();
+            }
+            if (syncOperationScheduler != null) {
+                syncOperationScheduler.shutdown();
+            }
+            syncRetryQueue.close();
+            syncFileFactory.close();
+            if (auditJournal != null) {
+                auditJournal.close();
+            }
             running.set(false);
         } catch (Exception e) {
             throw new DirectoryWatchFailedException("Failed to stop file alteration monitor", e);
         }
     }
 
+    @Override
+    public void onStart(FileAlterationObserver observer) {
+        long now = System.currentTimeMillis();
+        previousCheckStartMillis = checkStartMillis == Long.MAX_VALUE ? now : checkStartMillis;
+        checkStartMillis = now;
+        if (renameDetector != null) {
+            renameDetector.startCheck();
+        }
+        if (directoryEvents != null) {
+            directoryEvents.startCheck();
+        }
+    }
+
+    @Override
+    public void onStop(FileAlterationObserver observer) {
+        DirectoryEvents.Resolution directories = directoryEvents == null
+                ? new DirectoryEvents.Resolution(List.of(), List.of(), List.of())
+                : directoryEvents.endCheck();
+        List<CompletableFuture<Void>> renames = new ArrayList<>();
+        Set<Path> renamedPaths = new HashSet<>();
+        if (renameDetector != null) {
+            RenameDetector.Resolution resolution = renameDetector.endCheck();
+            if (!resolution.renames().isEmpty()) {
+                awaitQueuedEvents();
+            }
+            for (RenameDetector.Rename rename : resolution.renames()) {
+                renames.add(scheduleRename(rename));
+                renamedPaths.add(rename.to());
+            }
+            resolution.deletions().stream()
+                    .filter(path -> !directories.isInDeletedDirectory(path))
+                    .forEach(path -> scheduleDelete(path.toFile()));
+            resolution.creations().stream()
+                    .filter(path -> !directories.isInCreatedDirectory(path))
+                    .forEach(path -> scheduleCreate(path.toFile()));
+        }
+        directories.deletions().forEach(path -> scheduleDelete(path.toFile()));
+        if (!directories.createdDirs().isEmpty() || !directories.deletedDirs().isEmpty()) {
+            awaitQueuedEvents();
+        }
+        directories.createdDirs().forEach(dir -> scheduleDirectoryCopy(dir, renamedPaths));
+        // Files renamed out of a deleted directory are moved before the directory is deleted
+        CompletableFuture<Void> renamed = CompletableFuture.allOf(renames.toArray(CompletableFuture[]::new));
+        directories.deletedDirs().forEach(dir -> renamed.whenComplete((ignored, e) -> scheduleDirectoryDelete(dir)));
+    }
+
+    @Override
+    public void onDirectoryCreate(File directory) {
+        if (directoryEvents == null || isEcho(directory)) {
+            return;
+        }
+        if (directoryEvents.isChecking()) {
+            directoryEvents.directoryCreated(directory.toPath());
+            return;
+        }
+        awaitQueuedEvents();
+        scheduleDirectoryCopy(directory.toPath(), Set.of());
+    }
+
+    @Override
+    public void onDirectoryDelete(File directory) {
+        if (directoryEvents == null || isEcho(directory)) {
+            return;
+        }
+        if (directoryEvents.isChecking()) {
+            directoryEvents.directoryDeleted(directory.toPath());
+            return;
+        }
+        awaitQueuedEvents();
+        scheduleDirectoryDelete(directory.toPath());
+    }
+
     @Override
     public void onFileCreate(File file) {
+        if (isEcho(file)) {
+            return;
+        }
+        if (renameDetector != null && renameDetector.deferCreation(file.toPath())) {
+            return;
+        }
+        if (directoryEvents != null && directoryEvents.isInCreatedDirectory(file.toPath())) {
+            // Copied with its directory
+            return;
+        }
+        scheduleCreate(file);
+    }
+
+    @Override
+    public void onFileChange(File file) {
+        if (isEcho(file)) {
+            return;
+        }
+        submit(new SyncEventQueue.SyncEvent(SyncEventQueue.SyncEvent.Type.CHANGE, file.toPath(), 0));
+    }
+
+    @Override
+    public void onFileDelete(File file) {
+        if (isEcho(file)) {
+            return;
+        }
+        if (renameDetector != null && renameDetector.deferDeletion(file.toPath())) {
+            return;
+        }
+        if (directoryEvents != null && directoryEvents.deferDeletion(file.toPath())) {
+            return;
+        }
+        scheduleDelete(file);
+    }
+
+    private void scheduleCreate(File file) {
+        submit(new SyncEventQueue.SyncEvent(SyncEventQueue.SyncEvent.Type.CREATE, file.toPath(), 0));
+    }
+
+    private boolean isEcho(File file) {
+        if (echoSuppressor == null || !echoSuppressor.isEcho(file.toPath())) {
+            return false;
+        }
+        log.debug("Ignoring event of file: {} written by the opposite synchronizer", file);
+        return true;
+    }
+
+    private void scheduleDelete(File file) {
+        submit(new SyncEventQueue.SyncEvent(SyncEventQueue.SyncEvent.Type.DELETE, file.toPath(),
+                previousCheckStartMillis));
+    }
+
+    private void submit(SyncEventQueue.SyncEvent event) {
+        if (syncEventQueue != null) {
+            try {
+                syncEventQueue.put(event);
+                dispatchLock.lock();
+                try {
+                    numQueuedEvents++;
+                } finally {
+                    dispatchLock.unlock();
+                }
+                return;
+            } catch (IOException e) {
+                log.error("Failed to queue event: {}, synchronizing it out of order", event, e);
+            }
+        }
+        dispatch(event);
+    }
+
+    private CompletableFuture<Void> dispatch(SyncEventQueue.SyncEvent event) {
+        File file = event.path().toFile();
+        return switch (event.type()) {
+            case CREATE -> schedule(copyLane(file), event.path(), () -> createFile(file));
+            case CHANGE -> schedule(copyLane(file), event.path(), () -> updateFile(file));
+            case DELETE -> schedule(SyncOperationScheduler.Lane.DELETES, event.path(),
+                    () -> deleteFile(file, event.timeMillis()));
+        };
+    }
+
+    private void startDispatcher() {
+        dispatching = true;
+        dispatcher = new Thread(this::dispatchEvents, "sync-event-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private void dispatchEvents() {
+        try {
+            SyncEventQueue.SyncEvent event;
+            while ((event = syncEventQueue.take()) != null) {
+                inFlightEvents.acquire();
+                dispatch(event).whenComplete((ignored, e) -> inFlightEvents.release());
+                dispatchLock.lock();
+                try {
+                    numDispatchedEvents++;
+                    eventsDispatched.signalAll();
+                } finally {
+                    dispatchLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to take events from the event queue", e);
+            setFailed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dispatchLock.lock();
+            try {
+                dispatching = false;
+                eventsDispatched.signalAll();
+            } finally {
+                dispatchLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait until the queued events are scheduled, so an operation scheduled directly is not run before them
+     */
+    private void awaitQueuedEvents() {
+        if (syncEventQueue == null) {
+            return;
+        }
+        dispatchLock.lock();
+        try {
+            while (numDispatchedEvents < numQueuedEvents && dispatching) {
+                eventsDispatched.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    /**
+     * Scheduled under both paths, so the move runs after the operations on the file under its previous name and
+     * before the operations submitted afterwards on either name
+     */
+    private CompletableFuture<Void> scheduleRename(RenameDetector.Rename rename) {
+        return schedule(SyncOperationScheduler.Lane.SMALL_FILES, List.of(rename.from(), rename.to()),
+                () -> renameFile(rename));
+    }
+
+    private CompletableFuture<Void> scheduleDirectoryCopy(Path dir, Set<Path> excluded) {
+        return scheduleTree(SyncOperationScheduler.Lane.LARGE_FILES, dir, () -> copyDirectory(dir, excluded));
+    }
+
+    private CompletableFuture<Void> scheduleDirectoryDelete(Path dir) {
+        return scheduleTree(SyncOperationScheduler.Lane.DELETES, dir, () -> deleteDirectory(dir));
+    }
+
+    private SyncOperationScheduler.Lane copyLane(File file) {
+        return syncOperationScheduler == null
+                ? SyncOperationScheduler.Lane.SMALL_FILES
+                : syncOperationScheduler.laneForCopy(file);
+    }
+
+    private CompletableFuture<Void> schedule(SyncOperationScheduler.Lane lane, Path path, Runnable operation) {
+        return schedule(lane, List.of(path), operation);
+    }
+
+    private CompletableFuture<Void> schedule(SyncOperationScheduler.Lane lane, List<Path> paths, Runnable operation) {
+        if (syncOperationScheduler == null) {
+            operation.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        return syncOperationScheduler.submit(lane, paths, operation);
+    }
+
+    /**
+     * Schedule an operation on a directory in order with the operations on the paths inside it
+     */
+    private CompletableFuture<Void> scheduleTree(SyncOperationScheduler.Lane lane, Path dir, Runnable operation) {
+        if (syncOperationScheduler == null) {
+            operation.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        return syncOperationScheduler.submitTree(lane, dir, operation);
+    }
+
+    /**
+     * Retry a failed operation, scheduling each attempt under the path of the operation, so it runs in order with the
+     * other operations on the path rather than concurrently with them
+     */
+    private void retry(SyncOperationScheduler.Lane lane, Path path, String operation,
+                       SyncRetryQueue.SyncOperation task, Exception cause) {
+        syncRetryQueue.retry(path, operation, task, cause,
+                attempt -> scheduleAttempt(attempt, runnable -> schedule(lane, path, runnable)));
+    }
+
+    private void retryDirectory(SyncOperationScheduler.Lane lane, Path dir, String operation,
+                                SyncRetryQueue.SyncOperation task, Exception cause) {
+        syncRetryQueue.retry(dir, operation, task, cause,
+                attempt -> scheduleAttempt(attempt, runnable -> scheduleTree(lane, dir, runnable)));
+    }
+
+    private static CompletableFuture<Void> scheduleAttempt(Callable<Void> attempt,
+                                                           Function<Runnable, CompletableFuture<Void>> scheduler) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        scheduler.apply(() -> {
+            try {
+                attempt.call();
+                result.complete(null);
+            } catch (Exception e) {
+                // Reported by the retry queue, which retries the attempt or gives up on it
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private void createFile(File file) {
+        Path filePath = file.toPath();
+        syncRetryQueue.cancel(filePath);
         try {
-            syncFileCreated(file.toPath());
+            syncFileCreated(filePath);
         } catch (FileAlreadyExistsException e) {
             log.warn("File: {} already exists on target directory: {}", file.getName(), syncDirectoriesInfo.targetDirPath());
         } catch (IOException e) {
-            stopAndFailIfMaxAttemptsReached(e);
+            retry(copyLane(file), filePath, "copy", () -> syncFileCreated(filePath), e);
         }
     }
 
-    @Override
-    public void onFileDelete(File file) {
+    private void updateFile(File file) {
+        Path filePath = file.toPath();
+        syncRetryQueue.cancel(filePath);
         try {
-            syncDeleted(file.toPath());
+            syncFileUpdated(filePath);
         } catch (IOException e) {
-            stopAndFailIfMaxAttemptsReached(e);
+            retry(copyLane(file), filePath, "update", () -> syncFileUpdated(filePath), e);
         }
     }
 
-    private void syncDeleted(Path filePath) throws IOException {
-        log.info("Detected file deletion: " + filePath);
-        SyncFile syncFile = syncFileFactory.create(filePath);
+    private void renameFile(RenameDetector.Rename rename) {
+        syncRetryQueue.cancel(rename.from());
+        syncRetryQueue.cancel(rename.to());
+        try {
+            if (syncRenamed(rename)) {
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to rename: {} to: {} on target directory, copying it instead",
+                    rename.from(), rename.to(), e);
+        }
+        deleteFile(rename.from().toFile(), Long.MAX_VALUE);
+        createFile(rename.to().toFile());
+    }
+
+    private void copyDirectory(Path dir, Set<Path> excluded) {
+        syncRetryQueue.cancel(dir);
         try {
-            syncFile.delete(syncDirectoriesInfo.targetDirPath());
-            log.info("Deleted file: {}", syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath()));
-        } catch (FileNotFoundException | NoSuchFileException e) {
-            log.warn("File already deleted: {}", syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath()));
+            syncDirectoryCreated(dir, excluded);
+        } catch (IOException e) {
+            retryDirectory(SyncOperationScheduler.Lane.LARGE_FILES, dir, "copy directory",
+                    () -> syncDirectoryCreated(dir, excluded), e);
+        }
+    }
+
+    private void deleteDirectory(Path dir) {
+        syncRetryQueue.cancel(dir);
+        try {
+            syncDirectoryDeleted(dir);
+        } catch (IOException e) {
+            retryDirectory(SyncOperationScheduler.Lane.DELETES, dir, "delete directory",
+                    () -> syncDirectoryDeleted(dir), e);
+        }
+    }
+
+    /**
+     * @param deletedAfterMillis the earliest time the file may have been deleted
+     */
+    private void deleteFile(File file, long deletedAfterMillis) {
+        Path filePath = file.toPath();
+        syncRetryQueue.cancel(filePath);
+        try {
+            syncDeleted(filePath, deletedAfterMillis);
+        } catch (IOException e) {
+            retry(SyncOperationScheduler.Lane.DELETES, filePath, "delete",
+                    () -> syncDeleted(filePath, deletedAfterMillis), e);
+        }
+    }
+
+    private void syncDeleted(Path filePath, long deletedAfterMillis) throws IOException {
+        log.debug("Detected file deletion: '{}'", filePath);
+        SyncFile syncFile = syncFileFactory.create(filePath);
+        File targetFile = syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath());
+        if (echoSuppressor != null && targetFile.lastModified() > deletedAfterMillis) {
+            log.debug("Keeping file: {} modified after the deletion of: {}", targetFile, filePath);
+            skipped(AuditJournal.Operation.DELETE, filePath);
+            return;
+        }
+        journaled(AuditJournal.Operation.DELETE, filePath, 0, () -> {
+            try {
+                writeTarget(targetFile, () -> syncFile.delete(syncDirectoriesInfo.targetDirPath()));
+                log.debug("Deleted file: {}", targetFile);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                log.warn("File already deleted: {}", targetFile);
+            }
+        });
+        if (renameDetector != null) {
+            renameDetector.forget(filePath);
+        }
+    }
+
+    private void syncFileUpdated(Path filePath) throws IOException {
+        log.debug("Detected file modification: '{}'", filePath);
+        SyncFile syncFile = syncFileFactory.create(filePath);
+        File targetFile = syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath());
+        if (!isNewerThanTarget(filePath, targetFile)) {
+            skipped(AuditJournal.Operation.UPDATE, filePath);
+            return;
+        }
+        journaled(AuditJournal.Operation.UPDATE, filePath, lengthIfJournaled(filePath),
+                () -> writeTarget(targetFile, () -> syncFile.update(syncDirectoriesInfo.targetDirPath())));
+        if (renameDetector != null) {
+            renameDetector.record(filePath);
         }
     }
 
     private void syncFileCreated(Path filePath) throws IOException {
-        log.info("Detected file creation: '{}'", filePath);
+        log.debug("Detected file creation: '{}'", filePath);
         SyncFile syncFile = syncFileFactory.create(filePath);
-        syncFile.copy(syncDirectoriesInfo.targetDirPath());
-        log.info("Copied file: {} to: {}", filePath, syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath()));
+        File targetFile = syncFile.getTargetFile(syncDirectoriesInfo.targetDirPath());
+        if (!isNewerThanTarget(filePath, targetFile)) {
+            skipped(AuditJournal.Operation.COPY, filePath);
+            return;
+        }
+        journaled(AuditJournal.Operation.COPY, filePath, lengthIfJournaled(filePath),
+                () -> writeTarget(targetFile, () -> syncFile.copy(syncDirectoriesInfo.targetDirPath())));
+        log.debug("Copied file: {} to: {}", filePath, targetFile);
+        if (renameDetector != null) {
+            renameDetector.record(filePath);
+        }
+    }
+
+    private void syncDirectoryCreated(Path dir, Set<Path> excluded) throws IOException {
+        log.info("Detected directory creation: '{}'", dir);
+        SyncDirectory syncDirectory = syncFileFactory.createDirectory(dir);
+        List<Path> failed = new ArrayList<>();
+        journaled(AuditJournal.Operation.COPY_DIRECTORY, dir, 0,
+                () -> failed.addAll(syncDirectory.copy(syncDirectoriesInfo.targetDirPath(), excluded)));
+        // Failed files are retried one by one, so a single file does not make the whole directory copied again
+        failed.forEach(path -> createFile(path.toFile()));
+        if (renameDetector != null) {
+            renameDetector.recordAll(dir, syncPathFilter);
+        }
+        log.info("Copied directory: {} to: {}", dir, syncDirectory.getTargetDir(syncDirectoriesInfo.targetDirPath()));
+    }
+
+    private void syncDirectoryDeleted(Path dir) throws IOException {
+        log.info("Detected directory deletion: '{}'", dir);
+        SyncDirectory syncDirectory = syncFileFactory.createDirectory(dir);
+        journaled(AuditJournal.Operation.DELETE_DIRECTORY, dir, 0,
+                () -> syncDirectory.delete(syncDirectoriesInfo.targetDirPath()));
+        if (renameDetector != null) {
+            renameDetector.forgetAll(dir);
+        }
+        log.info("Deleted directory: {}", syncDirectory.getTargetDir(syncDirectoriesInfo.targetDirPath()));
+    }
+
+    private boolean syncRenamed(RenameDetector.Rename rename) throws IOException {
+        log.debug("Detected file rename: '{}' to: '{}'", rename.from(), rename.to());
+        String targetDirPath = syncDirectoriesInfo.targetDirPath();
+        SyncFile syncFile = syncFileFactory.create(rename.from());
+        SyncFile renamed = syncFileFactory.create(rename.to());
+        File targetFile = syncFile.getTargetFile(targetDirPath);
+        File renamedTargetFile = renamed.getTargetFile(targetDirPath);
+        startTargetWrite(targetFile, renamedTargetFile);
+        long start = System.nanoTime();
+        boolean moved = false;
+        try {
+            moved = syncFile.rename(renamed, targetDirPath);
+        } finally {
+            endTargetWrite(targetFile, renamedTargetFile);
+            // A file that cannot be moved is copied instead, which is recorded as well
+            if (auditJournal != null) {
+                auditJournal.record(AuditJournal.Operation.MOVE, rename.to(), 0, System.nanoTime() - start,
+                        moved ? AuditJournal.Result.SUCCEEDED : AuditJournal.Result.FAILED);
+            }
+        }
+        if (!moved) {
+            return false;
+        }
+        renameDetector.renamed(rename);
+        log.debug("Moved file: {} to: {}", rename.from(), renamedTargetFile);
+        return true;
+    }
+
+    /**
+     * Last writer wins in a two-way synchronization: a file is not copied over a target file modified later, which is
+     * synchronized in the opposite direction instead. When both were modified at the same time but differ, the
+     * direction whose source directory sorts first wins, so exactly one of the two directions copies the file.
+     */
+    private boolean isNewerThanTarget(Path filePath, File targetFile) {
+        if (echoSuppressor == null) {
+            return true;
+        }
+        long lastModified = filePath.toFile().lastModified();
+        long targetLastModified = targetFile.lastModified();
+        if (lastModified > targetLastModified) {
+            return true;
+        }
+        if (lastModified == targetLastModified && winsTies && !isSameContent(filePath, targetFile)) {
+            log.debug("Copying file: {} over target file: {} modified at the same time", filePath, targetFile);
+            return true;
+        }
+        log.debug("Not copying file: {} over target file: {} modified at the same time or later", filePath,
+                targetFile);
+        return false;
+    }
+
+    private static boolean isSameContent(Path filePath, File targetFile) {
+        try {
+            return filePath.toFile().length() == targetFile.length()
+                    && Files.mismatch(filePath, targetFile.toPath()) < 0;
+        } catch (IOException e) {
+            log.debug("Cannot compare file: {} with target file: {}", filePath, targetFile, e);
+            return false;
+        }
+    }
+
+    private void journaled(AuditJournal.Operation operation, Path path, long bytes,
+                           SyncRetryQueue.SyncOperation syncOperation) throws IOException {
+        if (auditJournal == null) {
+            syncOperation.run();
+            return;
+        }
+        long start = System.nanoTime();
+        AuditJournal.Result result = AuditJournal.Result.FAILED;
+        try {
+            syncOperation.run();
+            result = AuditJournal.Result.SUCCEEDED;
+        } finally {
+            auditJournal.record(operation, path, bytes, System.nanoTime() - start, result);
+        }
+    }
+
+    private void skipped(AuditJournal.Operation operation, Path path) {
+        if (auditJournal != null) {
+            auditJournal.record(operation, path, 0, 0, AuditJournal.Result.SKIPPED);
+        }
+    }
+
+    private long lengthIfJournaled(Path filePath) {
+        return auditJournal == null ? 0 : filePath.toFile().length();
+    }
+
+    private void writeTarget(File targetFile, SyncRetryQueue.SyncOperation operation) throws IOException {
+        startTargetWrite(targetFile);
+        try {
+            operation.run();
+        } finally {
+            endTargetWrite(targetFile);
+        }
+    }
+
+    private void startTargetWrite(File... targetFiles) {
+        if (echoSuppressor != null) {
+            Arrays.stream(targetFiles).forEach(targetFile -> echoSuppressor.startWrite(targetFile.toPath()));
+        }
+    }
+
+    private void endTargetWrite(File... targetFiles) {
+        if (echoSuppressor != null) {
+            Arrays.stream(targetFiles).forEach(targetFile -> echoSuppressor.endWrite(targetFile.toPath()));
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import org.dirsync.controller.event.FileSystemEvent;
 import org.dirsync.exception.DirectoryWatchFailedException;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface DirectoryWatchService {
 
@@ -14,7 +15,13 @@ public interface DirectoryWatchService {
      */
     void registerRoot(String directory) throws DirectoryWatchFailedException;
 
-    void registerSubDirectory(String subDirectory) throws DirectoryWatchFailedException;
+    /**
+     * Register a sub-directory to watch for file system events, retrying in the background if registration fails
+     * @param subDirectory the sub-directory to watch
+     * @return a future completed when the sub-directory is registered, or failed with a
+     * {@link DirectoryWatchFailedException} if it cannot be watched
+     */
+    CompletableFuture<Void> registerSubDirectory(String subDirectory);
 
     /**
      * Poll for file system events
@@ -22,4 +29,10 @@ public interface DirectoryWatchService {
      * @throws InterruptedException if the thread is interrupted while waiting for events
      */
     Set<FileSystemEvent> pollEvents() throws InterruptedException;
+
+    /**
+     * Release the resources used to watch directories
+     */
+    default void close() {
+    }
 }
@@ -5,29 +5,41 @@ import lombok.extern.slf4j.Slf4j;
 import org.dirsync.controller.event.FileSystemEvent;
 import org.dirsync.controller.event.FileSystemEventUtils;
 import org.dirsync.exception.DirectoryWatchFailedException;
-import org.dirsync.util.RetryUtils;
+import org.dirsync.model.dir.SyncPathFilter;
+import org.dirsync.util.RetryScheduler;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 @Slf4j
 public class DirectoryWatchServiceImpl implements DirectoryWatchService {
 
     private final WatchService watchService;
-    private String rootDirectory;
+    private final RetryScheduler retryScheduler;
+    private final SyncPathFilter syncPathFilter;
+    private final WatchKeyRegistry watchKeyRegistry;
+    private final HotColdWatchRegistry hotColdWatchRegistry;
+    // Only accessed by the polling thread
+    private final Map<Path, FileSystemEvent> latestEvents = new HashMap<>();
+    private long nextSequence;
 
     private static final Map<WatchEvent.Kind<?>, FileSystemEvent.Type> kindToEventMap = Map.of(
             ENTRY_CREATE, FileSystemEvent.Type.CREATED,
@@ -37,16 +49,48 @@ public class DirectoryWatchServiceImpl implements DirectoryWatchService {
     //ForTesting
     DirectoryWatchServiceImpl() {
         watchService = null;
+        retryScheduler = null;
+        syncPathFilter = null;
+        watchKeyRegistry = null;
+        hotColdWatchRegistry = null;
     }
 
     public DirectoryWatchServiceImpl(WatchService watchService) {
+        this(watchService, new RetryScheduler());
+    }
+
+    public DirectoryWatchServiceImpl(WatchService watchService, RetryScheduler retryScheduler) {
+        this(watchService, retryScheduler, null);
+    }
+
+    /**
+     * @param syncPathFilter excluded directories are not watched and events of excluded paths are dropped, or null to
+     *                       watch everything
+     */
+    public DirectoryWatchServiceImpl(WatchService watchService, RetryScheduler retryScheduler,
+                                     SyncPathFilter syncPathFilter) {
+        this(watchService, retryScheduler, syncPathFilter, 0, 0);
+    }
+
+    /**
+     * @param watchBudget            the maximum number of directories watched by the watch service, the least recently
+     *                               active ones being polled instead, or 0 to watch every directory
+     * @param coldPollIntervalMillis how often the directories not watched are polled
+     */
+    public DirectoryWatchServiceImpl(WatchService watchService, RetryScheduler retryScheduler,
+                                     SyncPathFilter syncPathFilter, int watchBudget, long coldPollIntervalMillis) {
         this.watchService = watchService;
+        this.retryScheduler = retryScheduler;
+        this.syncPathFilter = syncPathFilter;
+        this.watchKeyRegistry = new WatchKeyRegistry(watchService);
+        this.hotColdWatchRegistry = watchBudget > 0
+                ? new HotColdWatchRegistry(watchKeyRegistry, watchBudget, coldPollIntervalMillis)
+                : null;
     }
 
     @Override
     public void registerRoot(String rootDirectory) throws DirectoryWatchFailedException {
         try {
-            this.rootDirectory = rootDirectory;
             register(rootDirectory);
         } catch (Exception ex) {
             throw new DirectoryWatchFailedException("Failed registering root directory: '" + rootDirectory + "' to watch service", ex);
@@ -54,53 +98,183 @@ public class DirectoryWatchServiceImpl implements DirectoryWatchService {
     }
 
     @Override
-    public void registerSubDirectory(String subDirectory) throws DirectoryWatchFailedException {
-        try {
-            RetryUtils.retryWithInterval(() -> register(subDirectory),
-                    "Failed to register sub-directory: '" + subDirectory + "'");
-        } catch (Exception ex) {
-            throw new DirectoryWatchFailedException("Failed registering sub directory: '" + subDirectory + "' to watch service", ex);
-        }
+    public CompletableFuture<Void> registerSubDirectory(String subDirectory) {
+        CompletableFuture<Void> registered = new CompletableFuture<>();
+        retryScheduler.retry(() -> register(subDirectory), "Failed to register sub-directory: '" + subDirectory + "'")
+                .whenComplete((ignored, ex) -> {
+                    if (ex == null) {
+                        registered.complete(null);
+                        return;
+                    }
+                    log.error("Failed registering sub directory: '{}' to watch service", subDirectory, ex);
+                    registered.completeExceptionally(new DirectoryWatchFailedException(
+                            "Failed registering sub directory: '" + subDirectory + "' to watch service", ex));
+                });
+        return registered;
     }
 
+    /**
+     * Register a directory with its sub-directories
+     */
     //VisibleForTesting
     @SneakyThrows
     void register(String directory) {
-        log.info("Registering directory to watch: '{}'", directory);
         Path path = Paths.get(directory);
-        path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        if (!accept(path)) {
+            log.debug("Not watching excluded directory: '{}'", directory);
+            return;
+        }
+        log.info("Registering directory to watch: '{}'", directory);
+        watchKeyRegistry.registerTree(path, this::accept, hotColdWatchRegistry != null
+                ? hotColdWatchRegistry::register
+                : watchKeyRegistry::register);
+        log.debug("Watching {} directories", watchKeyRegistry.size());
+    }
+
+    /**
+     * Stop the threads listing the directories to register. The watch service is closed by its owner.
+     */
+    @Override
+    public void close() {
+        if (watchKeyRegistry != null) {
+            watchKeyRegistry.close();
+        }
     }
 
     @Override
     public Set<FileSystemEvent> pollEvents() throws InterruptedException {
-        WatchKey watchKey = watchService.take();
+        WatchKey watchKey = hotColdWatchRegistry == null
+                ? watchService.take()
+                : watchService.poll(hotColdWatchRegistry.getMillisUntilColdPoll(), TimeUnit.MILLISECONDS);
+        if (watchKey != null) {
+            pollKeyEvents(watchKey);
+        }
+        if (hotColdWatchRegistry != null) {
+            for (HotColdWatchRegistry.Change change : hotColdWatchRegistry.pollColdIfDue()) {
+                if (accept(change.path())) {
+                    FileSystemEventUtils.keepLatest(latestEvents,
+                            new FileSystemEvent(change.path(), change.type(), nextSequence++));
+                }
+            }
+        }
+        return FileSystemEventUtils.drainLatest(latestEvents);
+    }
+
+    private void pollKeyEvents(WatchKey watchKey) {
+        Path dir = watchKeyRegistry.getDirectory(watchKey);
         List<WatchEvent<?>> watchEvents = watchKey.pollEvents();
-        Set<FileSystemEvent> fileSystemEvents = toFileSystemEvents(watchEvents);
-        return FileSystemEventUtils.resolveDuplicates(fileSystemEvents);
+        // Without a reset, the key is not signalled again. A key that cannot be reset watches a deleted directory.
+        boolean valid = watchKey.reset();
+        if (!valid) {
+            watchKeyRegistry.remove(watchKey);
+        }
+        if (dir == null) {
+            log.debug("Dropping {} events of a cancelled watch key", watchEvents.size());
+            return;
+        }
+        if (hotColdWatchRegistry != null) {
+            if (valid) {
+                hotColdWatchRegistry.touch(dir);
+            } else {
+                hotColdWatchRegistry.forget(dir);
+            }
+        }
+        // Events of a key are in the order they occurred, so the sequence number orders the events of a path
+        for (WatchEvent<?> watchEvent : watchEvents) {
+            FileSystemEvent fileSystemEvent = toFileSystemEvent(dir, watchEvent);
+            if (fileSystemEvent == null) {
+                continue;
+            }
+            if (fileSystemEvent.type() == FileSystemEvent.Type.DELETED) {
+                forgetDeletedDirectories(fileSystemEvent.path());
+            }
+            FileSystemEventUtils.keepLatest(latestEvents, fileSystemEvent);
+            if (fileSystemEvent.type() == FileSystemEvent.Type.CREATED
+                    && Files.isDirectory(fileSystemEvent.path(), LinkOption.NOFOLLOW_LINKS)) {
+                watchCreatedDirectory(fileSystemEvent.path());
+            }
+        }
+    }
+
+    /**
+     * Register a created directory with its sub-directories, and report its entries as created, since the entries
+     * created before its registration have no event
+     */
+    private void watchCreatedDirectory(Path dir) {
+        try {
+            register(dir.toString());
+        } catch (Exception e) {
+            log.warn("Failed to watch created directory: '{}', retrying", dir, e);
+            registerSubDirectory(dir.toString());
+        }
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attributes) {
+                    if (subDir.equals(dir)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (!accept(subDir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    keepCreated(subDir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (accept(file)) {
+                        keepCreated(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Deleted meanwhile, its deletion has an event
+                    log.debug("Failed to list created entry: '{}'", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to list the entries of created directory: '{}'", dir, e);
+        }
     }
 
-    private Set<FileSystemEvent> toFileSystemEvents(List<WatchEvent<?>> watchEvents) {
-        return watchEvents.stream()
-                .map(this::toFileSystemEvent)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toUnmodifiableSet());
+    private void keepCreated(Path path) {
+        FileSystemEventUtils.keepLatest(latestEvents,
+                new FileSystemEvent(path, FileSystemEvent.Type.CREATED, nextSequence++));
     }
 
-    private FileSystemEvent toFileSystemEvent(WatchEvent<?> watchEvent) {
+    /**
+     * Cancel the keys of a deleted directory and its sub-directories, which some watch services keep valid
+     */
+    private void forgetDeletedDirectories(Path path) {
+        for (Path dir : watchKeyRegistry.cancelTree(path)) {
+            if (hotColdWatchRegistry != null) {
+                hotColdWatchRegistry.forget(dir);
+            }
+        }
+    }
+
+    private FileSystemEvent toFileSystemEvent(Path dir, WatchEvent<?> watchEvent) {
         if (invalidEvent(watchEvent)) {
             return null;
         }
-        Path fullPath = toFullPath(watchEvent);
+        Path fullPath = dir.resolve((Path) watchEvent.context());
+        if (!accept(fullPath)) {
+            return null;
+        }
         FileSystemEvent.Type type = kindToEventMap.get(watchEvent.kind());
-        return new FileSystemEvent(fullPath, type);
+        return new FileSystemEvent(fullPath, type, nextSequence++);
     }
 
-    private boolean invalidEvent(WatchEvent<?> watchEvent) {
-        return unfamiliarEventKind(watchEvent.kind());
+    private boolean accept(Path path) {
+        return syncPathFilter == null || syncPathFilter.accept(path, () -> Files.isDirectory(path));
     }
 
-    private Path toFullPath(WatchEvent<?> watchEvent) {
-        return Path.of(rootDirectory + File.separator + ((Path) watchEvent.context()).getFileName());
+    private boolean invalidEvent(WatchEvent<?> watchEvent) {
+        return unfamiliarEventKind(watchEvent.kind());
     }
 
     private boolean unfamiliarEventKind(WatchEvent.Kind<?> kind) {
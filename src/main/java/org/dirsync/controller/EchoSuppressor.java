@@ -0,0 +1,143 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the files written by the synchronizers of a two-way synchronization, so the events their writes cause in the
+ * opposite direction are dropped instead of being synchronized back.
+ * <p>
+ * A path is suppressed while it is being written. Once written, the state the write left the file in, its existence,
+ * length and last modified time, is expected: the next event of the path is dropped only if the file is still in that
+ * state, which consumes the expectation. An edit after the write changes the state, so its event is synchronized. An
+ * expectation whose event never comes, e.g. because the file was written again before the opposite synchronizer
+ * checked its directory, expires after a window.
+ */
+@Slf4j
+public class EchoSuppressor {
+
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    /**
+     * The state of a file after a write, with the time until which it is expected
+     * @param exists             whether the write left the file existing, false for a deletion
+     * @param directory          whether the file is a directory, whose length and last modified time change with its
+     *                           entries and are not compared
+     */
+    private record Expectation(boolean exists, boolean directory, long length, long lastModifiedMillis,
+                               long untilNanos) {
+
+        private static final Expectation IN_FLIGHT = new Expectation(false, false, 0, 0, Long.MAX_VALUE);
+
+        private boolean isInFlight() {
+            return this == IN_FLIGHT;
+        }
+
+        private boolean isExpired(long nowNanos) {
+            return !isInFlight() && untilNanos - nowNanos < 0;
+        }
+
+        private boolean matches(Expectation current) {
+            if (exists != current.exists || directory != current.directory) {
+                return false;
+            }
+            return !exists || directory
+                    || length == current.length && lastModifiedMillis == current.lastModifiedMillis;
+        }
+    }
+
+    private final long windowNanos;
+    private final LongSupplier nanoTimeSupplier;
+    private final Map<Path, Expectation> expectations = new ConcurrentHashMap<>();
+
+    /**
+     * @param window how long the state of a written file is expected after it was written
+     */
+    public EchoSuppressor(Duration window) {
+        this(window, System::nanoTime);
+    }
+
+    //VisibleForTesting
+    EchoSuppressor(Duration window, LongSupplier nanoTimeSupplier) {
+        this.windowNanos = window.toNanos();
+        this.nanoTimeSupplier = nanoTimeSupplier;
+    }
+
+    public static EchoSuppressor fromSystemProperties() {
+        return new EchoSuppressor(Duration.ofMillis(Long.getLong("dir.sync.echo.window.millis", 2000)));
+    }
+
+    /**
+     * Suppress the events of a file until {@link #endWrite(Path)}
+     */
+    public void startWrite(Path path) {
+        expectations.put(normalize(path), Expectation.IN_FLIGHT);
+    }
+
+    /**
+     * Expect the event of the state the write left the file in
+     */
+    public void endWrite(Path path) {
+        Path normalizedPath = normalize(path);
+        long now = nanoTimeSupplier.getAsLong();
+        try {
+            expectations.put(normalizedPath, stateOf(normalizedPath, now + windowNanos));
+        } catch (IOException e) {
+            // The echo is then synchronized back, which finds the files identical
+            log.debug("Failed to read the state of written file: {}", normalizedPath, e);
+            expectations.remove(normalizedPath);
+        }
+        if (expectations.size() > PURGE_THRESHOLD) {
+            expectations.values().removeIf(expectation -> expectation.isExpired(now));
+        }
+    }
+
+    /**
+     * @return whether an event of the path was caused by a write of the opposite synchronizer, in which case the
+     * write no longer is expected
+     */
+    public boolean isEcho(Path path) {
+        Path normalizedPath = normalize(path);
+        Expectation expectation = expectations.get(normalizedPath);
+        if (expectation == null) {
+            return false;
+        }
+        if (expectation.isInFlight()) {
+            return true;
+        }
+        // Consumed whether it matches or not: the event of an edit after the write replaces the event of the write
+        expectations.remove(normalizedPath, expectation);
+        if (expectation.isExpired(nanoTimeSupplier.getAsLong())) {
+            return false;
+        }
+        try {
+            return expectation.matches(stateOf(normalizedPath, 0));
+        } catch (IOException e) {
+            log.debug("Failed to read the state of file: {}, synchronizing its event", normalizedPath, e);
+            return false;
+        }
+    }
+
+    private static Expectation stateOf(Path path, long untilNanos) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Expectation(true, attributes.isDirectory(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), untilNanos);
+        } catch (NoSuchFileException e) {
+            return new Expectation(false, false, 0, 0, untilNanos);
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
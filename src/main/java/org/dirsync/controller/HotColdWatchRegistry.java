@@ -0,0 +1,255 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.controller.event.FileSystemEvent;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches at most a budget of directories with the {@link java.nio.file.WatchService}, e.g. to stay within
+ * {@code fs.inotify.max_user_watches}, and polls the others.
+ * <p>
+ * Watched directories are hot: once the budget is reached, the least recently active one is demoted to cold to watch
+ * a new directory. A cold directory is polled by comparing its last modified time, which changes when its entries are
+ * created, deleted or renamed, and then its entries with the ones it had when demoted. A changed cold directory is
+ * promoted back to hot. Polling costs a stat per cold directory, and the memory of the entry names of cold directories.
+ */
+@Slf4j
+class HotColdWatchRegistry {
+
+    // The coarsest last modified time granularity of common file systems
+    private static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+    /**
+     * An entry of a cold directory created or deleted since it was last polled
+     */
+    record Change(Path path, FileSystemEvent.Type type) {
+    }
+
+    /**
+     * @param racy whether the directory was listed too soon after it was modified to tell a later change by its last
+     *             modified time, on file systems with a coarse timestamp granularity
+     */
+    private record ColdDirectory(long lastModifiedMillis, String[] entries, boolean racy) {
+
+        private static ColdDirectory of(long lastModifiedMillis, String[] entries) {
+            return new ColdDirectory(lastModifiedMillis, entries,
+                    System.currentTimeMillis() - lastModifiedMillis < TIMESTAMP_GRANULARITY_MILLIS);
+        }
+    }
+
+    private final WatchKeyRegistry watchKeyRegistry;
+    private final int watchBudget;
+    private final long coldPollIntervalNanos;
+    // In order of activity, the least recently active first
+    private final LinkedHashMap<Path, WatchKey> hotDirectories = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, ColdDirectory> coldDirectories = new HashMap<>();
+    private long nextColdPollNanos;
+
+    /**
+     * @param watchBudget            the maximum number of watched directories
+     * @param coldPollIntervalMillis how often cold directories are polled
+     */
+    HotColdWatchRegistry(WatchKeyRegistry watchKeyRegistry, int watchBudget, long coldPollIntervalMillis) {
+        if (watchBudget < 1) {
+            throw new IllegalArgumentException("Watch budget must be positive: " + watchBudget);
+        }
+        this.watchKeyRegistry = watchKeyRegistry;
+        this.watchBudget = watchBudget;
+        this.coldPollIntervalNanos = coldPollIntervalMillis * 1_000_000;
+        this.nextColdPollNanos = System.nanoTime() + coldPollIntervalNanos;
+    }
+
+    /**
+     * Watch a directory, demoting the least recently active directory if the budget is reached
+     */
+    synchronized void register(Path dir) throws IOException {
+        coldDirectories.remove(dir);
+        if (hotDirectories.containsKey(dir)) {
+            return;
+        }
+        while (hotDirectories.size() >= watchBudget) {
+            demoteLeastRecentlyActive();
+        }
+        hotDirectories.put(dir, watchKeyRegistry.register(dir));
+    }
+
+    /**
+     * Record activity in a watched directory, so it is demoted last
+     */
+    synchronized void touch(Path dir) {
+        WatchKey watchKey = hotDirectories.get(dir);
+        if (watchKey != null && !watchKey.isValid()) {
+            // Deleted, or no longer accessible
+            hotDirectories.remove(dir);
+        }
+    }
+
+    /**
+     * Stop watching or polling a deleted directory
+     */
+    synchronized void forget(Path dir) {
+        hotDirectories.remove(dir);
+        coldDirectories.remove(dir);
+    }
+
+    /**
+     * @return the milliseconds until cold directories are polled next, at least 1
+     */
+    synchronized long getMillisUntilColdPoll() {
+        return Math.max(1, (nextColdPollNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * Poll the cold directories if the interval elapsed, promoting the changed ones
+     * @return the changes found, empty if the interval did not elapse
+     */
+    synchronized List<Change> pollColdIfDue() {
+        if (System.nanoTime() - nextColdPollNanos < 0) {
+            return List.of();
+        }
+        nextColdPollNanos = System.nanoTime() + coldPollIntervalNanos;
+        return pollCold();
+    }
+
+    //VisibleForTesting
+    synchronized List<Change> pollCold() {
+        Map<Path, ColdDirectory> changedDirs = new LinkedHashMap<>();
+        Iterator<Map.Entry<Path, ColdDirectory>> iterator = coldDirectories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, ColdDirectory> entry = iterator.next();
+            Path dir = entry.getKey();
+            ColdDirectory coldDirectory = entry.getValue();
+            try {
+                long lastModifiedMillis = Files.getLastModifiedTime(dir).toMillis();
+                if (lastModifiedMillis == coldDirectory.lastModifiedMillis()) {
+                    if (!coldDirectory.racy()) {
+                        continue;
+                    }
+                    // Listed in case a change was hidden by the timestamp granularity
+                    String[] entries = list(dir);
+                    if (Arrays.equals(entries, coldDirectory.entries())) {
+                        entry.setValue(ColdDirectory.of(lastModifiedMillis, entries));
+                        continue;
+                    }
+                }
+                changedDirs.put(dir, coldDirectory);
+            } catch (NoSuchFileException e) {
+                // Reported as deleted by its parent directory
+                iterator.remove();
+            } catch (IOException e) {
+                log.warn("Failed to poll directory: '{}'", dir, e);
+            }
+        }
+        List<Change> changes = new ArrayList<>();
+        changedDirs.forEach((dir, coldDirectory) -> promote(dir, coldDirectory, changes));
+        return changes;
+    }
+
+    /**
+     * Watch a changed cold directory, then report the changes of its entries since it was listed. Watched before it
+     * is listed, so a change in between is reported at worst twice, rather than lost.
+     */
+    private void promote(Path dir, ColdDirectory coldDirectory, List<Change> changes) {
+        boolean watched = false;
+        try {
+            register(dir);
+            watched = true;
+        } catch (NoSuchFileException e) {
+            coldDirectories.remove(dir);
+            return;
+        } catch (IOException e) {
+            log.warn("Failed to watch changed directory: '{}', polling it", dir, e);
+        }
+        try {
+            long lastModifiedMillis = Files.getLastModifiedTime(dir).toMillis();
+            String[] entries = list(dir);
+            diff(dir, coldDirectory.entries(), entries, changes);
+            if (!watched) {
+                coldDirectories.put(dir, ColdDirectory.of(lastModifiedMillis, entries));
+            }
+        } catch (NoSuchFileException e) {
+            forget(dir);
+        } catch (IOException e) {
+            log.warn("Failed to poll directory: '{}'", dir, e);
+        }
+    }
+
+    synchronized int getNumHotDirectories() {
+        return hotDirectories.size();
+    }
+
+    synchronized int getNumColdDirectories() {
+        return coldDirectories.size();
+    }
+
+    synchronized boolean isHot(Path dir) {
+        return hotDirectories.containsKey(dir);
+    }
+
+    private void demoteLeastRecentlyActive() {
+        Iterator<Map.Entry<Path, WatchKey>> iterator = hotDirectories.entrySet().iterator();
+        Map.Entry<Path, WatchKey> leastRecentlyActive = iterator.next();
+        iterator.remove();
+        Path dir = leastRecentlyActive.getKey();
+        try {
+            // Listed before the watch is cancelled, so a change in between is reported at worst twice
+            coldDirectories.put(dir, snapshot(dir));
+            log.debug("Polling idle directory: '{}' instead of watching it", dir);
+        } catch (NoSuchFileException e) {
+            log.debug("Not polling deleted directory: '{}'", dir);
+        } catch (IOException e) {
+            log.warn("Failed to list idle directory: '{}', it is neither watched nor polled", dir, e);
+        } finally {
+            watchKeyRegistry.cancel(dir);
+        }
+    }
+
+    private static ColdDirectory snapshot(Path dir) throws IOException {
+        long lastModifiedMillis = Files.getLastModifiedTime(dir).toMillis();
+        return ColdDirectory.of(lastModifiedMillis, list(dir));
+    }
+
+    private static String[] list(Path dir) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries.add(entry.getFileName().toString());
+            }
+        }
+        String[] sorted = entries.toArray(String[]::new);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Compare two sorted lists of entries
+     */
+    private static void diff(Path dir, String[] before, String[] after, List<Change> changes) {
+        int i = 0;
+        int j = 0;
+        while (i < before.length || j < after.length) {
+            int comparison = i == before.length ? 1 : j == after.length ? -1 : before[i].compareTo(after[j]);
+            if (comparison < 0) {
+                changes.add(new Change(dir.resolve(before[i++]), FileSystemEvent.Type.DELETED));
+            } else if (comparison > 0) {
+                changes.add(new Change(dir.resolve(after[j++]), FileSystemEvent.Type.CREATED));
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+}
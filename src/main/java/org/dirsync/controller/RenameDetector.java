@@ -0,0 +1,213 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects files that were renamed or moved within the source directory, which are reported as a deletion and a
+ * creation, by matching their {@link BasicFileAttributes#fileKey() file keys}. A rename keeps the size and last
+ * modified time of a file, which are matched too, so a new file reusing the file key of a deleted one is copied.
+ * <p>
+ * The file key of each synchronized file is recorded when it is copied. During a check of the source directory,
+ * deletions of recorded files and creations of files with a recorded key are deferred until the end of the check,
+ * since a check reports the two events of a rename in either order. Deferred events that were not matched are
+ * synchronized as usual. File systems without file keys get no rename detection.
+ */
+@Slf4j
+public class RenameDetector {
+
+    /**
+     * @param from the path of the file before it was renamed
+     * @param to   the path of the file after it was renamed
+     */
+    public record Rename(Path from, Path to) {
+    }
+
+    /**
+     * The events of a check, after the renames were matched
+     */
+    public record Resolution(List<Rename> renames, List<Path> deletions, List<Path> creations) {
+    }
+
+    private record RecordedFile(Object fileKey, long size, FileTime lastModifiedTime) {
+
+        private static RecordedFile of(BasicFileAttributes attrs) {
+            return new RecordedFile(attrs.fileKey(), attrs.size(), attrs.lastModifiedTime());
+        }
+    }
+
+    private final Map<Path, RecordedFile> recordedFileByPath = new ConcurrentHashMap<>();
+    private final Map<Object, Path> pathByFileKey = new ConcurrentHashMap<>();
+    // Only accessed by the thread checking the source directory
+    private final Map<Object, Path> deferredDeletions = new LinkedHashMap<>();
+    private final Map<Object, Path> deferredCreations = new LinkedHashMap<>();
+    private boolean checking = false;
+
+    /**
+     * Record the file keys of the files already in the source directory
+     * @param fileFilter the files to record, or null for all files
+     */
+    public void recordAll(Path sourceDir, FileFilter fileFilter) throws IOException {
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(sourceDir) && fileFilter != null && !fileFilter.accept(dir.toFile())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && (fileFilter == null || fileFilter.accept(file.toFile()))) {
+                    record(file, RecordedFile.of(attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.debug("Failed to record file key of: {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.debug("Recorded file keys of {} files", recordedFileByPath.size());
+    }
+
+    /**
+     * Record the file key of a synchronized file
+     */
+    public void record(Path path) {
+        RecordedFile recordedFile = read(path);
+        if (recordedFile != null) {
+            record(path, recordedFile);
+        }
+    }
+
+    private void record(Path path, RecordedFile recordedFile) {
+        if (recordedFile.fileKey() == null) {
+            return;
+        }
+        RecordedFile previous = recordedFileByPath.put(path, recordedFile);
+        if (previous != null && !previous.fileKey().equals(recordedFile.fileKey())) {
+            pathByFileKey.remove(previous.fileKey(), path);
+        }
+        pathByFileKey.put(recordedFile.fileKey(), path);
+    }
+
+    /**
+     * Forget the file key of a file deleted from the target directory
+     */
+    public void forget(Path path) {
+        RecordedFile recordedFile = recordedFileByPath.remove(path);
+        if (recordedFile != null) {
+            pathByFileKey.remove(recordedFile.fileKey(), path);
+        }
+    }
+
+    /**
+     * Forget the file keys of the files in a directory deleted from the target directory
+     */
+    public void forgetAll(Path dir) {
+        recordedFileByPath.keySet().stream()
+                .filter(path -> path.startsWith(dir))
+                .toList()
+                .forEach(this::forget);
+    }
+
+    /**
+     * Update the recorded path of a file renamed in the target directory
+     */
+    public void renamed(Rename rename) {
+        RecordedFile recordedFile = recordedFileByPath.remove(rename.from());
+        if (recordedFile == null) {
+            record(rename.to());
+            return;
+        }
+        recordedFileByPath.put(rename.to(), recordedFile);
+        pathByFileKey.put(recordedFile.fileKey(), rename.to());
+    }
+
+    /**
+     * Start deferring the events of a check of the source directory
+     */
+    public void startCheck() {
+        checking = true;
+    }
+
+    /**
+     * @return whether the deletion is deferred until the end of the check, as it may be part of a rename
+     */
+    public boolean deferDeletion(Path path) {
+        RecordedFile recordedFile = recordedFileByPath.get(path);
+        if (!checking || recordedFile == null) {
+            return false;
+        }
+        deferredDeletions.put(recordedFile.fileKey(), path);
+        return true;
+    }
+
+    /**
+     * @return whether the creation is deferred until the end of the check, as it may be part of a rename
+     */
+    public boolean deferCreation(Path path) {
+        if (!checking) {
+            return false;
+        }
+        RecordedFile createdFile = read(path);
+        if (createdFile == null || createdFile.fileKey() == null) {
+            return false;
+        }
+        Path renamedPath = pathByFileKey.get(createdFile.fileKey());
+        if (renamedPath == null || !createdFile.equals(recordedFileByPath.get(renamedPath))) {
+            return false;
+        }
+        deferredCreations.put(createdFile.fileKey(), path);
+        return true;
+    }
+
+    /**
+     * Match the deferred events of the check
+     * @return the renames, and the deletions and creations that were not part of a rename
+     */
+    public Resolution endCheck() {
+        checking = false;
+        List<Rename> renames = new ArrayList<>();
+        List<Path> creations = new ArrayList<>();
+        deferredCreations.forEach((fileKey, to) -> {
+            Path from = deferredDeletions.remove(fileKey);
+            if (from == null) {
+                creations.add(to);
+            } else {
+                renames.add(new Rename(from, to));
+            }
+        });
+        List<Path> deletions = new ArrayList<>(deferredDeletions.values());
+        deferredCreations.clear();
+        deferredDeletions.clear();
+        return new Resolution(renames, deletions, creations);
+    }
+
+    private static RecordedFile read(Path path) {
+        try {
+            return RecordedFile.of(Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            log.debug("Failed to read file key of: {}", path, e);
+            return null;
+        }
+    }
+}
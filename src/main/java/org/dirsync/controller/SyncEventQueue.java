@@ -0,0 +1,505 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A FIFO queue of file events between their detection and their synchronization, bounded in memory.
+ * <p>
+ * Up to a capacity, events are kept in memory. Past it, events are appended to segment files in a spill directory,
+ * and read back in order once the events in memory were taken, so a burst of events costs disk space instead of heap.
+ * While spilled events are pending, new events are spilled too, to keep their order. When the spilled bytes reach
+ * their limit, {@link #put(SyncEvent)} blocks until events are taken, slowing down the detection.
+ * <p>
+ * Segment files are deleted once read back, or by {@link #discard()}. Events left spilled when stopping with
+ * {@link #closeKeepingSpilled()} are kept in their segment files, and replayed first by the next queue on the spill
+ * directory, including the segment files of a process that did not stop.
+ */
+@Slf4j
+public class SyncEventQueue implements AutoCloseable {
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("events-(\\d{16})\\.log");
+    // The type, time and length of the path of an event
+    private static final int EVENT_HEADER_SIZE = Byte.BYTES + Long.BYTES + Short.BYTES;
+
+    /**
+     * @param timeMillis for deletions, the earliest time the file may have been deleted
+     */
+    public record SyncEvent(Type type, Path path, long timeMillis) {
+
+        public enum Type {
+            CREATE,
+            CHANGE,
+            DELETE
+        }
+    }
+
+    /**
+     * @param numPut             the number of events put in the queue
+     * @param numTaken           the number of events taken from the queue
+     * @param numSpilled         the number of events that were spilled to disk
+     * @param numInMemory        the number of events currently queued in memory
+     * @param numSpilledPending  the number of spilled events not taken yet
+     * @param spilledBytes       the bytes of the segment files on disk
+     * @param blockedMillis      the total time {@link #put(SyncEvent)} was blocked by the spilled bytes limit
+     */
+    public record Metrics(long numPut, long numTaken, long numSpilled, int numInMemory, long numSpilledPending,
+                          long spilledBytes, long blockedMillis) {
+    }
+
+    private final int capacity;
+    private final Path spillDir;
+    private final long maxSpilledBytes;
+    private final long segmentSize;
+    private final Queue<SyncEvent> memory = new ArrayDeque<>();
+    private final Queue<Segment> segments = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private Segment writeSegment;
+    private DataOutputStream writer;
+    private DataInputStream reader;
+    private long numPut;
+    private long numTaken;
+    private long numSpilled;
+    private long numSpilledPending;
+    private long spilledBytes;
+    private long blockedNanos;
+    private long nextSegmentNumber;
+    private boolean closed;
+    private boolean keepSpilled;
+
+    /**
+     * @param capacity        the number of events kept in memory
+     * @param spillDir        the directory of the segment files events are spilled to
+     * @param maxSpilledBytes the bytes of spilled events at which {@link #put(SyncEvent)} blocks, 0 for no limit
+     */
+    public SyncEventQueue(int capacity, Path spillDir, long maxSpilledBytes) {
+        this(capacity, spillDir, maxSpilledBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    //VisibleForTesting
+    SyncEventQueue(int capacity, Path spillDir, long maxSpilledBytes, long segmentSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Event queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.spillDir = spillDir;
+        this.maxSpilledBytes = maxSpilledBytes;
+        this.segmentSize = segmentSize;
+        recoverSegments();
+    }
+
+    /**
+     * @return a queue spilling to a directory of its own for the synchronized directories, so the events spilled by
+     * one direction of a two-way synchronization are not replayed by the other
+     */
+    public static SyncEventQueue fromSystemProperties(SyncDirectoriesInfo syncDirectoriesInfo) {
+        String defaultSpillDir = Path.of(System.getProperty("java.io.tmpdir"), "dirsync-spill").toString();
+        String directories = syncDirectoriesInfo.sourceDirPath() + File.pathSeparator
+                + syncDirectoriesInfo.targetDirPath();
+        return new SyncEventQueue(
+                Integer.getInteger("dir.sync.event.queue.capacity", 10_000),
+                Path.of(System.getProperty("dir.sync.event.spill.dir", defaultSpillDir))
+                        .resolve(UUID.nameUUIDFromBytes(directories.getBytes(StandardCharsets.UTF_8)).toString()),
+                Long.getLong("dir.sync.event.spill.max.bytes", 0));
+    }
+
+    /**
+     * Add an event, spilling it to disk if the capacity in memory is reached
+     * @throws IOException if spilling the event fails, or if interrupted while blocked
+     */
+    public void put(SyncEvent event) throws IOException {
+        lock.lock();
+        try {
+            awaitNotFull();
+            if (closed) {
+                throw new IllegalStateException("Event queue is closed");
+            }
+            if (numSpilledPending == 0 && memory.size() < capacity) {
+                memory.add(event);
+            } else {
+                spill(event);
+            }
+            numPut++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest event, waiting for one if the queue is empty
+     * @return the event, or null once the queue is closed and all its events were taken
+     * @throws IOException if reading spilled events fails, or if interrupted while waiting
+     */
+    public SyncEvent take() throws IOException {
+        lock.lock();
+        try {
+            while (memory.isEmpty()) {
+                if (numSpilledPending > 0 && !keepSpilled) {
+                    readSpilled();
+                } else if (closed) {
+                    return null;
+                } else {
+                    notEmpty.await();
+                }
+            }
+            numTaken++;
+            return memory.poll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for events");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting events. The events already queued can still be taken.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting events, and stop reading spilled events back: the events in memory can still be taken, then
+     * {@link #take()} returns null. The spilled events are kept for the next queue on the spill directory once
+     * {@link #release()} is called.
+     */
+    public void closeKeepingSpilled() {
+        lock.lock();
+        try {
+            keepSpilled = true;
+            close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the segment files, keeping the events not taken yet, in memory or spilled, in the segment files for the
+     * next queue on the spill directory
+     */
+    public void release() {
+        lock.lock();
+        try {
+            close();
+            if (writer != null) {
+                writer.close();
+            }
+            writer = null;
+            writeSegment = null;
+            if (!memory.isEmpty() || reader != null) {
+                keepUnread();
+            }
+            if (numSpilledPending > 0) {
+                log.info("Keeping {} events spilled to: {} for the next start", numSpilledPending, spillDir);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to keep the events not synchronized yet in: {}", spillDir, e);
+        } finally {
+            closeQuietly();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the first segment file by the events in memory followed by its events not read yet, the events before
+     * them being taken already
+     */
+    private void keepUnread() throws IOException {
+        Segment first = segments.peek();
+        Path tempFile = spillDir.resolve("events.tmp");
+        Files.createDirectories(spillDir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            for (SyncEvent event : memory) {
+                write(out, event);
+            }
+            if (first != null) {
+                if (reader == null) {
+                    reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(first.file())));
+                }
+                reader.transferTo(out);
+            }
+        }
+        numSpilledPending += memory.size();
+        memory.clear();
+        Path file = first != null ? first.file() : nextSegmentFile();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the segment files of the events not taken yet
+     */
+    public void discard() {
+        lock.lock();
+        try {
+            close();
+            memory.clear();
+            closeQuietly();
+            for (Segment segment : segments) {
+                deleteQuietly(segment.file());
+            }
+            segments.clear();
+            numSpilledPending = 0;
+            spilledBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Metrics getMetrics() {
+        lock.lock();
+        try {
+            return new Metrics(numPut, numTaken, numSpilled, memory.size(), numSpilledPending, spilledBytes,
+                    blockedNanos / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitNotFull() throws InterruptedIOException {
+        if (maxSpilledBytes <= 0 || spilledBytes < maxSpilledBytes || closed) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while (spilledBytes >= maxSpilledBytes && !closed) {
+                notFull.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for spilled events to be taken");
+        } finally {
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void spill(SyncEvent event) throws IOException {
+        if (writer == null || writeSegment.numBytes >= segmentSize) {
+            startSegment();
+        }
+        int sizeBefore = writer.size();
+        write(writer, event);
+        int numBytes = writer.size() - sizeBefore;
+        writeSegment.numBytes += numBytes;
+        spilledBytes += numBytes;
+        numSpilled++;
+        numSpilledPending++;
+        if (numSpilled % capacity == 0) {
+            log.warn("Event queue is full, {} events spilled to: {}", numSpilledPending, spillDir);
+        }
+    }
+
+    private void startSegment() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        Files.createDirectories(spillDir);
+        writeSegment = new Segment(Files.createFile(nextSegmentFile()));
+        writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(writeSegment.file())));
+        segments.add(writeSegment);
+    }
+
+    private Path nextSegmentFile() {
+        return spillDir.resolve(String.format("events-%016d.log", nextSegmentNumber++));
+    }
+
+    private static void write(DataOutputStream out, SyncEvent event) throws IOException {
+        out.writeByte(event.type().ordinal());
+        out.writeLong(event.timeMillis());
+        out.writeUTF(event.path().toString());
+    }
+
+    /**
+     * Queue the segment files left in the spill directory, in the order they were written, ahead of new events
+     */
+    private void recoverSegments() {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(spillDir)) {
+            files = list.filter(file -> SEGMENT_NAME.matcher(file.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Failed to list the events spilled to: {}", spillDir, e);
+            return;
+        }
+        for (Path file : files) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+            if (matcher.matches()) {
+                nextSegmentNumber = Math.max(nextSegmentNumber, Long.parseLong(matcher.group(1)) + 1);
+            }
+            try {
+                recoverSegment(file);
+            } catch (IOException e) {
+                log.warn("Skipping the events spilled to: {}", file, e);
+            }
+        }
+        if (numSpilledPending > 0) {
+            log.info("Replaying {} events spilled to: {} before the previous stop", numSpilledPending, spillDir);
+        }
+    }
+
+    private void recoverSegment(Path file) throws IOException {
+        long numEvents = 0;
+        long numBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int pathLength;
+                try {
+                    in.readUnsignedByte();
+                    in.readLong();
+                    pathLength = in.readUnsignedShort();
+                    in.skipNBytes(pathLength);
+                } catch (EOFException e) {
+                    break;
+                }
+                numEvents++;
+                numBytes += EVENT_HEADER_SIZE + pathLength;
+            }
+        }
+        if (numEvents == 0) {
+            Files.delete(file);
+            return;
+        }
+        if (numBytes < Files.size(file)) {
+            // The last event was cut short by a crash
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(numBytes);
+            }
+        }
+        Segment segment = new Segment(file);
+        segment.numBytes = numBytes;
+        segments.add(segment);
+        numSpilledPending += numEvents;
+        spilledBytes += numBytes;
+    }
+
+    /**
+     * Read spilled events back into memory, in order, up to the capacity
+     */
+    private void readSpilled() throws IOException {
+        while (memory.size() < capacity && numSpilledPending > 0) {
+            Segment segment = segments.peek();
+            if (reader == null) {
+                if (segment == writeSegment) {
+                    // The segment being written is read once complete, new events go to the next one
+                    writer.close();
+                    writer = null;
+                    writeSegment = null;
+                }
+                reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.file())));
+            }
+            SyncEvent event = readEvent();
+            if (event == null) {
+                deleteReadSegment();
+                continue;
+            }
+            memory.add(event);
+            numSpilledPending--;
+        }
+        if (numSpilledPending == 0 && reader != null) {
+            // All spilled events were read, so is the segment being read
+            deleteReadSegment();
+        }
+    }
+
+    private void deleteReadSegment() throws IOException {
+        reader.close();
+        reader = null;
+        Segment segment = segments.poll();
+        Files.delete(segment.file());
+        spilledBytes -= segment.numBytes;
+        notFull.signalAll();
+    }
+
+    private SyncEvent readEvent() throws IOException {
+        int type;
+        try {
+            type = reader.readUnsignedByte();
+        } catch (EOFException e) {
+            return null;
+        }
+        long timeMillis = reader.readLong();
+        Path path = Path.of(reader.readUTF());
+        return new SyncEvent(SyncEvent.Type.values()[type], path, timeMillis);
+    }
+
+    private void closeQuietly() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close spilled events", e);
+        }
+        writer = null;
+        writeSegment = null;
+        reader = null;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete spilled events: {}", file, e);
+        }
+    }
+
+    /**
+     * A segment file of spilled events, with the bytes written to it
+     */
+    private static final class Segment {
+
+        private final Path file;
+        private long numBytes;
+
+        private Segment(Path file) {
+            this.file = file;
+        }
+
+        private Path file() {
+            return file;
+        }
+    }
+}
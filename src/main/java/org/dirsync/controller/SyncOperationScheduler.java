@@ -0,0 +1,338 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs synchronization operations on a pool of workers, split into lanes so small files are not queued behind large
+ * copies. Each lane has its own concurrency limit, and idle workers pick lanes by smooth weighted round-robin, so a
+ * lane gets a share of the workers proportional to its weight while other lanes have pending operations.
+ * <p>
+ * Operations on the same path always run one after another, in submission order, regardless of their lane. An
+ * operation on a whole directory tree runs in submission order with the operations on the paths inside it as well.
+ */
+@Slf4j
+public class SyncOperationScheduler {
+
+    public enum Lane {
+        SMALL_FILES,
+        LARGE_FILES,
+        DELETES
+    }
+
+    /**
+     * @param maxConcurrency the maximum number of operations of the lane that run at the same time
+     * @param weight         the relative share of the workers the lane gets while other lanes have pending operations
+     */
+    public record LaneSettings(int maxConcurrency, int weight) {
+    }
+
+    private final long smallFileThreshold;
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private final Map<Path, CompletableFuture<Void>> lastOperationByPath = new ConcurrentHashMap<>();
+    // Guarded by the lock, and empty unless directory trees are synchronized as a whole
+    private final Map<Path, CompletableFuture<Void>> lastTreeOperationByDir = new HashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition operationAvailable = lock.newCondition();
+    private boolean shutdown = false;
+
+    /**
+     * @param numWorkers         the number of worker threads shared by all lanes
+     * @param smallFileThreshold files smaller than this number of bytes are copied in the small files lane
+     * @param laneSettings       the settings of each lane
+     */
+    public SyncOperationScheduler(int numWorkers, long smallFileThreshold, Map<Lane, LaneSettings> laneSettings) {
+        this.smallFileThreshold = smallFileThreshold;
+        for (Lane lane : Lane.values()) {
+            LaneSettings settings = laneSettings.getOrDefault(lane, new LaneSettings(1, 1));
+            lanes.put(lane, new LaneState(settings));
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            Thread worker = new Thread(this::runWorker, "sync-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public static SyncOperationScheduler fromSystemProperties() {
+        Map<Lane, LaneSettings> laneSettings = new EnumMap<>(Lane.class);
+        laneSettings.put(Lane.SMALL_FILES, new LaneSettings(
+                Integer.getInteger("dir.sync.scheduler.small.files.concurrency", 4),
+                Integer.getInteger("dir.sync.scheduler.small.files.weight", 4)));
+        laneSettings.put(Lane.LARGE_FILES, new LaneSettings(
+                Integer.getInteger("dir.sync.scheduler.large.files.concurrency", 1),
+                Integer.getInteger("dir.sync.scheduler.large.files.weight", 1)));
+        laneSettings.put(Lane.DELETES, new LaneSettings(
+                Integer.getInteger("dir.sync.scheduler.deletes.concurrency", 2),
+                Integer.getInteger("dir.sync.scheduler.deletes.weight", 2)));
+        return new SyncOperationScheduler(
+                Integer.getInteger("dir.sync.scheduler.threads", 4),
+                Long.getLong("dir.sync.scheduler.small.file.threshold.bytes", 8L * 1024 * 1024),
+                laneSettings);
+    }
+
+    /**
+     * @return the lane a copy of the given file is scheduled in
+     */
+    public Lane laneForCopy(File file) {
+        return file.length() < smallFileThreshold ? Lane.SMALL_FILES : Lane.LARGE_FILES;
+    }
+
+    /**
+     * Schedule an operation on a path. The operation starts after all operations previously submitted for the same
+     * path are done.
+     * @return a future completed when the operation is done
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public CompletableFuture<Void> submit(Lane lane, Path path, Runnable operation) {
+        return submit(lane, List.of(path), operation);
+    }
+
+    /**
+     * Schedule an operation on several paths, e.g. the source and destination of a rename. The operation starts after
+     * all operations previously submitted for any of the paths are done, and operations submitted afterwards for any
+     * of them start after it.
+     * @return a future completed when the operation is done
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public CompletableFuture<Void> submit(Lane lane, List<Path> paths, Runnable operation) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ScheduledOperation scheduledOperation = new ScheduledOperation(operation, result);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down, rejected operation on: " + paths);
+            }
+            List<CompletableFuture<Void>> previous = new ArrayList<>(paths.size());
+            for (Path path : paths) {
+                addTreeOperationsAbove(path, previous);
+                register(path, result, previous);
+            }
+            enqueueAfter(previous, lane, scheduledOperation);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Schedule an operation on a directory and everything inside it, e.g. the copy of a created directory. The
+     * operation starts after all operations previously submitted for the directory or for paths inside it are done,
+     * and operations submitted afterwards for any of them start after it.
+     * @return a future completed when the operation is done
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public CompletableFuture<Void> submitTree(Lane lane, Path dir, Runnable operation) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ScheduledOperation scheduledOperation = new ScheduledOperation(operation, result);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down, rejected operation on: " + dir);
+            }
+            List<CompletableFuture<Void>> previous = new ArrayList<>();
+            // Directory events are rare, so the operations inside the directory are found by a scan
+            lastOperationByPath.forEach((path, operationOfPath) -> {
+                if (path.startsWith(dir)) {
+                    previous.add(operationOfPath);
+                }
+            });
+            lastTreeOperationByDir.forEach((treeDir, treeOperation) -> {
+                if (treeDir.startsWith(dir)) {
+                    previous.add(treeOperation);
+                }
+            });
+            addTreeOperationsAbove(dir, previous);
+            register(dir, result, previous);
+            lastTreeOperationByDir.put(dir, result);
+            result.whenComplete((ignored, e) -> removeTreeOperation(dir, result));
+            enqueueAfter(previous, lane, scheduledOperation);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Stop accepting operations. Workers finish the operations already submitted, including the ones waiting for a
+     * previous operation on their path, and exit.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            operationAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether no operation is queued, waiting for a previous operation on its path, or running
+     */
+    public boolean isIdle() {
+        return lastOperationByPath.isEmpty();
+    }
+
+    public int getQueueSize(Lane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void register(Path path, CompletableFuture<Void> result, List<CompletableFuture<Void>> previous) {
+        CompletableFuture<Void> previousOfPath = lastOperationByPath.put(path, result);
+        if (previousOfPath != null && previousOfPath != result) {
+            previous.add(previousOfPath);
+        }
+        result.whenComplete((ignored, e) -> lastOperationByPath.remove(path, result));
+    }
+
+    /**
+     * Add the pending operations on the directory trees containing the path
+     */
+    private void addTreeOperationsAbove(Path path, List<CompletableFuture<Void>> previous) {
+        if (lastTreeOperationByDir.isEmpty()) {
+            return;
+        }
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            CompletableFuture<Void> treeOperation = lastTreeOperationByDir.get(dir);
+            if (treeOperation != null) {
+                previous.add(treeOperation);
+            }
+        }
+    }
+
+    private void removeTreeOperation(Path dir, CompletableFuture<Void> result) {
+        lock.lock();
+        try {
+            lastTreeOperationByDir.remove(dir, result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueueAfter(List<CompletableFuture<Void>> previous, Lane lane,
+                              ScheduledOperation scheduledOperation) {
+        if (previous.isEmpty()) {
+            enqueue(lane, scheduledOperation);
+            return;
+        }
+        // Enqueued by the worker completing the previous operation, so it runs even after a shutdown
+        CompletableFuture.allOf(previous.toArray(CompletableFuture[]::new))
+                .whenComplete((ignored, e) -> enqueue(lane, scheduledOperation));
+    }
+
+    private void enqueue(Lane lane, ScheduledOperation scheduledOperation) {
+        lock.lock();
+        try {
+            lanes.get(lane).queue.add(scheduledOperation);
+            operationAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            LaneState lane;
+            ScheduledOperation scheduledOperation;
+            lock.lock();
+            try {
+                while ((lane = selectLane()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    operationAvailable.awaitUninterruptibly();
+                }
+                scheduledOperation = lane.queue.poll();
+                lane.running++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                scheduledOperation.run();
+            } finally {
+                lock.lock();
+                try {
+                    lane.running--;
+                    operationAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Smooth weighted round-robin over the lanes that have queued operations and are below their concurrency limit.
+     */
+    private LaneState selectLane() {
+        LaneState selected = null;
+        int totalWeight = 0;
+        for (LaneState lane : lanes.values()) {
+            if (lane.queue.isEmpty() || lane.running >= lane.settings.maxConcurrency()) {
+                continue;
+            }
+            lane.currentWeight += lane.settings.weight();
+            totalWeight += lane.settings.weight();
+            if (selected == null || lane.currentWeight > selected.currentWeight) {
+                selected = lane;
+            }
+        }
+        if (selected != null) {
+            selected.currentWeight -= totalWeight;
+        }
+        return selected;
+    }
+
+    private static class LaneState {
+        private final LaneSettings settings;
+        private final Queue<ScheduledOperation> queue = new ArrayDeque<>();
+        private int running = 0;
+        private int currentWeight = 0;
+
+        private LaneState(LaneSettings settings) {
+            this.settings = settings;
+        }
+    }
+
+    private record ScheduledOperation(Runnable operation, CompletableFuture<Void> result) {
+
+        /**
+         * Run the operation, completing its result whatever it throws, so operations waiting on the same paths run
+         * @throws Error if the operation throws one
+         */
+        private void run() {
+            try {
+                operation.run();
+                result.complete(null);
+            } catch (Throwable e) {
+                log.error("Synchronization operation failed", e);
+                result.completeExceptionally(e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.controller.DeadLetterStore.DeadLetter;
+import org.dirsync.util.RetryScheduler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Retries failed synchronization operations per path with backoff. An operation that keeps failing is moved to the
+ * {@link DeadLetterStore}, without affecting the synchronization of other paths. A newer operation on a path
+ * supersedes a pending retry of an older one.
+ */
+@Slf4j
+public class SyncRetryQueue implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface SyncOperation {
+        void run() throws IOException;
+    }
+
+    private final RetryScheduler retryScheduler;
+    private final DeadLetterStore deadLetterStore;
+    private final Map<Path, CompletableFuture<Void>> pendingRetries = new ConcurrentHashMap<>();
+
+    public SyncRetryQueue(RetryScheduler retryScheduler, DeadLetterStore deadLetterStore) {
+        this.retryScheduler = retryScheduler;
+        this.deadLetterStore = deadLetterStore;
+    }
+
+    /**
+     * Schedule retries of an operation that failed
+     * @param path      the source path of the operation
+     * @param operation the name of the operation, e.g. copy or delete
+     * @param task      the operation to retry
+     * @param cause     why the operation failed
+     */
+    public void retry(Path path, String operation, SyncOperation task, Exception cause) {
+        retry(path, operation, task, cause, null);
+    }
+
+    /**
+     * Schedule retries of an operation that failed, each attempt being handed to a launcher, e.g. to run it in order
+     * with the other operations on the path. An attempt launched after the retry was cancelled does nothing.
+     * @param launcher runs an attempt, returning a future completed with its outcome
+     * @see #retry(Path, String, SyncOperation, Exception)
+     */
+    public void retry(Path path, String operation, SyncOperation task, Exception cause,
+                      Function<Callable<Void>, CompletableFuture<Void>> launcher) {
+        log.warn("Failed to {} file: {}, retrying", operation, path, cause);
+        String errorMessage = "Failed to " + operation + " file: " + path;
+        CompletableFuture<Void> retry = retryScheduler.retryFailed(() -> {
+            task.run();
+            return null;
+        }, errorMessage, launcher);
+        CompletableFuture<Void> previous = pendingRetries.put(path, retry);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        retry.whenComplete((ignored, e) -> {
+            pendingRetries.remove(path, retry);
+            if (e != null && !retry.isCancelled()) {
+                addDeadLetter(path, operation, e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    /**
+     * Cancel a pending retry of an operation on the path, because a newer operation on it supersedes it
+     */
+    public void cancel(Path path) {
+        CompletableFuture<Void> pending = pendingRetries.remove(path);
+        if (pending != null) {
+            log.debug("Cancelled pending retry of: {}", path);
+            pending.cancel(false);
+        }
+    }
+
+    public int getNumPendingRetries() {
+        return pendingRetries.size();
+    }
+
+    public DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.close();
+    }
+
+    private void addDeadLetter(Path path, String operation, Throwable cause) {
+        log.error("Giving up on {} of file: {}", operation, path, cause);
+        try {
+            deadLetterStore.add(new DeadLetter(Instant.now(), operation, path, String.valueOf(cause.getMessage())));
+        } catch (IOException e) {
+            log.error("Failed to persist dead letter of: {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.dirsync.controller;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+/**
+ * Keeps the directory of every {@link WatchKey}, so the events of a key are resolved against the directory it
+ * watches, and the keys of a deleted directory tree can be cancelled. Directories are indexed by path in order, so
+ * the keys of a tree are found without scanning the keys of other trees.
+ * <p>
+ * Trees are listed by a pool shared by all registrations, shut down by {@link #close()}.
+ */
+@Slf4j
+class WatchKeyRegistry implements AutoCloseable {
+
+    interface DirectoryRegistration {
+        void register(Path dir) throws IOException;
+    }
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directoryByKey = new ConcurrentHashMap<>();
+    private final NavigableMap<String, WatchKey> keyByDirectory = new ConcurrentSkipListMap<>();
+    // Starts its threads on the first registration of a tree
+    private final ForkJoinPool registrationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    WatchKeyRegistry(WatchService watchService) {
+        this.watchService = watchService;
+    }
+
+    /**
+     * Register every accepted directory of a tree, listing directories in parallel
+     * @param accept       the directories to register with their sub-directories
+     * @param registration registers a directory
+     * @throws IOException if the root directory cannot be registered. Sub-directories that cannot be registered are
+     *                     logged and skipped with their sub-directories.
+     */
+    void registerTree(Path root, Predicate<Path> accept, DirectoryRegistration registration) throws IOException {
+        registration.register(root);
+        registrationPool.invoke(new RegisterTask(root, accept, registration, false));
+    }
+
+    /**
+     * Watch a directory. Registering a directory again returns its key.
+     */
+    WatchKey register(Path dir) throws IOException {
+        // Only creations and deletions are synchronized, so modifications are not watched
+        WatchKey watchKey = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+        directoryByKey.put(watchKey, dir);
+        keyByDirectory.put(dir.toString(), watchKey);
+        return watchKey;
+    }
+
+    /**
+     * @return the directory watched by the key, or null if the key was cancelled
+     */
+    Path getDirectory(WatchKey watchKey) {
+        return directoryByKey.get(watchKey);
+    }
+
+    /**
+     * Forget a key no longer valid, e.g. because its directory was deleted
+     */
+    void remove(WatchKey watchKey) {
+        Path dir = directoryByKey.remove(watchKey);
+        if (dir != null) {
+            keyByDirectory.remove(dir.toString(), watchKey);
+        }
+    }
+
+    void cancel(Path dir) {
+        WatchKey watchKey = keyByDirectory.remove(dir.toString());
+        if (watchKey != null) {
+            watchKey.cancel();
+            directoryByKey.remove(watchKey);
+        }
+    }
+
+    /**
+     * Cancel the keys of a directory and of its sub-directories
+     * @return the directories that were watched
+     */
+    List<Path> cancelTree(Path dir) {
+        List<Path> cancelled = new ArrayList<>();
+        String prefix = dir + File.separator;
+        if (keyByDirectory.containsKey(dir.toString())) {
+            cancel(dir);
+            cancelled.add(dir);
+        }
+        // Sub-directories are the paths starting with the directory and a separator, which are contiguous in order
+        for (String subDir : keyByDirectory.tailMap(prefix).keySet()) {
+            if (!subDir.startsWith(prefix)) {
+                break;
+            }
+            Path subDirPath = Path.of(subDir);
+            cancel(subDirPath);
+            cancelled.add(subDirPath);
+        }
+        return cancelled;
+    }
+
+    int size() {
+        return directoryByKey.size();
+    }
+
+    @Override
+    public void close() {
+        registrationPool.shutdown();
+    }
+
+    // Never serialized, its registration is not serializable
+    @SuppressWarnings("serial")
+    private static final class RegisterTask extends RecursiveAction {
+
+        private final Path dir;
+        private final Predicate<Path> accept;
+        private final DirectoryRegistration registration;
+        private final boolean registerDir;
+
+        private RegisterTask(Path dir, Predicate<Path> accept, DirectoryRegistration registration,
+                             boolean registerDir) {
+            this.dir = dir;
+            this.accept = accept;
+            this.registration = registration;
+            this.registerDir = registerDir;
+        }
+
+        @Override
+        protected void compute() {
+            List<RegisterTask> subTasks = new ArrayList<>();
+            try {
+                if (registerDir) {
+                    registration.register(dir);
+                }
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        if (isDirectory(entry) && accept.test(entry)) {
+                            subTasks.add(new RegisterTask(entry, accept, registration, true));
+                        }
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                log.debug("Not watching deleted directory: '{}'", dir);
+                return;
+            } catch (IOException e) {
+                log.warn("Failed to watch directory: '{}' and its sub-directories", dir, e);
+                return;
+            }
+            invokeAll(subTasks);
+        }
+
+        private static boolean isDirectory(Path path) {
+            try {
+                // Links are not followed, so a link to a parent directory does not register it again
+                return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package org.dirsync.controller.event;
 
 import java.nio.file.Path;
-import java.util.Set;
-import java.util.stream.Collectors;
 
-public record FileSystemEvent(Path path, FileSystemEvent.Type type) {
+/**
+ * @param sequence the order the event was received in, higher for later events
+ */
+public record FileSystemEvent(Path path, FileSystemEvent.Type type, long sequence) {
 
     public enum Type {
         CREATED,
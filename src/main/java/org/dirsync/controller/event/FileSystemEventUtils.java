@@ -3,36 +3,36 @@ package org.dirsync.controller.event;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-
-import static org.dirsync.controller.event.FileSystemEvent.Type.CREATED;
-import static org.dirsync.controller.event.FileSystemEvent.Type.DELETED;
 
 @Slf4j
 @UtilityClass
 public class FileSystemEventUtils {
 
-    public Set<FileSystemEvent> resolveDuplicates(Set<FileSystemEvent> events) {
-        return new HashSet<>(events.stream()
-                .collect(Collectors.toMap(
-                        FileSystemEvent::path,
-                        event -> event,
-                        FileSystemEventUtils::resolveConflict
-                ))
-                .values());
+    /**
+     * Keep the latest event of a path by sequence number. The latest event is the last change of the file, so it is
+     * kept whatever the state of the file is by now, and the file system is not accessed.
+     * @param latestByPath the latest event of each path, meant to be reused between polls
+     */
+    public void keepLatest(Map<Path, FileSystemEvent> latestByPath, FileSystemEvent event) {
+        latestByPath.merge(event.path(), event, FileSystemEventUtils::resolveConflict);
+    }
+
+    /**
+     * @return the events kept by {@link #keepLatest(Map, FileSystemEvent)}, one per path, clearing them for the next
+     * poll
+     */
+    public Set<FileSystemEvent> drainLatest(Map<Path, FileSystemEvent> latestByPath) {
+        Set<FileSystemEvent> events = Set.copyOf(latestByPath.values());
+        latestByPath.clear();
+        return events;
     }
 
     private FileSystemEvent resolveConflict(FileSystemEvent e1, FileSystemEvent e2) {
-        log.warn("Detected duplicate events. Event #1: {}, Event #2: {}", e1, e2);
-        if (e1.path().toFile().exists()) {
-            FileSystemEvent event = new FileSystemEvent(e1.path(), CREATED);
-            log.warn("Resolved conflict by keeping event: {}", event);
-            return event;
-        }
-        FileSystemEvent event = new FileSystemEvent(e1.path(), DELETED);
-        log.warn("Resolved conflict by keeping event: {}", event);
-        return event;
+        FileSystemEvent latest = e2.sequence() > e1.sequence() ? e2 : e1;
+        log.debug("Detected duplicate events: {} and: {}, keeping the latest: {}", e1, e2, latest);
+        return latest;
     }
 }
@@ -1,4 +1,26 @@
 package org.dirsync.model.dir;
 
-public record SyncDirectoriesInfo(String sourceDirPath, String targetDirPath) {
+import java.util.List;
+
+/**
+ * @param sourceDirPath the directory synchronized from
+ * @param targetDirPath the directory synchronized to
+ * @param includes      rules of the source files to synchronize, all files when empty. See {@link SyncPathFilter}
+ * @param excludes      rules of the source files and directories not to synchronize. See {@link SyncPathFilter}
+ */
+public record SyncDirectoriesInfo(String sourceDirPath, String targetDirPath, List<String> includes,
+                                  List<String> excludes) {
+
+    public SyncDirectoriesInfo {
+        includes = includes == null ? List.of() : List.copyOf(includes);
+        excludes = excludes == null ? List.of() : List.copyOf(excludes);
+    }
+
+    public SyncDirectoriesInfo(String sourceDirPath, String targetDirPath) {
+        this(sourceDirPath, targetDirPath, List.of(), List.of());
+    }
+
+    public SyncDirectoriesInfo withFilters(List<String> includes, List<String> excludes) {
+        return new SyncDirectoriesInfo(sourceDirPath, targetDirPath, includes, excludes);
+    }
 }
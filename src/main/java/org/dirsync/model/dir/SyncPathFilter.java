@@ -0,0 +1,240 @@
+package org.dirsync.model.dir;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which source files and directories are synchronized, based on include and exclude rules. An excluded
+ * directory is rejected as a whole, so when used as the filter of a directory listing its subtree is never listed.
+ * <p>
+ * Rules are matched against paths relative to the source directory, with '/' as separator:
+ * <ul>
+ *     <li>{@code name} - a file or directory with this name, at any depth, e.g. {@code .git} or {@code node_modules}</li>
+ *     <li>{@code name/} - a directory with this name, at any depth, e.g. {@code target/}</li>
+ *     <li>{@code dir/sub} - the path under the source directory and everything below it</li>
+ *     <li>Any of the above with glob wildcards, e.g. {@code *.tmp} or {@code build/out*}</li>
+ *     <li>{@code regex:expression} - a regular expression matched against the whole relative path</li>
+ * </ul>
+ * Literal rules are compiled into a hash set of names and a trie of path segments, so the common rules cost a hash
+ * lookup per path segment. Include rules only apply to files, directories are rejected only by exclude rules.
+ */
+public class SyncPathFilter implements FileFilter {
+
+    private static final String REGEX_PREFIX = "regex:";
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final Path sourceDirPath;
+    private final Rules includes;
+    private final Rules excludes;
+
+    public SyncPathFilter(String sourceDirPath, List<String> includes, List<String> excludes) {
+        this.sourceDirPath = Path.of(sourceDirPath).toAbsolutePath().normalize();
+        this.includes = new Rules(includes);
+        this.excludes = new Rules(excludes);
+    }
+
+    public static SyncPathFilter from(SyncDirectoriesInfo syncDirectoriesInfo) {
+        return new SyncPathFilter(syncDirectoriesInfo.sourceDirPath(), syncDirectoriesInfo.includes(),
+                syncDirectoriesInfo.excludes());
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    @Override
+    public boolean accept(File file) {
+        return accept(file.toPath(), file::isDirectory);
+    }
+
+    /**
+     * @param path        a path under the source directory
+     * @param isDirectory whether the path is a directory, only called if a rule depends on it
+     * @return whether the path is synchronized
+     */
+    public boolean accept(Path path, BooleanSupplier isDirectory) {
+        if (isEmpty()) {
+            return true;
+        }
+        Path absolutePath = path.toAbsolutePath().normalize();
+        if (!absolutePath.startsWith(sourceDirPath) || absolutePath.equals(sourceDirPath)) {
+            return true;
+        }
+        String[] segments = toSegments(sourceDirPath.relativize(absolutePath));
+        LazyBoolean directory = new LazyBoolean(isDirectory);
+        if (excludes.matches(segments, directory)) {
+            return false;
+        }
+        return includes.isEmpty() || includes.matches(segments, directory) || directory.get();
+    }
+
+    private static String[] toSegments(Path relativePath) {
+        String[] segments = new String[relativePath.getNameCount()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = relativePath.getName(i).toString();
+        }
+        return segments;
+    }
+
+    private static class Rules {
+        private final Set<String> names = new HashSet<>();
+        private final Set<String> directoryNames = new HashSet<>();
+        private final TrieNode anchoredPaths = new TrieNode();
+        private final List<PathMatcher> nameGlobs = new ArrayList<>();
+        private final List<PathMatcher> directoryNameGlobs = new ArrayList<>();
+        private final List<PathMatcher> pathGlobs = new ArrayList<>();
+        private final List<Pattern> regexes = new ArrayList<>();
+        private final boolean empty;
+
+        private Rules(List<String> rules) {
+            this.empty = rules.isEmpty();
+            for (String rule : rules) {
+                add(rule.trim());
+            }
+        }
+
+        private void add(String rule) {
+            if (rule.startsWith(REGEX_PREFIX)) {
+                regexes.add(Pattern.compile(rule.substring(REGEX_PREFIX.length())));
+                return;
+            }
+            boolean directoryOnly = rule.endsWith("/");
+            String pattern = stripSlashes(rule);
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Invalid filter rule: '" + rule + "'");
+            }
+            boolean glob = pattern.chars().anyMatch(c -> GLOB_CHARS.indexOf(c) >= 0);
+            if (pattern.contains("/")) {
+                if (glob) {
+                    pathGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                } else {
+                    anchoredPaths.add(pattern.split("/"), directoryOnly);
+                }
+            } else if (glob) {
+                PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                (directoryOnly ? directoryNameGlobs : nameGlobs).add(pathMatcher);
+            } else {
+                (directoryOnly ? directoryNames : names).add(pattern);
+            }
+        }
+
+        private static String stripSlashes(String rule) {
+            int start = rule.startsWith("/") ? 1 : 0;
+            int end = rule.endsWith("/") ? rule.length() - 1 : rule.length();
+            return start < end ? rule.substring(start, end) : "";
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        private boolean matches(String[] segments, LazyBoolean isDirectory) {
+            if (empty) {
+                return false;
+            }
+            int last = segments.length - 1;
+            boolean hasDirectoryRules = !directoryNames.isEmpty() || !directoryNameGlobs.isEmpty();
+            for (int i = 0; i < segments.length; i++) {
+                // Ancestors of the path are directories, only the last segment needs to be checked
+                boolean segmentIsDirectory = i < last || hasDirectoryRules && isDirectory.get();
+                if (names.contains(segments[i]) || segmentIsDirectory && directoryNames.contains(segments[i])) {
+                    return true;
+                }
+                if (matchesAny(nameGlobs, segments[i])
+                        || segmentIsDirectory && matchesAny(directoryNameGlobs, segments[i])) {
+                    return true;
+                }
+            }
+            if (anchoredPaths.matches(segments, isDirectory)) {
+                return true;
+            }
+            if (!pathGlobs.isEmpty() || !regexes.isEmpty()) {
+                String relativePath = String.join("/", segments);
+                Path path = Path.of(relativePath);
+                for (PathMatcher pathGlob : pathGlobs) {
+                    if (pathGlob.matches(path)) {
+                        return true;
+                    }
+                }
+                for (Pattern regex : regexes) {
+                    if (regex.matcher(relativePath).matches()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean matchesAny(List<PathMatcher> globs, String name) {
+            if (globs.isEmpty()) {
+                return false;
+            }
+            Path path = Path.of(name);
+            for (PathMatcher glob : globs) {
+                if (glob.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class TrieNode {
+        private final Map<String, TrieNode> children = new HashMap<>();
+        private boolean terminal = false;
+        private boolean directoryOnly = false;
+
+        private void add(String[] segments, boolean directoryOnly) {
+            TrieNode node = this;
+            for (String segment : segments) {
+                node = node.children.computeIfAbsent(segment, s -> new TrieNode());
+            }
+            node.terminal = true;
+            node.directoryOnly = directoryOnly;
+        }
+
+        private boolean matches(String[] segments, LazyBoolean isDirectory) {
+            TrieNode node = this;
+            for (int i = 0; i < segments.length; i++) {
+                node = node.children.get(segments[i]);
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal && (!node.directoryOnly || i < segments.length - 1 || isDirectory.get())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the path is a directory at most once, and only if needed
+     */
+    private static class LazyBoolean {
+        private final BooleanSupplier supplier;
+        private Boolean value;
+
+        private LazyBoolean(BooleanSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        private boolean get() {
+            if (value == null) {
+                value = supplier.getAsBoolean();
+            }
+            return value;
+        }
+    }
+}
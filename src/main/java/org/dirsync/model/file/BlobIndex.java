@@ -0,0 +1,173 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * The hash of the blob of each target file of a {@link ContentAddressableStorage}, with the number of target files
+ * referencing each blob. A blob is found by the target file and is unreferenced when its count drops to 0, without
+ * reading the target file or relying on its link count, which copies of the blob and some file systems do not have.
+ * <p>
+ * When created with a file, every change is appended to it and the index is replayed from it on creation, so the
+ * blobs of target files copied before a restart are still removed with them. The file is rewritten with the current
+ * entries once most of its lines are outdated.
+ * <p>
+ * Not thread-safe, callers synchronize on the index.
+ */
+@Slf4j
+class BlobIndex {
+
+    private static final String SEPARATOR = "\t";
+    private static final String REMOVED = "-";
+    private static final int MIN_LINES_TO_COMPACT = 1000;
+
+    private final Path file;
+    private final Map<Path, String> hashByTarget = new HashMap<>();
+    private final Map<String, Integer> numTargetsByHash = new HashMap<>();
+    private int numLines;
+
+    /**
+     * Create a blob index that is not persisted
+     */
+    BlobIndex() {
+        this.file = null;
+    }
+
+    BlobIndex(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String[] fields = lines.get(i).split(SEPARATOR, 2);
+                if (fields.length != 2) {
+                    // The blob of the target file is then kept when it is deleted
+                    log.warn("Skipping malformed blob index entry at line {} of: {}", i + 1, file);
+                    continue;
+                }
+                Path target = Path.of(fields[1]);
+                if (fields[0].equals(REMOVED)) {
+                    release(hashByTarget.remove(target));
+                } else {
+                    release(hashByTarget.put(target, fields[0]));
+                    numTargetsByHash.merge(fields[0], 1, Integer::sum);
+                }
+            }
+            numLines = lines.size();
+            compactIfOutdated();
+        }
+    }
+
+    /**
+     * @return the blob index of the objects directory, or an index that is not persisted if it cannot be read
+     */
+    static BlobIndex of(Path objectsDir) {
+        Path file = objectsDir.resolve("index");
+        try {
+            return new BlobIndex(file);
+        } catch (IOException e) {
+            log.warn("Failed to load the blob index: {}, the blobs of target files stored before are kept", file, e);
+            return new BlobIndex();
+        }
+    }
+
+    /**
+     * Index a target file linked to a blob, replacing the blob it was linked to
+     * @return the hash of the replaced blob if no other target file references it, or null
+     */
+    String put(Path target, String hash) throws IOException {
+        Path normalizedTarget = normalize(target);
+        String previousHash = hashByTarget.put(normalizedTarget, hash);
+        if (hash.equals(previousHash)) {
+            return null;
+        }
+        numTargetsByHash.merge(hash, 1, Integer::sum);
+        append(hash, normalizedTarget);
+        return release(previousHash);
+    }
+
+    /**
+     * Forget a deleted target file
+     * @return the hash of its blob if no other target file references it, or null
+     */
+    String remove(Path target) throws IOException {
+        Path normalizedTarget = normalize(target);
+        String hash = hashByTarget.remove(normalizedTarget);
+        if (hash == null) {
+            return null;
+        }
+        append(REMOVED, normalizedTarget);
+        return release(hash);
+    }
+
+    /**
+     * Index a target file under the path it was moved to
+     * @return the hash of the blob of the replaced destination file if no other target file references it, or null
+     */
+    String move(Path target, Path destination) throws IOException {
+        Path normalizedTarget = normalize(target);
+        String hash = hashByTarget.remove(normalizedTarget);
+        if (hash == null) {
+            return remove(destination);
+        }
+        append(REMOVED, normalizedTarget);
+        Path normalizedDestination = normalize(destination);
+        String previousHash = hashByTarget.put(normalizedDestination, hash);
+        append(hash, normalizedDestination);
+        // The reference of the target file is now the reference of the destination file
+        return release(hash.equals(previousHash) ? hash : previousHash);
+    }
+
+    private String release(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        Integer numTargets = numTargetsByHash.computeIfPresent(hash, (key, count) -> count > 1 ? count - 1 : null);
+        return numTargets == null ? hash : null;
+    }
+
+    private void append(String hash, Path target) throws IOException {
+        if (file == null) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, hash + SEPARATOR + target + System.lineSeparator(), StandardCharsets.UTF_8,
+                CREATE, APPEND);
+        numLines++;
+        compactIfOutdated();
+    }
+
+    /**
+     * Rewrite the file with the current entries if most of its lines are outdated. The file is replaced atomically,
+     * so a crash while compacting leaves the previous lines.
+     */
+    private void compactIfOutdated() throws IOException {
+        if (numLines < MIN_LINES_TO_COMPACT || numLines <= 2 * hashByTarget.size()) {
+            return;
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Path, String> entry : hashByTarget.entrySet()) {
+                writer.write(entry.getValue() + SEPARATOR + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        numLines = hashByTarget.size();
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
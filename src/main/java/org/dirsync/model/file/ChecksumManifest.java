@@ -0,0 +1,134 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CRC32C checksums of target files, computed while they were copied, with the length and last modified time
+ * their source file had. While a source file still has them, its target file can be verified against the checksum
+ * alone, without reading the source file again.
+ * <p>
+ * When created with a file, the checksums are loaded from it on creation and written to it by {@link #save()}, so the
+ * target files copied before a restart are still verified.
+ */
+@Slf4j
+class ChecksumManifest {
+
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * @param source                   the file the target file was copied from
+     * @param sourceLength             the length of the source file when it was copied
+     * @param sourceLastModifiedMillis the last modified time of the source file when it was copied
+     * @param checksum                 the CRC32C checksum of the copied bytes
+     */
+    record Entry(Path source, long sourceLength, long sourceLastModifiedMillis, int checksum) {
+    }
+
+    private final Path file;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Create a checksum manifest that is not persisted
+     */
+    ChecksumManifest() {
+        this.file = null;
+    }
+
+    ChecksumManifest(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    String[] fields = lines.get(i).split(SEPARATOR, 5);
+                    entries.put(Path.of(fields[4]), new Entry(Path.of(fields[3]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Integer.parseUnsignedInt(fields[0], 16)));
+                } catch (RuntimeException e) {
+                    // The target file is then only verified once copied again
+                    log.warn("Skipping malformed checksum at line {} of: {}", i + 1, file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the checksum manifest of the target directory, kept next to it so it does not appear among the target
+     * files, or a manifest that is not persisted if it cannot be read
+     */
+    static ChecksumManifest of(Path targetDir) {
+        Path dir = targetDir.toAbsolutePath().normalize();
+        Path file = dir.resolveSibling(dir.getFileName() + ".dirsync-checksums");
+        try {
+            return new ChecksumManifest(file);
+        } catch (IOException e) {
+            log.warn("Failed to load the checksums of the target files from: {}, only files copied from now on are "
+                    + "verified", file, e);
+            return new ChecksumManifest();
+        }
+    }
+
+    void record(Path target, Entry entry) {
+        entries.put(normalize(target), entry);
+    }
+
+    Entry get(Path target) {
+        return entries.get(normalize(target));
+    }
+
+    void remove(Path target) {
+        entries.remove(normalize(target));
+    }
+
+    void move(Path target, Path destination) {
+        Entry entry = entries.remove(normalize(target));
+        if (entry != null) {
+            entries.put(normalize(destination), entry);
+        }
+    }
+
+    /**
+     * @return a view of the target files with a checksum, reflecting the entries recorded and removed meanwhile
+     */
+    Iterable<Path> targets() {
+        return entries.keySet();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Replace the file with the current checksums. The file is replaced atomically, so a crash while saving leaves the
+     * previous checksums.
+     */
+    synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                Entry checksum = entry.getValue();
+                writer.write(String.join(SEPARATOR, Integer.toHexString(checksum.checksum()),
+                        String.valueOf(checksum.sourceLength()), String.valueOf(checksum.sourceLastModifiedMillis()),
+                        checksum.source().toString(), entry.getKey().toString()));
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,126 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Compresses files with GZIP while they are copied, so fewer bytes are written to the target directory.
+ * Target files are named with a {@value #GZIP_SUFFIX} suffix. Appended bytes are compressed as an additional GZIP
+ * member, which GZIP readers decompress as if the file was compressed at once.
+ * <p>
+ * A compressed file cannot be truncated to an uncompressed offset, so bytes are only appended to a target file known
+ * to hold exactly the source bytes up to the offset: the one last written by this storage, with the size it was
+ * written with. Otherwise, e.g. if the source file grew while it was copied or an append was interrupted, the whole
+ * source file is compressed again.
+ */
+@Slf4j
+class CompressingTargetStorage implements TargetStorage {
+
+    static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param sourceLength   the number of source bytes the target file holds
+     * @param compressedSize the size of the target file once written
+     */
+    private record Written(long sourceLength, long compressedSize) {
+    }
+
+    private final int compressionLevel;
+    private final IoThrottle ioThrottle;
+    private final Map<Path, Written> writtenFiles = new ConcurrentHashMap<>();
+
+    CompressingTargetStorage(int compressionLevel) {
+        this(compressionLevel, IoThrottle.unlimited());
+    }
+
+    /**
+     * @param compressionLevel the {@link java.util.zip.Deflater} compression level, 0-9 or -1 for the default level
+     * @param ioThrottle       limits the compressed bytes written
+     */
+    CompressingTargetStorage(int compressionLevel, IoThrottle ioThrottle) {
+        this.compressionLevel = compressionLevel;
+        this.ioThrottle = ioThrottle;
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        Path targetPath = target.toPath();
+        writtenFiles.remove(targetPath);
+        Files.createDirectories(targetPath.getParent());
+        long sourceLength;
+        try (InputStream in = Files.newInputStream(source.toPath());
+             OutputStream out = new LeveledGZIPOutputStream(new BufferedOutputStream(
+                     new ThrottledOutputStream(Files.newOutputStream(targetPath), ioThrottle), BUFFER_SIZE),
+                     compressionLevel)) {
+            sourceLength = in.transferTo(out);
+        }
+        writtenFiles.put(targetPath, new Written(sourceLength, Files.size(targetPath)));
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        Path targetPath = target.toPath();
+        // Forgotten until the append completes, so an interrupted append is not appended to
+        Written written = writtenFiles.remove(targetPath);
+        if (written == null || written.sourceLength() != offset || !Files.exists(targetPath)
+                || Files.size(targetPath) != written.compressedSize()) {
+            log.debug("Target file: {} may not hold the source bytes up to: {}, compressing it again", target, offset);
+            copy(source, target);
+            return;
+        }
+        long appended;
+        try (FileChannel in = FileChannel.open(source.toPath(), READ).position(offset);
+             InputStream tail = new BoundedInputStream(Channels.newInputStream(in), length - offset);
+             OutputStream out = new LeveledGZIPOutputStream(new BufferedOutputStream(
+                     new ThrottledOutputStream(Files.newOutputStream(targetPath, APPEND), ioThrottle),
+                     BUFFER_SIZE), compressionLevel)) {
+            appended = tail.transferTo(out);
+        }
+        writtenFiles.put(targetPath, new Written(offset + appended, Files.size(targetPath)));
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        writtenFiles.remove(target.toPath());
+        TargetStorage.super.delete(target);
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        Written written = writtenFiles.remove(target.toPath());
+        TargetStorage.super.move(target, destination);
+        if (written != null) {
+            writtenFiles.put(destination.toPath(), written);
+        }
+    }
+
+    @Override
+    public String getTargetFileSuffix() {
+        return GZIP_SUFFIX;
+    }
+
+    static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream out, int compressionLevel) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(compressionLevel);
+        }
+    }
+}
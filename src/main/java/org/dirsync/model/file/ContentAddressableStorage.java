@@ -0,0 +1,176 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.util.DirectBufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores each distinct file content once, as a blob named by its SHA-256 hash, and exposes the target files as hard
+ * links to their blob. Copying a content that is already stored costs a read of the source but no write.
+ * <p>
+ * Blobs are read-only, so a target file cannot be modified in place and corrupt other versions sharing its blob.
+ * The blob of each target file is kept in a {@link BlobIndex}, and a blob is removed when the last target file
+ * referencing it is deleted. Target files are copies of their blob where hard links are not supported.
+ */
+@Slf4j
+class ContentAddressableStorage implements TargetStorage {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Path objectsDir;
+    private final IoThrottle ioThrottle;
+    private final BlobIndex blobIndex;
+    private final DirectBufferPool bufferPool = DirectBufferPool.shared();
+
+    ContentAddressableStorage(Path objectsDir) {
+        this(objectsDir, IoThrottle.unlimited());
+    }
+
+    ContentAddressableStorage(Path objectsDir, IoThrottle ioThrottle) {
+        this.objectsDir = objectsDir;
+        this.ioThrottle = ioThrottle;
+        this.blobIndex = BlobIndex.of(objectsDir);
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        String hash = hash(source.toPath());
+        // A blob removed by a concurrent deletion is stored again
+        while (!linkIfStored(hash, target.toPath())) {
+            hash = store(source.toPath());
+        }
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        synchronized (blobIndex) {
+            Files.delete(target.toPath());
+            // Target files stored before the index was kept are deleted without their blob
+            removeIfUnreferenced(blobIndex.remove(target.toPath()));
+        }
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        synchronized (blobIndex) {
+            TargetStorage.super.move(target, destination);
+            removeIfUnreferenced(blobIndex.move(target.toPath(), destination.toPath()));
+        }
+    }
+
+    /**
+     * Link the target file to a blob and index it, if the blob is stored
+     * @return whether the blob is stored
+     */
+    private boolean linkIfStored(String hash, Path target) throws IOException {
+        synchronized (blobIndex) {
+            Path blob = getBlob(hash);
+            if (!Files.exists(blob)) {
+                return false;
+            }
+            link(blob, target);
+            removeIfUnreferenced(blobIndex.put(target, hash));
+            return true;
+        }
+    }
+
+    private void removeIfUnreferenced(String hash) throws IOException {
+        if (hash != null) {
+            Path blob = getBlob(hash);
+            log.debug("Removing unreferenced blob: {}", blob);
+            Files.deleteIfExists(blob);
+        }
+    }
+
+    /**
+     * @return the hash of the stored blob
+     */
+    private String store(Path source) throws IOException {
+        Files.createDirectories(objectsDir);
+        Path tempFile = Files.createTempFile(objectsDir, "blob", ".tmp");
+        try {
+            MessageDigest messageDigest = createMessageDigest();
+            ByteBuffer buffer = bufferPool.acquire();
+            try (FileChannel in = FileChannel.open(source, READ);
+                 FileChannel out = FileChannel.open(tempFile, WRITE)) {
+                while (in.read(buffer.clear()) != -1) {
+                    buffer.flip();
+                    ioThrottle.acquireBytes(buffer.remaining());
+                    messageDigest.update(buffer);
+                    buffer.rewind();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+            // The source may have changed since it was hashed, so the blob is named after what was actually copied
+            String hash = HexFormat.of().formatHex(messageDigest.digest());
+            Path blob = getBlob(hash);
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Blob: {} was stored concurrently", blob);
+            }
+            blob.toFile().setReadOnly();
+            return hash;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void link(Path blob, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Failed to link: {} to blob: {}, copying it instead", target, blob, e);
+            Files.copy(blob, target);
+        }
+    }
+
+    private Path getBlob(String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private String hash(Path path) throws IOException {
+        MessageDigest messageDigest = createMessageDigest();
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel in = FileChannel.open(path, READ)) {
+            while (in.read(buffer.clear()) != -1) {
+                buffer.flip();
+                // Hashing reads the whole source file, even when its content is already stored
+                ioThrottle.acquireBytes(buffer.remaining());
+                messageDigest.update(buffer);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+        }
+    }
+}
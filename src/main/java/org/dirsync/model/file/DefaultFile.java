@@ -2,15 +2,12 @@ package org.dirsync.model.file;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -24,20 +21,40 @@ class DefaultFile implements SyncFile {
     private final Supplier<LocalDateTime> localDateTimeSupplier;
 
     protected final File file;
+    protected final String relativeDirPath;
+    protected final TargetStorage targetStorage;
 
     DefaultFile(File file) {
         this(file, LocalDateTime::now);
     }
 
     DefaultFile(File file, Supplier<LocalDateTime> localDateTimeSupplier) {
+        this(file, "", localDateTimeSupplier, new LocalTargetStorage());
+    }
+
+    /**
+     * @param relativeDirPath the sub-directory of the target directory the file is placed in, empty for the target
+     *                        directory itself
+     * @param targetStorage   writes the file to the target directory
+     */
+    DefaultFile(File file, String relativeDirPath, Supplier<LocalDateTime> localDateTimeSupplier,
+                TargetStorage targetStorage) {
         this.file = file;
+        this.relativeDirPath = relativeDirPath;
         this.localDateTimeSupplier = localDateTimeSupplier;
+        this.targetStorage = targetStorage;
     }
 
     @Override
     public void copy(@NonNull String targetDirPath) throws IOException {
         File targetFile = getTargetFile(targetDirPath);
-        FileUtils.copyFile(file, targetFile);
+        targetStorage.copy(file, targetFile);
+    }
+
+    @Override
+    public void update(String targetDirPath) throws IOException {
+        // Timestamped copies are made when files are created, modifications are not synchronized
+        log.debug("Ignoring modification of file: {}", file);
     }
 
     @Override
@@ -46,36 +63,62 @@ class DefaultFile implements SyncFile {
         File targetFile = findTargetFile(fileNameRegex, targetDirPath);
         if (targetFile == null) {
             log.warn("File for deletion: {} not found in target directory: {} via filename regex: {}",
-                    file.getName(), targetDirPath, fileNameRegex);
+                    file.getName(), getTargetDir(targetDirPath), fileNameRegex);
             return;
         }
-        Files.delete(targetFile.toPath());
+        targetStorage.delete(targetFile);
     }
 
-    private File findTargetFile(String fileNameRegex, String targetDirPath) {
-        Pattern pattern = Pattern.compile(fileNameRegex);
-        File targetDir = new File(targetDirPath);
-        File[] files = targetDir.listFiles();
-        if (files == null) {
-            return null;
+    @Override
+    public boolean rename(SyncFile renamed, String targetDirPath) throws IOException {
+        if (renamed.getClass() != getClass()) {
+            return false;
+        }
+        File targetFile = findExistingTargetFile(targetDirPath);
+        if (targetFile == null) {
+            return false;
         }
-        Optional<File> optionalFile = Arrays.stream(files)
-                .filter(f -> pattern.matcher(f.getName()).find())
+        targetStorage.move(targetFile, renamed.getTargetFile(targetDirPath));
+        return true;
+    }
+
+    /**
+     * @return the target file of this file if it exists, otherwise null
+     */
+    protected File findExistingTargetFile(String targetDirPath) throws IOException {
+        return findTargetFile(getFileNameRegex(), targetDirPath);
+    }
+
+    private File findTargetFile(String fileNameRegex, String targetDirPath) throws IOException {
+        Pattern pattern = Pattern.compile(fileNameRegex);
+        File targetDir = getTargetDir(targetDirPath);
+        Optional<String> optionalFileName = targetStorage.list(targetDir).stream()
+                .filter(fileName -> pattern.matcher(fileName).matches())
                 .findAny();
-        return optionalFile.orElse(null);
+        return optionalFileName.map(fileName -> new File(targetDir, fileName)).orElse(null);
     }
 
     @Override
     public File getTargetFile(String targetDirPath) {
         String baseName = FilenameUtils.getBaseName(file.getName());
-        String nameWithTimestamp = baseName + createTimestamp() + "." + FilenameUtils.getExtension(file.getName());
-        return new File(targetDirPath + File.separator + nameWithTimestamp);
+        String nameWithTimestamp = baseName + createTimestamp() + "." + FilenameUtils.getExtension(file.getName())
+                + targetStorage.getTargetFileSuffix();
+        return new File(getTargetDir(targetDirPath), nameWithTimestamp);
+    }
+
+    protected File getTargetDir(String targetDirPath) {
+        if (relativeDirPath.isEmpty()) {
+            return new File(targetDirPath);
+        }
+        return new File(targetDirPath, relativeDirPath);
     }
 
     private String getFileNameRegex() {
         String baseName = FilenameUtils.getBaseName(file.getName());
         String extension = FilenameUtils.getExtension(file.getName());
-        return baseName + "\\[\\d{2}:\\d{2}:\\d{2}\\]." + extension;
+        // The whole name is matched, so temporary files named after a target file are not taken for it
+        return Pattern.quote(baseName) + "\\[\\d{2}:\\d{2}:\\d{2}\\]"
+                + Pattern.quote("." + extension + targetStorage.getTargetFileSuffix());
     }
 
     private String createTimestamp() {
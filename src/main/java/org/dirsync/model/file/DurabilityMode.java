@@ -0,0 +1,19 @@
+package org.dirsync.model.file;
+
+/**
+ * When synchronized files are forced to disk, so they survive a crash of the host.
+ */
+public enum DurabilityMode {
+    /**
+     * Files are written back whenever the operating system decides
+     */
+    NONE,
+    /**
+     * Each file and its parent directory are forced to disk before the copy completes
+     */
+    PER_FILE,
+    /**
+     * Copied files and their parent directories are forced to disk together in batches, see {@link GroupCommitter}
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,127 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forces the files copied to and deleted from the target directory to disk, per file or in batches with a
+ * {@link GroupCommitter}. A copy fails if its target file cannot be forced, or once batched, is copied again.
+ */
+@Slf4j
+class DurableTargetStorage implements TargetStorage {
+
+    private final TargetStorage delegate;
+    private final GroupCommitter groupCommitter;
+
+    /**
+     * @param groupCommitter commits the changes in batches, or null to force each change before returning
+     */
+    DurableTargetStorage(TargetStorage delegate, GroupCommitter groupCommitter) {
+        this.delegate = delegate;
+        this.groupCommitter = groupCommitter;
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        List<Path> createdDirs = missingDirectories(target.toPath().getParent());
+        delegate.copy(source, target);
+        commit(target.toPath(), source);
+        commitCreated(createdDirs);
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        delegate.append(source, offset, length, target);
+        commit(target.toPath(), source);
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        delegate.delete(target);
+        commitDirectory(target.toPath().getParent());
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        List<Path> createdDirs = missingDirectories(destination.toPath().getParent());
+        delegate.move(target, destination);
+        commit(destination.toPath(), null);
+        commitDirectory(target.toPath().getParent());
+        commitCreated(createdDirs);
+    }
+
+    @Override
+    public boolean exists(File target) throws IOException {
+        return delegate.exists(target);
+    }
+
+    @Override
+    public List<String> list(File directory) throws IOException {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public String getTargetFileSuffix() {
+        return delegate.getTargetFileSuffix();
+    }
+
+    /**
+     * @param source the source file the target file was copied from, to copy it again if its force fails, or null
+     */
+    private void commit(Path target, File source) throws IOException {
+        if (groupCommitter != null) {
+            if (source == null) {
+                groupCommitter.addFile(target);
+            } else {
+                groupCommitter.addFile(target, source.toPath(), () -> recopy(source, target.toFile()));
+            }
+            return;
+        }
+        FileSync.force(target);
+        FileSync.forceDirectory(target.getParent());
+    }
+
+    private void recopy(File source, File target) {
+        try {
+            copy(source, target);
+        } catch (IOException e) {
+            log.error("Failed to copy target file: {} again from: {}, it may not be durable", target, source, e);
+        }
+    }
+
+    private void commitDirectory(Path dir) throws IOException {
+        if (groupCommitter != null) {
+            groupCommitter.addDirectory(dir);
+            return;
+        }
+        FileSync.forceDirectory(dir);
+    }
+
+    /**
+     * Force the parents of directories created by a copy or move, so their entries for the new directories are
+     * durable along with the file
+     */
+    private void commitCreated(List<Path> createdDirs) throws IOException {
+        for (Path dir : createdDirs) {
+            commitDirectory(dir.getParent());
+        }
+    }
+
+    /**
+     * @return the directories of the path that do not exist yet, from the given one up to the first existing ancestor
+     */
+    private static List<Path> missingDirectories(Path dir) {
+        List<Path> missing = new ArrayList<>();
+        for (Path current = dir; current != null && current.getParent() != null && !Files.isDirectory(current);
+             current = current.getParent()) {
+            missing.add(current);
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,39 @@
+package org.dirsync.model.file;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+@UtilityClass
+class FileSync {
+
+    // Windows cannot open directories, and makes the creation and deletion of entries durable without forcing them
+    private final boolean DIRECTORY_FORCE_SUPPORTED = !System.getProperty("os.name", "").startsWith("Windows");
+
+    /**
+     * Force the content and metadata of a file to disk
+     * @param file the file to force
+     * @throws IOException if the file cannot be opened or forced
+     */
+    void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Force a directory to disk, so the creation and deletion of its entries is durable. Platforms that cannot open
+     * directories, like Windows, are skipped.
+     * @param dir the directory to force
+     * @throws IOException if the directory cannot be opened or forced
+     */
+    void forceDirectory(Path dir) throws IOException {
+        if (DIRECTORY_FORCE_SUPPORTED) {
+            force(dir);
+        }
+    }
+}
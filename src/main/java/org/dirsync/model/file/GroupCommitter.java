@@ -0,0 +1,199 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forces written files and their parent directories to disk in batches, every interval or once enough files are
+ * pending, whichever comes first. Many small files then cost a few forces per batch instead of one per file, at the
+ * cost of the files written since the last batch not being durable yet.
+ * <p>
+ * A file that fails to be forced is copied again from its source file, scheduled by a {@link RepairScheduler} in order
+ * with the synchronization of the source file, and forced with a later batch.
+ */
+@Slf4j
+class GroupCommitter implements AutoCloseable {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Copies a written file again
+     * @param source the source file it was copied from
+     */
+    private record Recopy(Path source, Runnable copy) {
+    }
+
+    private final int maxFiles;
+    private final ScheduledExecutorService executor;
+    private final Object commitLock = new Object();
+    // The files with how to copy them again, or null for files that cannot be copied again
+    private Map<Path, Recopy> pendingFiles = new LinkedHashMap<>();
+    private Set<Path> pendingDirs = new LinkedHashSet<>();
+    private boolean closed = false;
+    private volatile RepairScheduler repairScheduler = RepairScheduler.INLINE;
+
+    /**
+     * @param intervalMillis the maximum time a written file waits to be forced to disk
+     * @param maxFiles       the number of pending files that triggers a commit before the interval elapses
+     */
+    GroupCommitter(long intervalMillis, int maxFiles) {
+        this.maxFiles = maxFiles;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::commit, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void setRepairScheduler(RepairScheduler repairScheduler) {
+        this.repairScheduler = repairScheduler;
+    }
+
+    /**
+     * Force a written file that cannot be copied again, e.g. a moved file, and its parent directory to disk
+     * @throws IOException if closed and the file cannot be forced
+     * @see #addFile(Path, Path, Runnable)
+     */
+    void addFile(Path file) throws IOException {
+        addFile(file, null, null);
+    }
+
+    /**
+     * Force a written file and its parent directory to disk with the next batch, or right away once closed
+     * @param source the source file the file was copied from
+     * @param recopy copies the file again if it fails to be forced
+     * @throws IOException if closed and the file cannot be forced
+     */
+    void addFile(Path file, Path source, Runnable recopy) throws IOException {
+        boolean full = false;
+        boolean wasClosed;
+        synchronized (this) {
+            wasClosed = closed;
+            if (!closed) {
+                pendingFiles.put(file, source != null ? new Recopy(source, recopy) : null);
+                pendingDirs.add(file.getParent());
+                full = pendingFiles.size() >= maxFiles;
+            }
+        }
+        if (wasClosed) {
+            FileSync.force(file);
+            FileSync.forceDirectory(file.getParent());
+        } else if (full) {
+            try {
+                executor.execute(this::commit);
+            } catch (RejectedExecutionException e) {
+                // Closed since, the final commit of close or this one forces the batch
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Force a directory whose entries changed to disk with the next batch, or right away once closed
+     * @throws IOException if closed and the directory cannot be forced
+     */
+    void addDirectory(Path dir) throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                pendingDirs.add(dir);
+                return;
+            }
+        }
+        FileSync.forceDirectory(dir);
+    }
+
+    /**
+     * Force all pending files and directories to disk, waiting for the commit to complete
+     */
+    void commit() {
+        synchronized (commitLock) {
+            Map<Path, Recopy> files;
+            Set<Path> dirs;
+            synchronized (this) {
+                if (pendingFiles.isEmpty() && pendingDirs.isEmpty()) {
+                    return;
+                }
+                files = pendingFiles;
+                dirs = pendingDirs;
+                pendingFiles = new LinkedHashMap<>();
+                pendingDirs = new LinkedHashSet<>();
+            }
+            for (Map.Entry<Path, Recopy> file : files.entrySet()) {
+                try {
+                    FileSync.force(file.getKey());
+                } catch (NoSuchFileException e) {
+                    log.debug("File: {} was deleted before it was committed", file.getKey());
+                } catch (IOException e) {
+                    recopy(file.getKey(), file.getValue(), e);
+                }
+            }
+            for (Path dir : dirs) {
+                try {
+                    FileSync.forceDirectory(dir);
+                } catch (NoSuchFileException e) {
+                    log.debug("Directory: {} was deleted before it was committed", dir);
+                } catch (IOException e) {
+                    log.error("Failed to force directory: {} to disk, the creation and deletion of its entries may "
+                            + "not be durable", dir, e);
+                }
+            }
+            log.debug("Committed {} files in {} directories", files.size(), dirs.size());
+        }
+    }
+
+    private void recopy(Path file, Recopy recopy, IOException cause) {
+        if (recopy == null) {
+            log.error("Failed to force file: {} to disk, it may not be durable", file, cause);
+            return;
+        }
+        log.warn("Failed to force file: {} to disk, copying it again from: {}", file, recopy.source(), cause);
+        try {
+            repairScheduler.schedule(recopy.source(), recopy.copy());
+        } catch (RejectedExecutionException e) {
+            log.error("Not copying file: {} again after the synchronization stopped, it may not be durable", file);
+        }
+    }
+
+    //VisibleForTesting
+    synchronized int getNumPendingFiles() {
+        return pendingFiles.size();
+    }
+
+    //VisibleForTesting
+    synchronized Set<Path> getPendingDirs() {
+        return Set.copyOf(pendingDirs);
+    }
+
+    /**
+     * Wait for a running commit to complete, then commit the pending files. Files added afterwards are forced right
+     * away.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        // Not interrupted, as an interrupted force closes the file channel and fails
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for a commit to complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commit();
+    }
+}
@@ -0,0 +1,95 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Creates the target file as a hard link to the source file instead of copying its content, when the source and
+ * target directories share a file store. Falls back to the delegate storage across file stores or when linking fails.
+ * <p>
+ * The target file shares its content with the source file, so this is only suitable for sources that are not
+ * modified in place.
+ */
+@Slf4j
+class HardLinkTargetStorage implements TargetStorage {
+
+    private final TargetStorage delegate;
+    private final boolean sameFileStore;
+
+    HardLinkTargetStorage(Path sourceDirPath, Path targetDirPath, TargetStorage delegate) {
+        this.delegate = delegate;
+        this.sameFileStore = isSameFileStore(sourceDirPath, targetDirPath);
+        if (!sameFileStore) {
+            log.info("Source directory: '{}' and target directory: '{}' are on different file stores, files will be copied",
+                    sourceDirPath, targetDirPath);
+        }
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        if (sameFileStore && tryLink(source.toPath(), target.toPath())) {
+            return;
+        }
+        delegate.copy(source, target);
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        if (Files.isSameFile(source.toPath(), target.toPath())) {
+            // A linked target file already has the appended bytes
+            return;
+        }
+        delegate.append(source, offset, length, target);
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        delegate.delete(target);
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        delegate.move(target, destination);
+    }
+
+    @Override
+    public boolean exists(File target) throws IOException {
+        return delegate.exists(target);
+    }
+
+    @Override
+    public List<String> list(File directory) throws IOException {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public String getTargetFileSuffix() {
+        return delegate.getTargetFileSuffix();
+    }
+
+    private static boolean tryLink(Path source, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Failed to link: {} to: {}, copying it instead", target, source, e);
+            return false;
+        }
+    }
+
+    private static boolean isSameFileStore(Path sourceDirPath, Path targetDirPath) {
+        try {
+            return Files.getFileStore(sourceDirPath).equals(Files.getFileStore(targetDirPath));
+        } catch (IOException e) {
+            log.warn("Failed to resolve file stores of: '{}' and: '{}'", sourceDirPath, targetDirPath, e);
+            return false;
+        }
+    }
+}
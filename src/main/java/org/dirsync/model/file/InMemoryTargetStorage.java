@@ -0,0 +1,137 @@
+package org.dirsync.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Keeps target files in memory instead of writing them to disk, so the synchronization pipeline can be tested and
+ * benchmarked without measuring the disk. Source files are still read from disk. Directories exist implicitly as the
+ * parents of files, and are kept when their files are deleted, like on disk.
+ */
+public class InMemoryTargetStorage implements TargetStorage {
+
+    private final Map<Path, StoredFile> files = new ConcurrentHashMap<>();
+    private final Map<Path, Set<String>> directoryEntries = new ConcurrentHashMap<>();
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        Path sourcePath = source.toPath();
+        store(target, Files.readAllBytes(sourcePath), Files.getLastModifiedTime(sourcePath).toMillis());
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        StoredFile storedFile = files.get(toKey(target));
+        if (storedFile == null || storedFile.content().length < offset) {
+            copy(source, target);
+            return;
+        }
+        // Bytes past the offset were not synchronized, so they are replaced like on disk
+        byte[] content = Arrays.copyOf(storedFile.content(), Math.toIntExact(length));
+        ByteBuffer tail = ByteBuffer.wrap(content, (int) offset, (int) (length - offset));
+        try (FileChannel in = FileChannel.open(source.toPath(), READ)) {
+            while (tail.hasRemaining()) {
+                if (in.read(tail, tail.position()) < 0) {
+                    // The source was truncated while appending
+                    content = Arrays.copyOf(content, tail.position());
+                    break;
+                }
+            }
+        }
+        store(target, content, Files.getLastModifiedTime(source.toPath()).toMillis());
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        Path key = toKey(target);
+        if (files.remove(key) == null) {
+            throw new NoSuchFileException(target.toString());
+        }
+        Set<String> entries = directoryEntries.get(key.getParent());
+        if (entries != null) {
+            entries.remove(key.getFileName().toString());
+        }
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        StoredFile storedFile = files.get(toKey(target));
+        if (storedFile == null) {
+            throw new NoSuchFileException(target.toString());
+        }
+        delete(target);
+        store(destination, storedFile.content(), storedFile.lastModifiedMillis());
+    }
+
+    @Override
+    public boolean exists(File target) {
+        Path key = toKey(target);
+        return files.containsKey(key) || directoryEntries.containsKey(key);
+    }
+
+    @Override
+    public List<String> list(File directory) {
+        return List.copyOf(directoryEntries.getOrDefault(toKey(directory), Set.of()));
+    }
+
+    /**
+     * @return the content of a target file
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public byte[] read(File target) throws NoSuchFileException {
+        return getStoredFile(target).content().clone();
+    }
+
+    /**
+     * @return the last modified time of a target file, copied from its source file
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public long getLastModifiedMillis(File target) throws NoSuchFileException {
+        return getStoredFile(target).lastModifiedMillis();
+    }
+
+    public int getNumFiles() {
+        return files.size();
+    }
+
+    private StoredFile getStoredFile(File target) throws NoSuchFileException {
+        StoredFile storedFile = files.get(toKey(target));
+        if (storedFile == null) {
+            throw new NoSuchFileException(target.toString());
+        }
+        return storedFile;
+    }
+
+    private void store(File target, byte[] content, long lastModifiedMillis) {
+        Path key = toKey(target);
+        files.put(key, new StoredFile(content, lastModifiedMillis));
+        // Register the file in its directory, and the directories in their parents until one was already registered
+        Path child = key;
+        Path parent = key.getParent();
+        while (parent != null
+                && directoryEntries.computeIfAbsent(parent, dir -> ConcurrentHashMap.newKeySet())
+                .add(child.getFileName().toString())) {
+            child = parent;
+            parent = parent.getParent();
+        }
+    }
+
+    private static Path toKey(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private record StoredFile(byte[] content, long lastModifiedMillis) {
+    }
+}
@@ -0,0 +1,217 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.util.DirectBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Verifies in the background that target files still match the checksums recorded in a {@link ChecksumManifest}
+ * when they were copied. Only target files are read: while a source file has the length and last modified time it
+ * was copied with, its recorded checksum is its checksum. A mismatching target file is copied again from its source
+ * file, unless the source file was modified since, in which case the corruption is only reported. Repairs are
+ * scheduled by a {@link RepairScheduler}, in order with the synchronization of their source file.
+ * <p>
+ * The verification runs on a single thread of minimum priority, and reads at the rate of its own {@link IoThrottle},
+ * so it leaves the disk to the synchronization.
+ */
+@Slf4j
+class IntegrityScrubber implements AutoCloseable {
+
+    /**
+     * The outcome of a verification of all target files
+     * @param verified     the number of target files matching their checksum
+     * @param repaired     the number of target files copied again
+     * @param unrepairable the number of mismatching target files whose source file was modified since
+     */
+    record ScrubResult(int verified, int repaired, int unrepairable) {
+    }
+
+    private final ChecksumManifest checksumManifest;
+    private final TargetStorage repairTargetStorage;
+    private final IoThrottle ioThrottle;
+    private final DirectBufferPool bufferPool = DirectBufferPool.shared();
+    private volatile RepairScheduler repairScheduler = RepairScheduler.INLINE;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param repairTargetStorage copies mismatching target files again
+     * @param ioThrottle          limits the bytes read from target files
+     */
+    IntegrityScrubber(ChecksumManifest checksumManifest, TargetStorage repairTargetStorage, IoThrottle ioThrottle) {
+        this.checksumManifest = checksumManifest;
+        this.repairTargetStorage = repairTargetStorage;
+        this.ioThrottle = ioThrottle;
+    }
+
+    void setRepairScheduler(RepairScheduler repairScheduler) {
+        this.repairScheduler = repairScheduler;
+    }
+
+    /**
+     * Verify the target files repeatedly, waiting the interval between two verifications
+     */
+    synchronized void start(long intervalMillis) {
+        log.info("Verifying target files every {} ms, files are copied through a buffer to compute their checksum",
+                intervalMillis);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "integrity-scrubber");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                scrub();
+            } catch (RuntimeException e) {
+                // Thrown out of a scheduled task, it would cancel the next verifications
+                log.error("Failed to verify target files", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Verify every target file of the manifest once
+     */
+    ScrubResult scrub() {
+        int verified = 0;
+        int repaired = 0;
+        int unrepairable = 0;
+        for (Path target : checksumManifest.targets()) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            try {
+                switch (verify(target)) {
+                    case VERIFIED -> verified++;
+                    case REPAIRED -> repaired++;
+                    case UNREPAIRABLE -> unrepairable++;
+                    case SKIPPED -> { }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to verify target file: {}", target, e);
+            }
+        }
+        log.debug("Verified {} target files, repaired {}, {} could not be repaired", verified, repaired,
+                unrepairable);
+        save();
+        return new ScrubResult(verified, repaired, unrepairable);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        save();
+    }
+
+    private void save() {
+        try {
+            checksumManifest.save();
+        } catch (IOException e) {
+            log.warn("Failed to save the checksums of the target files", e);
+        }
+    }
+
+    private Outcome verify(Path target) throws IOException {
+        ChecksumManifest.Entry entry = checksumManifest.get(target);
+        if (entry == null) {
+            return Outcome.SKIPPED;
+        }
+        Integer checksum = checksum(target);
+        if (checksumManifest.get(target) != entry) {
+            // Copied, moved or deleted while verifying
+            return Outcome.SKIPPED;
+        }
+        if (checksum != null && checksum == entry.checksum()) {
+            return Outcome.VERIFIED;
+        }
+        if (!isUnmodified(entry)) {
+            log.error("Target file: {} does not match its checksum, and its source file: {} was modified since",
+                    target, entry.source());
+            return Outcome.UNREPAIRABLE;
+        }
+        log.warn("Target file: {} does not match its checksum, copying it again from: {}", target, entry.source());
+        AtomicBoolean repaired = new AtomicBoolean();
+        try {
+            repairScheduler.schedule(entry.source(), () -> repaired.set(repair(target, entry))).get();
+        } catch (RejectedExecutionException e) {
+            log.debug("Not repairing target file: {} after the synchronization stopped", target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Failed to repair target file: {}", target, e.getCause());
+        }
+        return repaired.get() ? Outcome.REPAIRED : Outcome.SKIPPED;
+    }
+
+    /**
+     * @return whether the target file was copied again, unless synchronized since it was verified
+     */
+    private boolean repair(Path target, ChecksumManifest.Entry entry) {
+        try {
+            if (checksumManifest.get(target) != entry || !isUnmodified(entry)) {
+                return false;
+            }
+            repairTargetStorage.copy(entry.source().toFile(), target.toFile());
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to repair target file: {}", target, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the CRC32C checksum of the file, or null if it does not exist
+     */
+    private Integer checksum(Path file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return (int) checksum.getValue();
+                }
+                ioThrottle.acquireBytes(read);
+                buffer.flip();
+                checksum.update(buffer);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static boolean isUnmodified(ChecksumManifest.Entry entry) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(entry.source(), BasicFileAttributes.class);
+            return attributes.size() == entry.sourceLength()
+                    && attributes.lastModifiedTime().toMillis() == entry.sourceLastModifiedMillis();
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private enum Outcome {
+        VERIFIED, REPAIRED, UNREPAIRABLE, SKIPPED
+    }
+}
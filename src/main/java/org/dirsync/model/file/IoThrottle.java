@@ -0,0 +1,40 @@
+package org.dirsync.model.file;
+
+import org.dirsync.util.TokenBucketRateLimiter;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the bytes written to and the operations performed on the target directory. Both limits can be changed
+ * while synchronizing, a limit of zero or less means unlimited.
+ */
+public class IoThrottle {
+
+    private final TokenBucketRateLimiter bytesRateLimiter;
+    private final TokenBucketRateLimiter operationsRateLimiter;
+
+    public IoThrottle(double bytesPerSecond, double operationsPerSecond) {
+        this.bytesRateLimiter = new TokenBucketRateLimiter(bytesPerSecond);
+        this.operationsRateLimiter = new TokenBucketRateLimiter(operationsPerSecond);
+    }
+
+    public static IoThrottle unlimited() {
+        return new IoThrottle(0, 0);
+    }
+
+    public void setBytesPerSecond(double bytesPerSecond) {
+        bytesRateLimiter.setRate(bytesPerSecond);
+    }
+
+    public void setOperationsPerSecond(double operationsPerSecond) {
+        operationsRateLimiter.setRate(operationsPerSecond);
+    }
+
+    public void acquireBytes(long numBytes) throws InterruptedIOException {
+        bytesRateLimiter.acquire(numBytes);
+    }
+
+    void acquireOperation() throws InterruptedIOException {
+        operationsRateLimiter.acquire(1);
+    }
+}
@@ -0,0 +1,155 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.util.DirectBufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Copies files in chunks, so the written bytes can be limited by an {@link IoThrottle} without bursts.
+ * Like {@link org.apache.commons.io.FileUtils#copyFile(File, File)}, parent directories are created and the last
+ * modified time is preserved.
+ * <p>
+ * With a {@link ChecksumManifest}, files are copied through a buffer instead of being transferred, so their CRC32C
+ * checksum is computed from the copied bytes and recorded without reading the file again.
+ */
+@Slf4j
+class LocalTargetStorage implements TargetStorage {
+
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    private final IoThrottle ioThrottle;
+    private final ChecksumManifest checksumManifest;
+    private final DirectBufferPool bufferPool = DirectBufferPool.shared();
+
+    LocalTargetStorage() {
+        this(IoThrottle.unlimited());
+    }
+
+    LocalTargetStorage(IoThrottle ioThrottle) {
+        this(ioThrottle, null);
+    }
+
+    /**
+     * @param checksumManifest records the checksums of copied files, or null to not checksum them
+     */
+    LocalTargetStorage(IoThrottle ioThrottle, ChecksumManifest checksumManifest) {
+        this.ioThrottle = ioThrottle;
+        this.checksumManifest = checksumManifest;
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        Path sourcePath = source.toPath();
+        Path targetPath = target.toPath();
+        Files.createDirectories(targetPath.getParent());
+        if (checksumManifest != null) {
+            copyWithChecksum(sourcePath, targetPath);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(sourcePath, READ);
+             FileChannel out = FileChannel.open(targetPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            transfer(in, out, 0, in.size());
+        }
+        Files.setLastModifiedTime(targetPath, Files.getLastModifiedTime(sourcePath));
+    }
+
+    private void copyWithChecksum(Path sourcePath, Path targetPath) throws IOException {
+        BasicFileAttributes sourceAttributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel in = FileChannel.open(sourcePath, READ);
+             FileChannel out = FileChannel.open(targetPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            while (true) {
+                buffer.clear();
+                int read = in.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                ioThrottle.acquireBytes(read);
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        Files.setLastModifiedTime(targetPath, sourceAttributes.lastModifiedTime());
+        BasicFileAttributes copiedAttributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+        if (copiedAttributes.size() != sourceAttributes.size()
+                || !copiedAttributes.lastModifiedTime().equals(sourceAttributes.lastModifiedTime())) {
+            // The source was modified while copying, so the checksum may not match any version of it
+            checksumManifest.remove(targetPath);
+            return;
+        }
+        checksumManifest.record(targetPath, new ChecksumManifest.Entry(sourcePath, sourceAttributes.size(),
+                sourceAttributes.lastModifiedTime().toMillis(), (int) checksum.getValue()));
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        Path sourcePath = source.toPath();
+        Path targetPath = target.toPath();
+        if (!Files.exists(targetPath) || Files.size(targetPath) < offset) {
+            log.debug("Target file: {} is shorter than the synchronized offset: {}, copying it", target, offset);
+            copy(source, target);
+            return;
+        }
+        if (checksumManifest != null) {
+            // The checksum of the whole file is unknown without reading it again
+            checksumManifest.remove(targetPath);
+        }
+        try (FileChannel in = FileChannel.open(sourcePath, READ);
+             FileChannel out = FileChannel.open(targetPath, WRITE)) {
+            // Bytes past the offset were not synchronized, e.g. written by an interrupted append
+            out.truncate(offset);
+            out.position(offset);
+            transfer(in, out, offset, length);
+        }
+        Files.setLastModifiedTime(targetPath, Files.getLastModifiedTime(sourcePath));
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        TargetStorage.super.delete(target);
+        if (checksumManifest != null) {
+            checksumManifest.remove(target.toPath());
+        }
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        TargetStorage.super.move(target, destination);
+        if (checksumManifest != null) {
+            checksumManifest.move(target.toPath(), destination.toPath());
+        }
+    }
+
+    private void transfer(FileChannel in, FileChannel out, long position, long end) throws IOException {
+        while (position < end) {
+            long count = Math.min(CHUNK_SIZE, end - position);
+            ioThrottle.acquireBytes(count);
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                // The source was truncated while copying
+                break;
+            }
+            position += transferred;
+        }
+    }
+}
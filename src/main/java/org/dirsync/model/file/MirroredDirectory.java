@@ -0,0 +1,173 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.model.dir.SyncPathFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * A source directory mirrored by a directory of the same relative path under the target directory. Its files are
+ * copied and deleted in parallel, with a single walk of the directory tree.
+ */
+@Slf4j
+class MirroredDirectory implements SyncDirectory {
+
+    private final Path dir;
+    private final String relativeDirPath;
+    private final SyncFileFactory syncFileFactory;
+    private final TargetStorage targetStorage;
+    private final TailSyncIndex tailSyncIndex;
+    private final SyncPathFilter syncPathFilter;
+    private final ExecutorService executor;
+
+    /**
+     * @param relativeDirPath the path of the directory relative to the source directory
+     * @param syncFileFactory creates the files copied to the target directory
+     * @param targetStorage   deletes the files from the target directory
+     * @param tailSyncIndex   the synchronized length of the text files, forgotten for the deleted files, or null
+     * @param syncPathFilter  the files and directories that are synchronized
+     * @param executor        runs the copies and deletions in parallel
+     */
+    MirroredDirectory(Path dir, String relativeDirPath, SyncFileFactory syncFileFactory, TargetStorage targetStorage,
+                      TailSyncIndex tailSyncIndex, SyncPathFilter syncPathFilter, ExecutorService executor) {
+        this.dir = dir;
+        this.relativeDirPath = relativeDirPath;
+        this.syncFileFactory = syncFileFactory;
+        this.targetStorage = targetStorage;
+        this.tailSyncIndex = tailSyncIndex;
+        this.syncPathFilter = syncPathFilter;
+        this.executor = executor;
+    }
+
+    @Override
+    public List<Path> copy(String targetDirPath, Set<Path> excluded) throws IOException {
+        List<Path> files = listSourceFiles(excluded);
+        List<Future<?>> copies = new ArrayList<>(files.size());
+        for (Path file : files) {
+            copies.add(executor.submit(() -> {
+                syncFileFactory.create(file).copy(targetDirPath);
+                return null;
+            }));
+        }
+        List<Path> failed = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                await(copies.get(i));
+            } catch (IOException e) {
+                log.warn("Failed to copy file: {}", files.get(i), e);
+                failed.add(files.get(i));
+            }
+        }
+        log.debug("Copied {} of {} files of directory: {}", files.size() - failed.size(), files.size(), dir);
+        return failed;
+    }
+
+    @Override
+    public void delete(String targetDirPath) throws IOException {
+        Path targetDir = getTargetDir(targetDirPath).toPath();
+        if (!Files.exists(targetDir)) {
+            log.debug("Target directory: {} already deleted", targetDir);
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(targetDir)) {
+            paths.forEach(path -> (Files.isDirectory(path) ? dirs : files).add(path));
+        }
+        List<Future<?>> deletions = new ArrayList<>(files.size());
+        for (Path file : files) {
+            deletions.add(executor.submit(() -> {
+                deleteFile(file);
+                return null;
+            }));
+        }
+        IOException failure = null;
+        for (Future<?> deletion : deletions) {
+            try {
+                await(deletion);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        dirs.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        for (Path subDir : dirs) {
+            Files.deleteIfExists(subDir);
+        }
+        log.debug("Deleted {} files and {} directories of directory: {}", files.size(), dirs.size(), targetDir);
+    }
+
+    @Override
+    public File getTargetDir(String targetDirPath) {
+        return new File(targetDirPath, relativeDirPath);
+    }
+
+    private List<Path> listSourceFiles(Set<Path> excluded) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) {
+                return syncPathFilter.accept(subDir, () -> true)
+                        ? FileVisitResult.CONTINUE
+                        : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !excluded.contains(file) && syncPathFilter.accept(file, () -> false)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private void deleteFile(Path file) throws IOException {
+        try {
+            targetStorage.delete(file.toFile());
+        } catch (NoSuchFileException e) {
+            log.debug("File: {} already deleted", file);
+        }
+        if (tailSyncIndex != null) {
+            tailSyncIndex.remove(file);
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while synchronizing directory");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.dirsync.model.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.util.DirectBufferPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Copies files larger than a threshold as several ranges in parallel, with positional reads and writes into a
+ * temporary file next to the target. The temporary file atomically replaces the target file once all
+ * ranges are copied, so the target file is never seen partially copied. Smaller files are copied by the delegate.
+ * <p>
+ * Owns the executor copying the ranges, shut down by {@link #close()} with the delegate.
+ */
+@Slf4j
+class ParallelRangeTargetStorage implements TargetStorage, Closeable {
+
+    private static final long MIN_RANGE_SIZE = 16L * 1024 * 1024;
+
+    private final TargetStorage delegate;
+    private final long threshold;
+    private final int numRanges;
+    private final long minRangeSize;
+    private final ExecutorService executor;
+    private final IoThrottle ioThrottle;
+    private final DirectBufferPool bufferPool = DirectBufferPool.shared();
+
+    ParallelRangeTargetStorage(TargetStorage delegate, long threshold, int numRanges, ExecutorService executor,
+                               IoThrottle ioThrottle) {
+        this(delegate, threshold, numRanges, MIN_RANGE_SIZE, executor, ioThrottle);
+    }
+
+    //VisibleForTesting
+    ParallelRangeTargetStorage(TargetStorage delegate, long threshold, int numRanges, long minRangeSize,
+                               ExecutorService executor, IoThrottle ioThrottle) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.numRanges = numRanges;
+        this.minRangeSize = minRangeSize;
+        this.executor = executor;
+        this.ioThrottle = ioThrottle;
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        long size = Files.size(source.toPath());
+        if (size < threshold) {
+            delegate.copy(source, target);
+            return;
+        }
+        Path targetPath = target.toPath();
+        Files.createDirectories(targetPath.getParent());
+        Path tempFile = targetPath.resolveSibling("." + target.getName() + "." + UUID.randomUUID() + ".part");
+        try {
+            copyRanges(source.toPath(), tempFile, size);
+            Files.setLastModifiedTime(tempFile, Files.getLastModifiedTime(source.toPath()));
+            Files.move(tempFile, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        delegate.append(source, offset, length, target);
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        delegate.delete(target);
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        delegate.move(target, destination);
+    }
+
+    @Override
+    public boolean exists(File target) throws IOException {
+        return delegate.exists(target);
+    }
+
+    @Override
+    public List<String> list(File directory) throws IOException {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public String getTargetFileSuffix() {
+        return delegate.getTargetFileSuffix();
+    }
+
+    /**
+     * Shut down the executor, letting the ranges being copied complete, and close the delegate if it is
+     * {@link Closeable}
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private void copyRanges(Path source, Path tempFile, long size) throws IOException {
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(tempFile, CREATE_NEW, WRITE)) {
+            setSize(out, size);
+            long rangeSize = Math.max(minRangeSize, (size + numRanges - 1) / numRanges);
+            List<Future<?>> ranges = new ArrayList<>();
+            for (long position = 0; position < size; position += rangeSize) {
+                long start = position;
+                long end = Math.min(size, position + rangeSize);
+                ranges.add(executor.submit(() -> {
+                    copyRange(in, out, start, end);
+                    return null;
+                }));
+            }
+            log.debug("Copying: {} bytes of: {} in {} ranges", size, source, ranges.size());
+            awaitAll(ranges);
+        }
+    }
+
+    /**
+     * Set the size of the temporary file up front, so the ranges are written within the file instead of each extending
+     * it. The file stays sparse until the ranges are written: no disk space is reserved.
+     */
+    private static void setSize(FileChannel out, long size) throws IOException {
+        if (size > 0) {
+            out.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+
+    private void copyRange(FileChannel in, FileChannel out, long start, long end) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            long position = start;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                ioThrottle.acquireBytes(buffer.remaining());
+                int read = in.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Source file was truncated while copying");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> ranges) throws IOException {
+        try {
+            for (Future<?> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException e) {
+            ranges.forEach(range -> range.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying ranges");
+        } catch (ExecutionException e) {
+            ranges.forEach(range -> range.cancel(true));
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to copy range", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.dirsync.model.file;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Schedules the repair of a target file found corrupted or failing to be forced to disk in the background, in order
+ * with the synchronization of its source file, so a repair never writes the target file concurrently with a copy of a
+ * newer version of the source file
+ */
+@FunctionalInterface
+public interface RepairScheduler {
+
+    /**
+     * Repairs run on the calling thread
+     */
+    RepairScheduler INLINE = (source, repair) -> {
+        repair.run();
+        return CompletableFuture.completedFuture(null);
+    };
+
+    /**
+     * @param source the source file of the target file to repair
+     * @return completed once the repair ran
+     * @throws java.util.concurrent.RejectedExecutionException if the repair cannot be scheduled anymore
+     */
+    CompletableFuture<Void> schedule(Path source, Runnable repair);
+}
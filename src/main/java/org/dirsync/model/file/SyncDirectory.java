@@ -0,0 +1,29 @@
+package org.dirsync.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A source directory synchronized with the target directory as a whole, instead of file by file.
+ */
+public interface SyncDirectory {
+
+    /**
+     * Copy the files of the directory and its sub-directories to the target directory
+     * @param excluded files that are synchronized separately and are not copied
+     * @return the files that failed to copy
+     * @throws IOException if the directory cannot be listed
+     */
+    List<Path> copy(String targetDirPath, Set<Path> excluded) throws IOException;
+
+    /**
+     * Delete the target directory of the directory with everything below it
+     * @throws IOException if a file or directory fails to be deleted
+     */
+    void delete(String targetDirPath) throws IOException;
+
+    File getTargetDir(String targetDirPath);
+}
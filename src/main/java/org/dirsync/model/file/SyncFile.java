@@ -9,7 +9,21 @@ public interface SyncFile {
 
     void copy(@NonNull String targetDirPath) throws IOException;
 
+    /**
+     * Synchronize a modification of the file with the target directory
+     */
+    void update(String targetDirPath) throws IOException;
+
     void delete(String targetDirPath) throws IOException;
 
+    /**
+     * Move the target file of this file to the target file of the file it was renamed to, instead of copying the
+     * renamed file again
+     * @param renamed the file this file was renamed to
+     * @return false if the target file cannot be moved, e.g. because it was not found or the renamed file is stored
+     * differently, so the renamed file has to be copied
+     */
+    boolean rename(SyncFile renamed, String targetDirPath) throws IOException;
+
     File getTargetFile(String targetDirPath);
 }
@@ -4,4 +4,31 @@ import java.nio.file.Path;
 
 public interface SyncFileFactory {
     SyncFile create(Path path);
+
+    /**
+     * @return whether source directories are mirrored by target directories, so they can be synchronized as a whole
+     * with {@link #createDirectory(Path)}
+     */
+    default boolean mirrorsDirectories() {
+        return false;
+    }
+
+    /**
+     * @return the directory at the path, synchronized as a whole
+     * @throws IllegalStateException if directories are not mirrored, see {@link #mirrorsDirectories()}
+     */
+    SyncDirectory createDirectory(Path path);
+
+    /**
+     * Schedule the repairs of target files found corrupted or failing to be forced to disk in the background, which
+     * run on the thread verifying or forcing them until set
+     */
+    default void setRepairScheduler(RepairScheduler repairScheduler) {
+    }
+
+    /**
+     * Release the resources of the created files, making pending writes durable
+     */
+    default void close() {
+    }
 }
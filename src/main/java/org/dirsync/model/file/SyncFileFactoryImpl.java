@@ -1,19 +1,243 @@
 package org.dirsync.model.file;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.dirsync.model.dir.SyncPathFilter;
+import org.dirsync.remote.RemoteTargetStorage;
+
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+@Slf4j
 public class SyncFileFactoryImpl implements SyncFileFactory {
 
+    private static final String OBJECTS_DIR_NAME = ".dirsync-objects";
+
+    private final Path sourceDirPath;
+    private final SyncFileOptions options;
+    private final TargetStorage textTargetStorage;
+    private final TargetStorage versionedTargetStorage;
+    private final GroupCommitter groupCommitter;
+    private final TailSyncIndex tailSyncIndex;
+    private final SyncPathFilter syncPathFilter;
+    private final ExecutorService directoryExecutor;
+    private final TargetStorage targetStorage;
+    private final IntegrityScrubber integrityScrubber;
+
+    public SyncFileFactoryImpl() {
+        this.sourceDirPath = null;
+        this.options = SyncFileOptions.defaults();
+        this.textTargetStorage = new LocalTargetStorage();
+        this.versionedTargetStorage = textTargetStorage;
+        this.groupCommitter = null;
+        this.tailSyncIndex = null;
+        this.syncPathFilter = null;
+        this.directoryExecutor = null;
+        this.targetStorage = textTargetStorage;
+        this.integrityScrubber = null;
+    }
+
+    public SyncFileFactoryImpl(SyncDirectoriesInfo syncDirectoriesInfo, SyncFileOptions options) {
+        this(syncDirectoriesInfo, options, options.scrubIntervalMillis() > 0
+                ? ChecksumManifest.of(Path.of(syncDirectoriesInfo.targetDirPath()))
+                : null);
+    }
+
+    private SyncFileFactoryImpl(SyncDirectoriesInfo syncDirectoriesInfo, SyncFileOptions options,
+                                ChecksumManifest checksumManifest) {
+        this(syncDirectoriesInfo, options, createTargetStorage(syncDirectoriesInfo, options, checksumManifest),
+                options.remoteTarget() == null, checksumManifest);
+    }
+
+    /**
+     * @param targetStorage writes the files to the target instead of the local target directory, e.g. an
+     *                      {@link InMemoryTargetStorage}. Closed with this factory if it is {@link Closeable}
+     */
+    public SyncFileFactoryImpl(SyncDirectoriesInfo syncDirectoriesInfo, SyncFileOptions options,
+                               TargetStorage targetStorage) {
+        this(syncDirectoriesInfo, options, targetStorage, false, null);
+    }
+
+    /**
+     * @param localTarget      whether the target storage writes to the local target directory, which the
+     *                         compression, version store, hard link, durability, directory and scrub options work on
+     *                         directly
+     * @param checksumManifest the checksums recorded by the target storage, verified by the scrubber, or null
+     */
+    private SyncFileFactoryImpl(SyncDirectoriesInfo syncDirectoriesInfo, SyncFileOptions options,
+                                TargetStorage targetStorage, boolean localTarget, ChecksumManifest checksumManifest) {
+        validate(options, localTarget);
+        this.sourceDirPath = Path.of(syncDirectoriesInfo.sourceDirPath()).toAbsolutePath().normalize();
+        this.options = options;
+        this.targetStorage = targetStorage;
+        IoThrottle ioThrottle = options.ioThrottle();
+        Path objectsDir = Path.of(syncDirectoriesInfo.targetDirPath(), OBJECTS_DIR_NAME);
+        TargetStorage versionTargetStorage = options.versionStore()
+                ? new ContentAddressableStorage(objectsDir, ioThrottle)
+                : targetStorage;
+        TargetStorage compressedOrLinkedTargetStorage = options.compress()
+                ? new CompressingTargetStorage(options.compressionLevel(), ioThrottle)
+                : withHardLinks(syncDirectoriesInfo, targetStorage);
+        // A two-way synchronization has to synchronize modifications, which tail sync does with a copy or an append
+        this.tailSyncIndex = options.tailSync() || options.bidirectional() ? new TailSyncIndex() : null;
+        this.syncPathFilter = SyncPathFilter.from(syncDirectoriesInfo);
+        // Bulk directory copies bypass the checks of a two-way synchronization, and walk the local target directory
+        this.directoryExecutor = options.targetLayout() == TargetLayout.MIRRORED && !options.bidirectional()
+                && localTarget
+                ? newExecutor("directory-sync-", Math.max(1, options.parallelCopyThreads()))
+                : null;
+        this.groupCommitter = options.durabilityMode() == DurabilityMode.GROUP_COMMIT
+                ? new GroupCommitter(options.groupCommitIntervalMillis(), options.groupCommitMaxFiles())
+                : null;
+        this.textTargetStorage = withDurability(
+                new ThrottledTargetStorage(compressedOrLinkedTargetStorage, ioThrottle));
+        // Versions keep the content they were copied with, so they are never linked to the live source file
+        this.versionedTargetStorage = withDurability(new ThrottledTargetStorage(versionTargetStorage, ioThrottle));
+        this.integrityScrubber = checksumManifest != null
+                ? new IntegrityScrubber(checksumManifest,
+                        withDurability(new ThrottledTargetStorage(targetStorage, ioThrottle)),
+                        new IoThrottle(options.scrubBytesPerSecond(), 0))
+                : null;
+        if (integrityScrubber != null) {
+            integrityScrubber.start(options.scrubIntervalMillis());
+        }
+    }
+
+    private TargetStorage withDurability(TargetStorage targetStorage) {
+        if (options.durabilityMode() == DurabilityMode.NONE) {
+            return targetStorage;
+        }
+        return new DurableTargetStorage(targetStorage, groupCommitter);
+    }
+
+    private static TargetStorage createTargetStorage(SyncDirectoriesInfo syncDirectoriesInfo, SyncFileOptions options,
+                                                     ChecksumManifest checksumManifest) {
+        if (options.remoteTarget() != null) {
+            return new RemoteTargetStorage(options.remoteTarget(), Path.of(syncDirectoriesInfo.targetDirPath()),
+                    options.ioThrottle());
+        }
+        return withParallelRanges(new LocalTargetStorage(options.ioThrottle(), checksumManifest), options);
+    }
+
+    private static void validate(SyncFileOptions options, boolean localTarget) {
+        // Target files of a two-way synchronization are modified in place, so they cannot be linked to their source
+        if (options.bidirectional() && (options.targetLayout() != TargetLayout.MIRRORED || options.compress()
+                || options.versionStore() || options.hardLink())) {
+            throw new IllegalArgumentException("Two-way synchronization requires the mirrored layout, without "
+                    + "compression, version store or hard links");
+        }
+        // Ranges are copied to a temporary file next to the target file, which the opposite direction would synchronize
+        if (options.bidirectional() && options.parallelCopyThreshold() > 0) {
+            throw new IllegalArgumentException("Two-way synchronization does not support parallel range copies");
+        }
+        if (!localTarget && (options.compress() || options.versionStore() || options.hardLink()
+                || options.bidirectional() || options.durabilityMode() != DurabilityMode.NONE
+                || options.scrubIntervalMillis() > 0)) {
+            throw new IllegalArgumentException("A remote or custom target storage does not support compression, "
+                    + "version store, hard links, two-way synchronization, durability modes or scrubbing");
+        }
+    }
+
+    private static TargetStorage withParallelRanges(TargetStorage targetStorage, SyncFileOptions options) {
+        if (options.parallelCopyThreshold() <= 0) {
+            return targetStorage;
+        }
+        int threads = Math.max(1, options.parallelCopyThreads());
+        // The executor is shut down by the storage, closed with this factory
+        return new ParallelRangeTargetStorage(targetStorage, options.parallelCopyThreshold(), threads,
+                newExecutor("range-copy-", threads), options.ioThrottle());
+    }
+
+    private static ExecutorService newExecutor(String threadNamePrefix, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private TargetStorage withHardLinks(SyncDirectoriesInfo syncDirectoriesInfo, TargetStorage targetStorage) {
+        if (!options.hardLink()) {
+            return targetStorage;
+        }
+        return new HardLinkTargetStorage(sourceDirPath, Path.of(syncDirectoriesInfo.targetDirPath()), targetStorage);
+    }
+
     @Override
     public SyncFile create(Path path) {
         File file = path.toFile();
         String extension = FilenameUtils.getExtension(file.getAbsolutePath());
+        String relativeDirPath = getRelativeDirPath(path);
         return switch (extension) {
-            case "txt" -> new TextFile(file);
-            default -> new DefaultFile(file, LocalDateTime::now);
+            case "txt" -> new TextFile(file, relativeDirPath, textTargetStorage, tailSyncIndex);
+            // Copied under their own name, like text files, so they can be synchronized back
+            default -> options.bidirectional()
+                    ? new TextFile(file, relativeDirPath, textTargetStorage, tailSyncIndex)
+                    : new DefaultFile(file, relativeDirPath, LocalDateTime::now, versionedTargetStorage);
         };
     }
+
+    @Override
+    public boolean mirrorsDirectories() {
+        return directoryExecutor != null;
+    }
+
+    @Override
+    public SyncDirectory createDirectory(Path path) {
+        if (!mirrorsDirectories()) {
+            throw new IllegalStateException("Directories are not mirrored on the target directory");
+        }
+        String relativeDirPath = sourceDirPath.relativize(path.toAbsolutePath().normalize()).toString();
+        return new MirroredDirectory(path, relativeDirPath, this, versionedTargetStorage, tailSyncIndex,
+                syncPathFilter, directoryExecutor);
+    }
+
+    @Override
+    public void setRepairScheduler(RepairScheduler repairScheduler) {
+        if (integrityScrubber != null) {
+            integrityScrubber.setRepairScheduler(repairScheduler);
+        }
+        if (groupCommitter != null) {
+            groupCommitter.setRepairScheduler(repairScheduler);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (directoryExecutor != null) {
+            directoryExecutor.shutdown();
+        }
+        if (integrityScrubber != null) {
+            integrityScrubber.close();
+        }
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+        if (targetStorage instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn("Failed to close target storage", e);
+            }
+        }
+    }
+
+    private String getRelativeDirPath(Path path) {
+        if (options.targetLayout() != TargetLayout.MIRRORED || sourceDirPath == null) {
+            return "";
+        }
+        Path parent = path.toAbsolutePath().normalize().getParent();
+        if (parent == null || !parent.startsWith(sourceDirPath)) {
+            return "";
+        }
+        return sourceDirPath.relativize(parent).toString();
+    }
 }
@@ -0,0 +1,119 @@
+package org.dirsync.model.file;
+
+import lombok.Builder;
+import org.dirsync.util.RetryScheduler.RetryPolicy;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Options controlling how {@link SyncFile}s are written to the target directory.
+ * @param targetLayout     where files are placed under the target directory
+ * @param versionStore     whether timestamped copies of non-text files are stored once per distinct content and
+ *                         exposed as hard links, see {@link ContentAddressableStorage}
+ * @param hardLink         whether the target files of text files are hard links to their source file when both
+ *                         directories share a file store, see {@link HardLinkTargetStorage}. Text files are not
+ *                         linked when compressed. Timestamped copies are never linked, an in-place modification of
+ *                         the source file would rewrite them
+ * @param compress         whether text files are compressed on the target, see {@link CompressingTargetStorage}
+ * @param compressionLevel the {@link Deflater} level text files are compressed with
+ * @param ioThrottle       limits the bytes written to and the operations performed on the target directory, can be
+ *                         adjusted while synchronizing
+ * @param parallelCopyThreshold the size in bytes from which files are copied as parallel ranges, or 0 to copy every
+ *                              file on a single thread, see {@link ParallelRangeTargetStorage}
+ * @param parallelCopyThreads   the number of threads copying the ranges of large files
+ * @param durabilityMode        when target files are forced to disk
+ * @param groupCommitIntervalMillis the maximum time a copied file waits to be forced to disk with
+ *                                  {@link DurabilityMode#GROUP_COMMIT}
+ * @param groupCommitMaxFiles       the number of copied files that are forced to disk together at most with
+ *                                  {@link DurabilityMode#GROUP_COMMIT}
+ * @param tailSync         whether modified text files that only grew are synchronized by appending the new bytes to
+ *                         the target file, see {@link TailSyncIndex}. Otherwise modifications are ignored
+ * @param bidirectional    whether all files keep their name on the target, so the target directory can be
+ *                         synchronized back to the source directory. Requires the mirrored layout, without
+ *                         compression, version store, hard links or parallel range copies
+ * @param remoteTarget     the address of a {@link org.dirsync.remote.RemoteTargetReceiver} files are replicated to
+ *                         instead of the local target directory, or null. Paths on the receiver are relative to the
+ *                         target directory. Requires no compression, version store, hard links or durability mode,
+ *                         which work on the local target directory
+ * @param scrubIntervalMillis the delay between two verifications of the target files against their checksums, or 0
+ *                            to not verify them, see {@link IntegrityScrubber}. Requires a local target directory.
+ *                            Files are then copied through a buffer instead of being transferred by the kernel, to
+ *                            compute their checksum as they are copied, and the checksums are kept in a
+ *                            {@code .dirsync-checksums} file next to the target directory
+ * @param scrubBytesPerSecond the rate the verification reads target files at
+ * @param retryPolicy      how failed copies, moves and deletions are retried, including the backoff multiplier and
+ *                         jitter between attempts
+ */
+@Builder(toBuilder = true)
+public record SyncFileOptions(TargetLayout targetLayout, boolean versionStore, boolean hardLink,
+                              boolean compress, int compressionLevel, IoThrottle ioThrottle,
+                              long parallelCopyThreshold, int parallelCopyThreads,
+                              DurabilityMode durabilityMode, long groupCommitIntervalMillis,
+                              int groupCommitMaxFiles, boolean tailSync, boolean bidirectional,
+                              InetSocketAddress remoteTarget, long scrubIntervalMillis,
+                              long scrubBytesPerSecond, RetryPolicy retryPolicy) {
+
+    private static final long DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS = 100;
+    private static final int DEFAULT_GROUP_COMMIT_MAX_FILES = 1000;
+    private static final long DEFAULT_SCRUB_BYTES_PER_SECOND = 8 * 1024 * 1024;
+
+    public static SyncFileOptions defaults() {
+        return SyncFileOptions.builder()
+                .targetLayout(TargetLayout.FLAT)
+                .compressionLevel(Deflater.DEFAULT_COMPRESSION)
+                .ioThrottle(IoThrottle.unlimited())
+                .parallelCopyThreads(Runtime.getRuntime().availableProcessors())
+                .durabilityMode(DurabilityMode.NONE)
+                .groupCommitIntervalMillis(DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS)
+                .groupCommitMaxFiles(DEFAULT_GROUP_COMMIT_MAX_FILES)
+                .scrubBytesPerSecond(DEFAULT_SCRUB_BYTES_PER_SECOND)
+                .retryPolicy(RetryPolicy.defaults())
+                .build();
+    }
+
+    public static SyncFileOptions fromSystemProperties() {
+        return SyncFileOptions.builder()
+                .targetLayout(TargetLayout.valueOf(
+                        System.getProperty("dir.sync.target.layout", "flat").toUpperCase(Locale.ROOT)))
+                .versionStore(Boolean.getBoolean("dir.sync.version.store"))
+                .hardLink(Boolean.getBoolean("dir.sync.hard.link"))
+                .compress(Boolean.getBoolean("dir.sync.compress"))
+                .compressionLevel(Integer.getInteger("dir.sync.compression.level", Deflater.DEFAULT_COMPRESSION))
+                .ioThrottle(new IoThrottle(
+                        Long.getLong("dir.sync.throttle.bytes.per.second", 0),
+                        Long.getLong("dir.sync.throttle.ops.per.second", 0)))
+                .parallelCopyThreshold(Long.getLong("dir.sync.parallel.copy.threshold.bytes", 0))
+                .parallelCopyThreads(Integer.getInteger("dir.sync.parallel.copy.threads",
+                        Runtime.getRuntime().availableProcessors()))
+                .durabilityMode(DurabilityMode.valueOf(
+                        System.getProperty("dir.sync.durability", "none").toUpperCase(Locale.ROOT)))
+                .groupCommitIntervalMillis(Long.getLong("dir.sync.group.commit.interval.millis",
+                        DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS))
+                .groupCommitMaxFiles(Integer.getInteger("dir.sync.group.commit.max.files",
+                        DEFAULT_GROUP_COMMIT_MAX_FILES))
+                .tailSync(Boolean.getBoolean("dir.sync.tail.sync"))
+                .bidirectional(Boolean.getBoolean("dir.sync.bidirectional"))
+                .remoteTarget(parseAddress(System.getProperty("dir.sync.remote.target")))
+                .scrubIntervalMillis(Long.getLong("dir.sync.scrub.interval.millis", 0))
+                .scrubBytesPerSecond(Long.getLong("dir.sync.scrub.bytes.per.second", DEFAULT_SCRUB_BYTES_PER_SECOND))
+                .retryPolicy(RetryPolicy.fromSystemProperties())
+                .build();
+    }
+
+    /**
+     * @param address host:port, or null
+     */
+    private static InetSocketAddress parseAddress(String address) {
+        if (address == null || address.isBlank()) {
+            return null;
+        }
+        int separator = address.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected host:port but got: " + address);
+        }
+        String host = address.substring(0, separator);
+        return new InetSocketAddress(host, Integer.parseInt(address.substring(separator + 1)));
+    }
+}
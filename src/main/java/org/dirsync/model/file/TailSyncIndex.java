@@ -0,0 +1,76 @@
+package org.dirsync.model.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Remembers the length of each synchronized file and a checksum of its last synchronized block, so a file that only
+ * grew by appending can be detected by reading a single block of the source file instead of comparing it with the
+ * target file.
+ */
+class TailSyncIndex {
+
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * @param length            the length of the source file that was synchronized
+     * @param lastBlockChecksum the CRC32C checksum of the block ending at that length
+     */
+    record SyncedTail(long length, long lastBlockChecksum) {
+    }
+
+    private final Map<Path, SyncedTail> syncedTails = new ConcurrentHashMap<>();
+
+    SyncedTail get(Path target) {
+        return syncedTails.get(target);
+    }
+
+    /**
+     * Record that a source file was synchronized to the target file up to the given length
+     */
+    void record(Path source, long length, Path target) throws IOException {
+        syncedTails.put(target, new SyncedTail(length, checksumOfBlockBefore(source, length)));
+    }
+
+    void remove(Path target) {
+        syncedTails.remove(target);
+    }
+
+    void move(Path target, Path destination) {
+        SyncedTail syncedTail = syncedTails.remove(target);
+        if (syncedTail != null) {
+            syncedTails.put(destination, syncedTail);
+        }
+    }
+
+    /**
+     * @return whether the source file still starts with what was synchronized, judged by its last synchronized block
+     */
+    static boolean isAppendedTo(Path source, long sourceLength, SyncedTail syncedTail) throws IOException {
+        return sourceLength >= syncedTail.length()
+                && checksumOfBlockBefore(source, syncedTail.length()) == syncedTail.lastBlockChecksum();
+    }
+
+    private static long checksumOfBlockBefore(Path file, long end) throws IOException {
+        long start = Math.max(0, end - BLOCK_SIZE);
+        ByteBuffer block = ByteBuffer.allocate((int) (end - start));
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            while (block.hasRemaining()) {
+                if (channel.read(block, start + block.position()) < 0) {
+                    // The file is shorter than the synchronized length, so it was not appended to
+                    return -1;
+                }
+            }
+        }
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(block.flip());
+        return crc32c.getValue();
+    }
+}
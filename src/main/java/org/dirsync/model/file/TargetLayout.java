@@ -0,0 +1,17 @@
+package org.dirsync.model.file;
+
+/**
+ * Determines where a source file is placed under the target directory.
+ */
+public enum TargetLayout {
+
+    /**
+     * Every file is placed directly under the target directory, regardless of its source sub-directory.
+     */
+    FLAT,
+
+    /**
+     * Files are placed under the same relative sub-directory they have under the source directory.
+     */
+    MIRRORED
+}
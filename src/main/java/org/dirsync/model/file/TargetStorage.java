@@ -0,0 +1,87 @@
+package org.dirsync.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes synchronized files to the target directory.
+ */
+public interface TargetStorage {
+
+    /**
+     * Copy the source file to the target file, replacing the target file if it already exists
+     * @param source the file in the source directory
+     * @param target the file in the target directory
+     * @throws IOException if the copy fails
+     */
+    void copy(File source, File target) throws IOException;
+
+    /**
+     * Append the bytes a source file gained since it was copied to the end of its target file. Storages that cannot
+     * append copy the whole source file instead.
+     * @param source the file in the source directory
+     * @param offset the length of the source file when it was last copied
+     * @param length the length of the source file to copy up to
+     * @param target the file in the target directory, holding a copy of the source file up to the offset
+     * @throws IOException if the append fails
+     */
+    default void append(File source, long offset, long length, File target) throws IOException {
+        copy(source, target);
+    }
+
+    /**
+     * Delete a file from the target directory
+     * @param target the file in the target directory
+     * @throws IOException if the deletion fails
+     */
+    default void delete(File target) throws IOException {
+        Files.delete(target.toPath());
+    }
+
+    /**
+     * Move a file within the target directory, replacing the destination file if it already exists
+     * @param target      the file in the target directory
+     * @param destination the file it is moved to
+     * @throws IOException if the move fails
+     */
+    default void move(File target, File destination) throws IOException {
+        Files.createDirectories(destination.toPath().getParent());
+        Files.move(target.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param target the file in the target directory
+     * @return whether the file exists in the target directory
+     * @throws IOException if the existence of the file cannot be determined
+     */
+    default boolean exists(File target) throws IOException {
+        return target.exists();
+    }
+
+    /**
+     * List the names of the files and sub-directories of a directory in the target directory
+     * @param directory the directory in the target directory
+     * @return the names of its entries, empty if the directory does not exist
+     * @throws IOException if the directory cannot be listed
+     */
+    default List<String> list(File directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory.toPath())) {
+            return entries.map(entry -> entry.getFileName().toString()).toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * @return the suffix appended to target file names by this storage, e.g. to mark an encoding
+     */
+    default String getTargetFileSuffix() {
+        return "";
+    }
+}
@@ -5,26 +5,98 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 
 @Slf4j
 class TextFile extends DefaultFile {
 
+    private final TailSyncIndex tailSyncIndex;
+
     TextFile(File file) {
-        super(file);
+        this(file, "", new LocalTargetStorage());
+    }
+
+    TextFile(File file, String relativeDirPath, TargetStorage targetStorage) {
+        this(file, relativeDirPath, targetStorage, null);
+    }
+
+    /**
+     * @param tailSyncIndex the synchronized length of text files, to append the bytes they grew by to the target file
+     *                      instead of copying them again, or null to ignore modifications
+     */
+    TextFile(File file, String relativeDirPath, TargetStorage targetStorage, TailSyncIndex tailSyncIndex) {
+        super(file, relativeDirPath, LocalDateTime::now, targetStorage);
+        this.tailSyncIndex = tailSyncIndex;
+    }
+
+    @Override
+    public void copy(String targetDirPath) throws IOException {
+        if (tailSyncIndex == null) {
+            super.copy(targetDirPath);
+            return;
+        }
+        long length = Files.size(file.toPath());
+        File targetFile = getTargetFile(targetDirPath);
+        targetStorage.copy(file, targetFile);
+        tailSyncIndex.record(file.toPath(), length, targetFile.toPath());
+    }
+
+    @Override
+    public void update(String targetDirPath) throws IOException {
+        if (tailSyncIndex == null) {
+            super.update(targetDirPath);
+            return;
+        }
+        Path source = file.toPath();
+        long length = Files.size(source);
+        File targetFile = getTargetFile(targetDirPath);
+        TailSyncIndex.SyncedTail syncedTail = tailSyncIndex.get(targetFile.toPath());
+        if (syncedTail == null || !targetStorage.exists(targetFile)
+                || !TailSyncIndex.isAppendedTo(source, length, syncedTail)) {
+            log.debug("File: {} was not appended to, copying it", file);
+            targetStorage.copy(file, targetFile);
+        } else if (length > syncedTail.length()) {
+            log.debug("Appending {} bytes of file: {}", length - syncedTail.length(), file);
+            targetStorage.append(file, syncedTail.length(), length, targetFile);
+        } else {
+            return;
+        }
+        tailSyncIndex.record(source, length, targetFile.toPath());
     }
 
     @Override
     public void delete(String targetDirPath) throws IOException {
-        File targetFile = new File(targetDirPath + File.separator + file.getName());
-        if (!targetFile.exists()) {
-            log.warn("File for deletion: {} not found in target directory: {}", file.getName(), targetDirPath);
+        File targetFile = getTargetFile(targetDirPath);
+        if (!targetStorage.exists(targetFile)) {
+            log.warn("File for deletion: {} not found in target directory: {}", file.getName(), getTargetDir(targetDirPath));
             return;
         }
-        Files.delete(targetFile.toPath());
+        targetStorage.delete(targetFile);
+        if (tailSyncIndex != null) {
+            tailSyncIndex.remove(targetFile.toPath());
+        }
+    }
+
+    @Override
+    public boolean rename(SyncFile renamed, String targetDirPath) throws IOException {
+        if (!super.rename(renamed, targetDirPath)) {
+            return false;
+        }
+        if (tailSyncIndex != null) {
+            tailSyncIndex.move(getTargetFile(targetDirPath).toPath(), renamed.getTargetFile(targetDirPath).toPath());
+        }
+        return true;
+    }
+
+    @Override
+    protected File findExistingTargetFile(String targetDirPath) throws IOException {
+        File targetFile = getTargetFile(targetDirPath);
+        return targetStorage.exists(targetFile) ? targetFile : null;
     }
 
     @Override
     public File getTargetFile(String targetDirPath) {
-        return new File(targetDirPath + File.separator + file.getName());
+        return new File(getTargetDir(targetDirPath), file.getName() + targetStorage.getTargetFileSuffix());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package org.dirsync.model.file;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+class ThrottledOutputStream extends FilterOutputStream {
+
+    private final IoThrottle ioThrottle;
+
+    ThrottledOutputStream(OutputStream out, IoThrottle ioThrottle) {
+        super(out);
+        this.ioThrottle = ioThrottle;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ioThrottle.acquireBytes(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ioThrottle.acquireBytes(len);
+        out.write(b, off, len);
+    }
+}
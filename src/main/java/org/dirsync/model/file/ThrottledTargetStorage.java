@@ -0,0 +1,59 @@
+package org.dirsync.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Limits the rate of copy and delete operations on the target directory. The bytes written by a copy are limited by
+ * the storage doing the copy.
+ */
+class ThrottledTargetStorage implements TargetStorage {
+
+    private final TargetStorage delegate;
+    private final IoThrottle ioThrottle;
+
+    ThrottledTargetStorage(TargetStorage delegate, IoThrottle ioThrottle) {
+        this.delegate = delegate;
+        this.ioThrottle = ioThrottle;
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        ioThrottle.acquireOperation();
+        delegate.copy(source, target);
+    }
+
+    @Override
+    public void append(File source, long offset, long length, File target) throws IOException {
+        ioThrottle.acquireOperation();
+        delegate.append(source, offset, length, target);
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        ioThrottle.acquireOperation();
+        delegate.delete(target);
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        ioThrottle.acquireOperation();
+        delegate.move(target, destination);
+    }
+
+    @Override
+    public boolean exists(File target) throws IOException {
+        return delegate.exists(target);
+    }
+
+    @Override
+    public List<String> list(File directory) throws IOException {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public String getTargetFileSuffix() {
+        return delegate.getTargetFileSuffix();
+    }
+}
@@ -0,0 +1,87 @@
+package org.dirsync.remote;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol between a {@link RemoteTargetStorage} and a {@link RemoteTargetReceiver}. All numbers are big
+ * endian and strings are UTF-8 prefixed by their unsigned short length.
+ * <p>
+ * A request is {@code op:byte id:long path:string} followed by the operands of the operation:
+ * <ul>
+ *     <li>{@link #OP_COPY}: {@code lastModifiedMillis:long length:long} and the file body</li>
+ *     <li>{@link #OP_MOVE}: {@code destination:string}</li>
+ *     <li>{@link #OP_DELETE}, {@link #OP_EXISTS}, {@link #OP_LIST}: none</li>
+ * </ul>
+ * A response is {@code id:long status:byte length:int} followed by a payload of that length: a UTF-8 message for
+ * {@link #STATUS_ERROR}, a boolean byte for {@link #OP_EXISTS} and {@code count:int} names for {@link #OP_LIST}.
+ * Requests are pipelined, the sender does not wait for a response before sending the next request, and responses
+ * are matched to requests by their id.
+ */
+@UtilityClass
+class RemoteProtocol {
+
+    static final byte OP_COPY = 1;
+    static final byte OP_DELETE = 2;
+    static final byte OP_MOVE = 3;
+    static final byte OP_EXISTS = 4;
+    static final byte OP_LIST = 5;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_ERROR = 2;
+
+    static final int RESPONSE_HEADER_SIZE = Long.BYTES + Byte.BYTES + Integer.BYTES;
+    static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    static byte[] encode(String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IOException("String too long for the protocol: " + string);
+        }
+        return bytes;
+    }
+
+    static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read from the channel until the buffer holds at least the given number of bytes after its position
+     * @throws EOFException if the channel is closed before
+     */
+    static void fill(ReadableByteChannel channel, ByteBuffer buffer, int numBytes) throws IOException {
+        if (buffer.remaining() >= numBytes) {
+            return;
+        }
+        if (buffer.capacity() < numBytes) {
+            throw new IOException("Frame of " + numBytes + " bytes exceeds the buffer size: " + buffer.capacity());
+        }
+        buffer.compact();
+        while (buffer.position() < numBytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+        buffer.flip();
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package org.dirsync.remote;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.dirsync.remote.RemoteProtocol.OP_COPY;
+import static org.dirsync.remote.RemoteProtocol.OP_DELETE;
+import static org.dirsync.remote.RemoteProtocol.OP_EXISTS;
+import static org.dirsync.remote.RemoteProtocol.OP_LIST;
+import static org.dirsync.remote.RemoteProtocol.OP_MOVE;
+import static org.dirsync.remote.RemoteProtocol.RESPONSE_HEADER_SIZE;
+import static org.dirsync.remote.RemoteProtocol.STATUS_ERROR;
+import static org.dirsync.remote.RemoteProtocol.STATUS_NOT_FOUND;
+import static org.dirsync.remote.RemoteProtocol.STATUS_OK;
+
+/**
+ * Receives the files synchronized by {@link RemoteTargetStorage}s into a local directory, see {@link RemoteProtocol}.
+ * <p>
+ * Every connection is served by its own thread, which handles the pipelined requests in order and writes their
+ * responses in batches, sent whenever it waits for more requests. File bodies are received with
+ * {@link FileChannel#transferFrom} into a temporary file, moved over the target file once complete. Connections are
+ * not authenticated, the receiver is meant to listen on a trusted network only.
+ */
+@Slf4j
+public class RemoteTargetReceiver implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int DEFAULT_PORT = 7420;
+
+    private final Path rootDir;
+    private final ServerSocketChannel serverChannel;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * @param rootDir the directory the received files are written to
+     * @param address the address to listen on, port 0 for any free port
+     */
+    public RemoteTargetReceiver(Path rootDir, InetSocketAddress address) throws IOException {
+        this.rootDir = rootDir.toAbsolutePath().normalize();
+        Files.createDirectories(this.rootDir);
+        this.serverChannel = ServerSocketChannel.open().bind(address);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path rootDir = Path.of(System.getProperty("dir.sync.receiver.dir", "."));
+        InetSocketAddress address = new InetSocketAddress(System.getProperty("dir.sync.receiver.host", "0.0.0.0"),
+                Integer.getInteger("dir.sync.receiver.port", DEFAULT_PORT));
+        try (RemoteTargetReceiver receiver = new RemoteTargetReceiver(rootDir, address)) {
+            receiver.run();
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accept connections on a background thread until closed
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::run, "remote-receiver-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accept connections on the calling thread until closed
+     */
+    public void run() {
+        log.info("Receiving files into: {} on: {}", rootDir, serverChannel.socket().getLocalSocketAddress());
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.add(channel);
+                if (!serverChannel.isOpen()) {
+                    // Accepted while closing, after the open connections were closed
+                    channel.close();
+                    return;
+                }
+                Thread connectionThread = new Thread(() -> serve(channel),
+                        "remote-receiver-" + threadNumber.incrementAndGet());
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                log.error("Failed to accept connection", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SocketChannel channel : connections) {
+            channel.close();
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            log.info("Accepted connection from: {}", channel.getRemoteAddress());
+            new ConnectionHandler(channel).run();
+        } catch (EOFException | AsynchronousCloseException e) {
+            log.debug("Connection closed", e);
+        } catch (IOException e) {
+            log.warn("Connection failed", e);
+        } finally {
+            connections.remove(channel);
+        }
+    }
+
+    private Path resolve(String path) throws IOException {
+        Path resolved = rootDir.resolve(path).normalize();
+        if (!resolved.startsWith(rootDir)) {
+            throw new IOException("Path: " + path + " is outside of the target directory");
+        }
+        return resolved;
+    }
+
+    /**
+     * Handles the requests of a single connection
+     */
+    private class ConnectionHandler {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE).flip();
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ConnectionHandler(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void run() throws IOException {
+            while (true) {
+                fill(Byte.BYTES + Long.BYTES);
+                byte op = in.get();
+                long id = in.getLong();
+                String path = readString();
+                switch (op) {
+                    case OP_COPY -> {
+                        fill(2 * Long.BYTES);
+                        receiveFile(id, path, in.getLong(), in.getLong());
+                    }
+                    case OP_DELETE -> delete(id, path);
+                    case OP_MOVE -> move(id, path, readString());
+                    case OP_EXISTS -> exists(id, path);
+                    case OP_LIST -> list(id, path);
+                    default -> throw new IOException("Unknown operation: " + op);
+                }
+            }
+        }
+
+        private void receiveFile(long id, String path, long lastModifiedMillis, long length) throws IOException {
+            Path target;
+            Path tempFile;
+            FileChannel file;
+            try {
+                target = resolve(path);
+                Files.createDirectories(target.getParent());
+                tempFile = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+                file = FileChannel.open(tempFile, WRITE, CREATE_NEW);
+            } catch (IOException e) {
+                skip(length);
+                respondError(id, e);
+                return;
+            }
+            try {
+                try (file) {
+                    receiveBody(file, length);
+                }
+                Files.setLastModifiedTime(tempFile, FileTime.fromMillis(lastModifiedMillis));
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+                respond(id, STATUS_OK, ByteBuffer.allocate(0));
+            } catch (IOException e) {
+                if (!channel.isOpen()) {
+                    throw e;
+                }
+                respondError(id, e);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        /**
+         * Write the body of a file from the connection to the file. The connection is closed if this fails, as the
+         * number of body bytes read from it is then unknown
+         */
+        private void receiveBody(FileChannel file, long length) throws IOException {
+            try {
+                int numBuffered = (int) Math.min(in.remaining(), length);
+                ByteBuffer buffered = in.slice(in.position(), numBuffered);
+                long position = 0;
+                while (buffered.hasRemaining()) {
+                    position += file.write(buffered, position);
+                }
+                in.position(in.position() + numBuffered);
+                if (position < length) {
+                    flushResponses();
+                }
+                while (position < length) {
+                    long transferred = file.transferFrom(channel, position, length - position);
+                    if (transferred <= 0) {
+                        throw new EOFException("Connection closed while receiving a file");
+                    }
+                    position += transferred;
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void delete(long id, String path) throws IOException {
+            try {
+                Files.delete(resolve(path));
+                respond(id, STATUS_OK, ByteBuffer.allocate(0));
+            } catch (NoSuchFileException e) {
+                respond(id, STATUS_NOT_FOUND, ByteBuffer.allocate(0));
+            } catch (IOException e) {
+                respondError(id, e);
+            }
+        }
+
+        private void move(long id, String path, String destinationPath) throws IOException {
+            try {
+                Path destination = resolve(destinationPath);
+                Files.createDirectories(destination.getParent());
+                Files.move(resolve(path), destination, StandardCopyOption.REPLACE_EXISTING);
+                respond(id, STATUS_OK, ByteBuffer.allocate(0));
+            } catch (NoSuchFileException e) {
+                respond(id, STATUS_NOT_FOUND, ByteBuffer.allocate(0));
+            } catch (IOException e) {
+                respondError(id, e);
+            }
+        }
+
+        private void exists(long id, String path) throws IOException {
+            try {
+                boolean exists = Files.exists(resolve(path));
+                respond(id, STATUS_OK, ByteBuffer.allocate(1).put(0, (byte) (exists ? 1 : 0)));
+            } catch (IOException e) {
+                respondError(id, e);
+            }
+        }
+
+        private void list(long id, String path) throws IOException {
+            List<byte[]> names;
+            try (Stream<Path> entries = Files.list(resolve(path))) {
+                names = entries.map(entry -> entry.getFileName().toString().getBytes(StandardCharsets.UTF_8))
+                        .toList();
+            } catch (NoSuchFileException e) {
+                respond(id, STATUS_NOT_FOUND, ByteBuffer.allocate(0));
+                return;
+            } catch (IOException e) {
+                respondError(id, e);
+                return;
+            }
+            int size = Integer.BYTES + names.stream().mapToInt(name -> Short.BYTES + name.length).sum();
+            ByteBuffer payload = ByteBuffer.allocate(size).putInt(names.size());
+            names.forEach(name -> RemoteProtocol.putString(payload, name));
+            respond(id, STATUS_OK, payload.flip());
+        }
+
+        private void respondError(long id, IOException e) throws IOException {
+            log.warn("Request: {} failed", id, e);
+            respond(id, STATUS_ERROR, StandardCharsets.UTF_8.encode(String.valueOf(e)));
+        }
+
+        private void respond(long id, byte status, ByteBuffer payload) throws IOException {
+            if (out.remaining() < RESPONSE_HEADER_SIZE + payload.remaining()) {
+                flushResponses();
+            }
+            out.putLong(id).put(status).putInt(payload.remaining());
+            if (out.remaining() >= payload.remaining()) {
+                out.put(payload);
+                return;
+            }
+            // A payload larger than the buffer is written on its own
+            flushResponses();
+            RemoteProtocol.writeFully(channel, payload);
+        }
+
+        private void flushResponses() throws IOException {
+            out.flip();
+            RemoteProtocol.writeFully(channel, out);
+            out.clear();
+        }
+
+        /**
+         * Make the given number of bytes available, sending the pending responses before waiting for them
+         */
+        private void fill(int numBytes) throws IOException {
+            if (in.remaining() < numBytes) {
+                flushResponses();
+                RemoteProtocol.fill(channel, in, numBytes);
+            }
+        }
+
+        private String readString() throws IOException {
+            fill(Short.BYTES);
+            int length = Short.toUnsignedInt(in.getShort(in.position()));
+            fill(Short.BYTES + length);
+            return RemoteProtocol.getString(in);
+        }
+
+        private void skip(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                fill(1);
+                int numSkipped = (int) Math.min(in.remaining(), remaining);
+                in.position(in.position() + numSkipped);
+                remaining -= numSkipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package org.dirsync.remote;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dirsync.model.file.IoThrottle;
+import org.dirsync.model.file.TargetStorage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.dirsync.remote.RemoteProtocol.OP_COPY;
+import static org.dirsync.remote.RemoteProtocol.OP_DELETE;
+import static org.dirsync.remote.RemoteProtocol.OP_EXISTS;
+import static org.dirsync.remote.RemoteProtocol.OP_LIST;
+import static org.dirsync.remote.RemoteProtocol.OP_MOVE;
+import static org.dirsync.remote.RemoteProtocol.RESPONSE_HEADER_SIZE;
+import static org.dirsync.remote.RemoteProtocol.STATUS_NOT_FOUND;
+import static org.dirsync.remote.RemoteProtocol.STATUS_OK;
+
+/**
+ * Writes synchronized files to a {@link RemoteTargetReceiver} over a single TCP connection, see
+ * {@link RemoteProtocol}.
+ * <p>
+ * Requests are pipelined: every synchronizing thread sends its request and waits for its own response, so the files
+ * of all threads are in flight at once. Small files are written into a shared batch, which is sent once no other
+ * thread is waiting to send, so concurrently synchronized small files share socket writes. Larger files are sent with
+ * {@link FileChannel#transferTo}, without copying their bytes through the heap, over a connection of their own, so a
+ * long transfer does not hold up the requests of the other threads. These connections are reused by the next large
+ * files.
+ * <p>
+ * Target files are sent by their path relative to the target directory. A failed connection fails the requests in
+ * flight and is opened again by the next request.
+ */
+@Slf4j
+public class RemoteTargetStorage implements TargetStorage, Closeable {
+
+    private static final int DEFAULT_BATCH_SIZE = 256 * 1024;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final int REQUEST_HEADER_SIZE = Byte.BYTES + Long.BYTES + Short.BYTES;
+
+    private final InetSocketAddress address;
+    private final Path targetDirPath;
+    private final IoThrottle ioThrottle;
+    private final Duration timeout;
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final ByteBuffer batch;
+    private final AtomicLong nextId = new AtomicLong();
+    private Connection connection;
+    private volatile boolean closed;
+    // Connections of large files, guarded by themselves
+    private final Set<Connection> bulkConnections = new HashSet<>();
+    private final Deque<Connection> idleBulkConnections = new ArrayDeque<>();
+
+    /**
+     * @param address       the address of the receiver
+     * @param targetDirPath the target directory the paths sent to the receiver are relative to
+     * @param ioThrottle    limits the bytes sent
+     */
+    public RemoteTargetStorage(InetSocketAddress address, Path targetDirPath, IoThrottle ioThrottle) {
+        this(address, targetDirPath, ioThrottle, DEFAULT_BATCH_SIZE, DEFAULT_TIMEOUT);
+    }
+
+    //VisibleForTesting
+    RemoteTargetStorage(InetSocketAddress address, Path targetDirPath, IoThrottle ioThrottle, int batchSize,
+                        Duration timeout) {
+        this.address = address;
+        this.targetDirPath = targetDirPath.toAbsolutePath().normalize();
+        this.ioThrottle = ioThrottle;
+        this.timeout = timeout;
+        this.batch = ByteBuffer.allocateDirect(batchSize);
+    }
+
+    @Override
+    public void copy(File source, File target) throws IOException {
+        byte[] path = RemoteProtocol.encode(toRemotePath(target));
+        try (FileChannel in = FileChannel.open(source.toPath(), READ)) {
+            long length = in.size();
+            long lastModifiedMillis = Files.getLastModifiedTime(source.toPath()).toMillis();
+            Response response = await(send(OP_COPY, path, 2 * Long.BYTES,
+                    operands -> operands.putLong(lastModifiedMillis).putLong(length), in, length), target);
+            checkStatus(response, target);
+        }
+    }
+
+    @Override
+    public void delete(File target) throws IOException {
+        Response response = await(send(OP_DELETE, RemoteProtocol.encode(toRemotePath(target))), target);
+        checkStatus(response, target);
+    }
+
+    @Override
+    public void move(File target, File destination) throws IOException {
+        byte[] destinationPath = RemoteProtocol.encode(toRemotePath(destination));
+        Response response = await(send(OP_MOVE, RemoteProtocol.encode(toRemotePath(target)),
+                Short.BYTES + destinationPath.length,
+                operands -> RemoteProtocol.putString(operands, destinationPath), null, 0), target);
+        checkStatus(response, target);
+    }
+
+    @Override
+    public boolean exists(File target) throws IOException {
+        Response response = await(send(OP_EXISTS, RemoteProtocol.encode(toRemotePath(target))), target);
+        checkStatus(response, target);
+        return response.payload().get() != 0;
+    }
+
+    @Override
+    public List<String> list(File directory) throws IOException {
+        Response response = await(send(OP_LIST, RemoteProtocol.encode(toRemotePath(directory))), directory);
+        if (response.status() == STATUS_NOT_FOUND) {
+            return List.of();
+        }
+        checkStatus(response, directory);
+        ByteBuffer payload = response.payload();
+        int numNames = payload.getInt();
+        List<String> names = new ArrayList<>(numNames);
+        for (int i = 0; i < numNames; i++) {
+            names.add(RemoteProtocol.getString(payload));
+        }
+        return names;
+    }
+
+    @Override
+    public void close() {
+        sendLock.lock();
+        try {
+            closed = true;
+            if (connection != null) {
+                connection.fail(new IOException("Remote target storage closed"));
+            }
+        } finally {
+            sendLock.unlock();
+        }
+        List<Connection> openBulkConnections;
+        synchronized (bulkConnections) {
+            openBulkConnections = List.copyOf(bulkConnections);
+            bulkConnections.clear();
+            idleBulkConnections.clear();
+        }
+        openBulkConnections.forEach(bulkConnection -> bulkConnection.fail(
+                new IOException("Remote target storage closed")));
+    }
+
+    private CompletableFuture<Response> send(byte op, byte[] path) throws IOException {
+        return send(op, path, 0, operands -> { }, null, 0);
+    }
+
+    /**
+     * Write a request to the batch, and send the batch unless another thread is waiting to add its own request
+     * @param body the file sent after the operands, or null
+     * @return the response to the request
+     */
+    private CompletableFuture<Response> send(byte op, byte[] path, int operandsSize, Consumer<ByteBuffer> operands,
+                                             FileChannel body, long bodyLength) throws IOException {
+        int headerSize = REQUEST_HEADER_SIZE + path.length + operandsSize;
+        boolean batched = headerSize + bodyLength <= batch.capacity();
+        if (body != null && !batched) {
+            return sendLarge(op, path, headerSize, operands, body, bodyLength);
+        }
+        ioThrottle.acquireBytes(bodyLength);
+        sendLock.lock();
+        Connection sendConnection = null;
+        try {
+            sendConnection = connect();
+            long id = nextId.incrementAndGet();
+            CompletableFuture<Response> response = sendConnection.register(id);
+            if (batch.remaining() < headerSize + bodyLength) {
+                flush(sendConnection);
+            }
+            int start = batch.position();
+            batch.put(op).putLong(id);
+            RemoteProtocol.putString(batch, path);
+            operands.accept(batch);
+            if (body == null) {
+                return response;
+            }
+            if (!readBody(body, bodyLength)) {
+                // Nothing of the request was sent yet, so it is dropped without failing the connection
+                batch.position(start);
+                sendConnection.unregister(id);
+                throw new EOFException("File was truncated while copying");
+            }
+            return response;
+        } catch (EOFException e) {
+            throw e;
+        } catch (IOException e) {
+            if (sendConnection != null) {
+                sendConnection.fail(e);
+            }
+            throw e;
+        } finally {
+            try {
+                if (sendConnection != null && !sendConnection.failed && !sendLock.hasQueuedThreads()) {
+                    flush(sendConnection);
+                }
+            } catch (IOException e) {
+                sendConnection.fail(e);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Send a request with a body larger than the batch on a connection of its own, returned to the idle connections
+     * once its response arrives
+     */
+    private CompletableFuture<Response> sendLarge(byte op, byte[] path, int headerSize, Consumer<ByteBuffer> operands,
+                                                  FileChannel body, long bodyLength) throws IOException {
+        Connection bulkConnection = takeBulkConnection();
+        long id = nextId.incrementAndGet();
+        CompletableFuture<Response> response = bulkConnection.register(id);
+        ByteBuffer header = ByteBuffer.allocate(headerSize).put(op).putLong(id);
+        RemoteProtocol.putString(header, path);
+        operands.accept(header);
+        try {
+            RemoteProtocol.writeFully(bulkConnection.channel, header.flip());
+            transferBody(bulkConnection, body, bodyLength);
+        } catch (IOException e) {
+            bulkConnection.fail(e);
+            releaseBulkConnection(bulkConnection);
+            throw e;
+        }
+        response.whenComplete((ignored, e) -> releaseBulkConnection(bulkConnection));
+        return response;
+    }
+
+    private Connection takeBulkConnection() throws IOException {
+        synchronized (bulkConnections) {
+            if (closed) {
+                throw new IOException("Remote target storage closed");
+            }
+            Connection idle;
+            while ((idle = idleBulkConnections.poll()) != null) {
+                if (!idle.failed) {
+                    return idle;
+                }
+                bulkConnections.remove(idle);
+            }
+        }
+        Connection bulkConnection = new Connection();
+        synchronized (bulkConnections) {
+            if (!closed) {
+                bulkConnections.add(bulkConnection);
+                return bulkConnection;
+            }
+        }
+        bulkConnection.fail(new IOException("Remote target storage closed"));
+        throw new IOException("Remote target storage closed");
+    }
+
+    private void releaseBulkConnection(Connection bulkConnection) {
+        synchronized (bulkConnections) {
+            if (!bulkConnection.failed && !closed) {
+                idleBulkConnections.push(bulkConnection);
+                return;
+            }
+            bulkConnections.remove(bulkConnection);
+        }
+        bulkConnection.fail(new IOException("Remote target storage closed"));
+    }
+
+    private Connection connect() throws IOException {
+        if (closed) {
+            throw new IOException("Remote target storage closed");
+        }
+        if (connection == null || connection.failed) {
+            // Requests of a failed connection left in the batch were already failed
+            batch.clear();
+            connection = new Connection();
+        }
+        return connection;
+    }
+
+    private boolean readBody(FileChannel body, long bodyLength) throws IOException {
+        ByteBuffer bodyBuffer = batch.slice(batch.position(), (int) bodyLength);
+        long position = 0;
+        while (bodyBuffer.hasRemaining()) {
+            int read = body.read(bodyBuffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        batch.position(batch.position() + (int) bodyLength);
+        return true;
+    }
+
+    private void transferBody(Connection sendConnection, FileChannel body, long bodyLength) throws IOException {
+        long position = 0;
+        while (position < bodyLength) {
+            long count = Math.min(CHUNK_SIZE, bodyLength - position);
+            ioThrottle.acquireBytes(count);
+            long transferred = body.transferTo(position, count, sendConnection.channel);
+            if (transferred <= 0) {
+                // The length of the body was already sent, the connection cannot be used anymore
+                throw new IOException("File was truncated while copying");
+            }
+            position += transferred;
+        }
+    }
+
+    private void flush(Connection sendConnection) throws IOException {
+        batch.flip();
+        try {
+            RemoteProtocol.writeFully(sendConnection.channel, batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private Response await(CompletableFuture<Response> response, File target) throws IOException {
+        try {
+            return response.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the remote target: " + target);
+        } catch (ExecutionException e) {
+            throw new IOException("Connection to remote target: " + address + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for the remote target: " + target);
+        }
+    }
+
+    private static void checkStatus(Response response, File target) throws IOException {
+        if (response.status() == STATUS_OK) {
+            return;
+        }
+        if (response.status() == STATUS_NOT_FOUND) {
+            throw new NoSuchFileException(target.toString());
+        }
+        String message = StandardCharsets.UTF_8.decode(response.payload()).toString();
+        throw new IOException("Remote target failed for file: " + target + ": " + message);
+    }
+
+    private String toRemotePath(File target) throws IOException {
+        Path path = target.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(targetDirPath)) {
+            throw new IOException("File: " + target + " is not in the target directory: " + targetDirPath);
+        }
+        StringBuilder remotePath = new StringBuilder();
+        for (Path name : targetDirPath.relativize(path)) {
+            if (!remotePath.isEmpty()) {
+                remotePath.append('/');
+            }
+            remotePath.append(name);
+        }
+        return remotePath.toString();
+    }
+
+    private record Response(byte status, ByteBuffer payload) {
+    }
+
+    /**
+     * A connection to the receiver, with a thread completing the requests in flight as their responses arrive
+     */
+    private class Connection {
+
+        private final SocketChannel channel;
+        private final Map<Long, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+        private volatile boolean failed;
+
+        Connection() throws IOException {
+            this.channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Thread responseReader = new Thread(this::readResponses, "remote-target-responses");
+            responseReader.setDaemon(true);
+            responseReader.start();
+            log.info("Connected to remote target: {}", address);
+        }
+
+        CompletableFuture<Response> register(long id) {
+            CompletableFuture<Response> response = new CompletableFuture<>();
+            inFlight.put(id, response);
+            if (failed && inFlight.remove(id) != null) {
+                response.completeExceptionally(new IOException("Connection failed"));
+            }
+            return response;
+        }
+
+        void unregister(long id) {
+            inFlight.remove(id);
+        }
+
+        void fail(IOException cause) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close connection to remote target: {}", address, e);
+            }
+            inFlight.values().forEach(response -> response.completeExceptionally(cause));
+            inFlight.clear();
+        }
+
+        private void readResponses() {
+            ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BATCH_SIZE).flip();
+            try {
+                while (true) {
+                    RemoteProtocol.fill(channel, buffer, RESPONSE_HEADER_SIZE);
+                    long id = buffer.getLong();
+                    byte status = buffer.get();
+                    ByteBuffer payload = readPayload(buffer, buffer.getInt());
+                    CompletableFuture<Response> response = inFlight.remove(id);
+                    if (response != null) {
+                        response.complete(new Response(status, payload));
+                    }
+                }
+            } catch (IOException e) {
+                if (!failed) {
+                    log.warn("Connection to remote target: {} failed", address, e);
+                }
+                fail(e);
+            }
+        }
+
+        private ByteBuffer readPayload(ByteBuffer buffer, int length) throws IOException {
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    RemoteProtocol.fill(channel, buffer, 1);
+                }
+                int numBytes = Math.min(payload.remaining(), buffer.remaining());
+                payload.put(buffer.slice(buffer.position(), numBytes));
+                buffer.position(buffer.position() + numBytes);
+            }
+            return payload.flip();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.dirsync.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool of direct {@link ByteBuffer}s of a fixed size, so copy loops can reuse buffers instead of allocating
+ * them per file.
+ * <p>
+ * The pooled buffers are split into stripes chosen by the calling thread, so threads rarely contend for the same
+ * slots. Acquiring and releasing a buffer only swaps slot references and allocates nothing while buffers are
+ * available. When a stripe is empty a new buffer is allocated, and when it is full a released buffer is dropped, so
+ * at most {@code stripes * buffersPerStripe} buffers are retained.
+ */
+public class DirectBufferPool {
+
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final int DEFAULT_BUFFERS_PER_STRIPE = 2;
+    private static final DirectBufferPool SHARED = new DirectBufferPool(DEFAULT_BUFFER_SIZE,
+            Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFERS_PER_STRIPE);
+
+    private final int bufferSize;
+    private final int stripes;
+    private final int buffersPerStripe;
+    private final AtomicReferenceArray<ByteBuffer> slots;
+
+    public DirectBufferPool(int bufferSize, int stripes, int buffersPerStripe) {
+        this.bufferSize = bufferSize;
+        this.stripes = stripes;
+        this.buffersPerStripe = buffersPerStripe;
+        this.slots = new AtomicReferenceArray<>(stripes * buffersPerStripe);
+    }
+
+    /**
+     * @return the pool shared by the copy paths of the application
+     */
+    public static DirectBufferPool shared() {
+        return SHARED;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer, which should be given back with {@link #release(ByteBuffer)} once it is not used
+     */
+    public ByteBuffer acquire() {
+        int first = firstSlot();
+        for (int i = first; i < first + buffersPerStripe; i++) {
+            ByteBuffer buffer = slots.getAndSet(i, null);
+            if (buffer != null) {
+                return buffer.clear();
+            }
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer was not acquired from this pool");
+        }
+        int first = firstSlot();
+        for (int i = first; i < first + buffersPerStripe; i++) {
+            if (slots.compareAndSet(i, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    //VisibleForTesting
+    int getNumPooledBuffers() {
+        int pooled = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                pooled++;
+            }
+        }
+        return pooled;
+    }
+
+    private int firstSlot() {
+        long threadId = Thread.currentThread().getId();
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        return Math.floorMod(hash, stripes) * buffersPerStripe;
+    }
+}
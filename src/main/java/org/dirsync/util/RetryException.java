@@ -0,0 +1,10 @@
+package org.dirsync.util;
+
+/**
+ * Thrown when giving up on a task after retrying it, with the exception of the last attempt as its cause
+ */
+public class RetryException extends RuntimeException {
+    public RetryException(Throwable throwable, String message) {
+        super(message, throwable);
+    }
+}
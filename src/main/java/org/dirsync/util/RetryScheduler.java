@@ -0,0 +1,248 @@
+package org.dirsync.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+
+/**
+ * Retries tasks asynchronously with exponential backoff. Attempts run on a scheduled executor, so no thread waits
+ * while a retry is pending and the caller gets a {@link CompletableFuture} right away.
+ */
+@Slf4j
+public class RetryScheduler implements AutoCloseable {
+
+    /**
+     * @param maxAttempts  the maximum number of attempts, including the first one
+     * @param initialDelay the delay before the first retry
+     * @param maxDelay     the maximum delay between attempts
+     * @param multiplier   the factor the delay grows by after each retry
+     * @param jitter       the fraction of each delay that is randomized, between 0 and 1
+     * @param deadline     the maximum time from the first attempt after which no more attempts are made
+     */
+    public record RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay, double multiplier,
+                              double jitter, Duration deadline) {
+
+        private static final int DEFAULT_MAX_ATTEMPTS = 3;
+        private static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+        private static final long DEFAULT_MAX_DELAY_MILLIS = 30_000;
+        private static final double DEFAULT_MULTIPLIER = 2.0;
+        private static final double DEFAULT_JITTER = 0.2;
+        private static final long DEFAULT_DEADLINE_MILLIS = 60_000;
+
+        public RetryPolicy {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("Backoff multiplier must be at least 1 but was: " + multiplier);
+            }
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("Jitter must be between 0 and 1 but was: " + jitter);
+            }
+        }
+
+        public static RetryPolicy defaults() {
+            return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, Duration.ofMillis(DEFAULT_INITIAL_DELAY_MILLIS),
+                    Duration.ofMillis(DEFAULT_MAX_DELAY_MILLIS), DEFAULT_MULTIPLIER, DEFAULT_JITTER,
+                    Duration.ofMillis(DEFAULT_DEADLINE_MILLIS));
+        }
+
+        public static RetryPolicy fromSystemProperties() {
+            return new RetryPolicy(
+                    Integer.getInteger("retry.scheduler.max.attempts", DEFAULT_MAX_ATTEMPTS),
+                    Duration.ofMillis(Long.getLong("retry.scheduler.initial.delay.millis",
+                            DEFAULT_INITIAL_DELAY_MILLIS)),
+                    Duration.ofMillis(Long.getLong("retry.scheduler.max.delay.millis", DEFAULT_MAX_DELAY_MILLIS)),
+                    Double.parseDouble(System.getProperty("retry.scheduler.multiplier",
+                            String.valueOf(DEFAULT_MULTIPLIER))),
+                    Double.parseDouble(System.getProperty("retry.scheduler.jitter", String.valueOf(DEFAULT_JITTER))),
+                    Duration.ofMillis(Long.getLong("retry.scheduler.deadline.millis", DEFAULT_DEADLINE_MILLIS)));
+        }
+
+        long delayNanos(int numRetries) {
+            double delay = initialDelay.toNanos() * Math.pow(multiplier, numRetries - 1.0);
+            delay = Math.min(delay, maxDelay.toNanos());
+            return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+        }
+    }
+
+    private final Supplier<ScheduledExecutorService> executorFactory;
+    private final RetryPolicy retryPolicy;
+    private final LongSupplier nanoTimeSupplier;
+    // Created with the first retry, so a scheduler that never retries does not hold a thread
+    private ScheduledExecutorService executor;
+    private boolean closed = false;
+
+    public RetryScheduler() {
+        this(RetryPolicy.fromSystemProperties());
+    }
+
+    public RetryScheduler(RetryPolicy retryPolicy) {
+        this(() -> Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }), retryPolicy, System::nanoTime);
+    }
+
+    //VisibleForTesting
+    RetryScheduler(ScheduledExecutorService executor, RetryPolicy retryPolicy, LongSupplier nanoTimeSupplier) {
+        this(() -> executor, retryPolicy, nanoTimeSupplier);
+    }
+
+    private RetryScheduler(Supplier<ScheduledExecutorService> executorFactory, RetryPolicy retryPolicy,
+                           LongSupplier nanoTimeSupplier) {
+        this.executorFactory = executorFactory;
+        this.retryPolicy = retryPolicy;
+        this.nanoTimeSupplier = nanoTimeSupplier;
+    }
+
+    public CompletableFuture<Void> retry(Runnable task, String errorMessage) {
+        return retry(() -> {
+            task.run();
+            return null;
+        }, errorMessage);
+    }
+
+    /**
+     * Run a task, retrying it with backoff until it succeeds, the maximum number of attempts is reached or the
+     * deadline passes
+     * @param task         the task to run
+     * @param errorMessage the message of the {@link RetryException} the future fails with when giving up
+     * @return a future completed with the result of the first successful attempt
+     */
+    public <T> CompletableFuture<T> retry(Callable<T> task, String errorMessage) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long deadlineNanos = nanoTimeSupplier.getAsLong() + retryPolicy.deadline().toNanos();
+        schedule(new Attempt<>(task, errorMessage, result, deadlineNanos), 0);
+        return result;
+    }
+
+    /**
+     * Retry a task whose first attempt has already failed. The next attempt is made after the initial delay.
+     * @see #retry(Callable, String)
+     */
+    public <T> CompletableFuture<T> retryFailed(Callable<T> task, String errorMessage) {
+        return retryFailed(task, errorMessage, null);
+    }
+
+    /**
+     * Retry a task whose first attempt has already failed, handing each attempt to a launcher instead of running it on
+     * the retry thread, e.g. to run it in order with other tasks. An attempt launched after the returned future is
+     * done, e.g. cancelled, does not run the task.
+     * @param launcher runs an attempt, returning a future completed with its outcome
+     * @see #retryFailed(Callable, String)
+     */
+    public <T> CompletableFuture<T> retryFailed(Callable<T> task, String errorMessage,
+                                                Function<Callable<T>, CompletableFuture<T>> launcher) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long deadlineNanos = nanoTimeSupplier.getAsLong() + retryPolicy.deadline().toNanos();
+        Attempt<T> attempt = new Attempt<>(task, errorMessage, result, deadlineNanos, launcher);
+        attempt.numAttempts = 1;
+        schedule(attempt, retryPolicy.delayNanos(1));
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized ScheduledExecutorService executor() {
+        if (closed) {
+            throw new RejectedExecutionException("Retry scheduler is closed");
+        }
+        if (executor == null) {
+            executor = executorFactory.get();
+        }
+        return executor;
+    }
+
+    private <T> void schedule(Attempt<T> attempt, long delayNanos) {
+        try {
+            executor().schedule(() -> run(attempt), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            attempt.result.completeExceptionally(new RetryException(e, attempt.errorMessage));
+        }
+    }
+
+    private <T> void run(Attempt<T> attempt) {
+        if (attempt.result.isDone()) {
+            return;
+        }
+        attempt.numAttempts++;
+        if (attempt.launcher == null) {
+            try {
+                attempt.result.complete(attempt.task.call());
+            } catch (Exception e) {
+                retryOrFail(attempt, e);
+            }
+            return;
+        }
+        CompletableFuture<T> launched;
+        try {
+            launched = attempt.launcher.apply(() -> attempt.result.isDone() ? null : attempt.task.call());
+        } catch (RejectedExecutionException e) {
+            attempt.result.completeExceptionally(new RetryException(e, attempt.errorMessage));
+            return;
+        }
+        launched.whenComplete((value, e) -> {
+            if (e == null) {
+                attempt.result.complete(value);
+            } else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                retryOrFail(attempt, cause instanceof Exception exception ? exception : new CompletionException(e));
+            }
+        });
+    }
+
+    private <T> void retryOrFail(Attempt<T> attempt, Exception e) {
+        if (attempt.numAttempts >= retryPolicy.maxAttempts()) {
+            attempt.result.completeExceptionally(new RetryException(e, attempt.errorMessage));
+            return;
+        }
+        long delayNanos = retryPolicy.delayNanos(attempt.numAttempts);
+        if (nanoTimeSupplier.getAsLong() + delayNanos > attempt.deadlineNanos) {
+            log.debug("Deadline reached after {} attempts: {}", attempt.numAttempts, attempt.errorMessage);
+            attempt.result.completeExceptionally(new RetryException(e, attempt.errorMessage));
+            return;
+        }
+        log.debug("Attempt {}/{} failed, retrying in {} ms: {}", attempt.numAttempts, retryPolicy.maxAttempts(),
+                TimeUnit.NANOSECONDS.toMillis(delayNanos), attempt.errorMessage, e);
+        schedule(attempt, delayNanos);
+    }
+
+    private static class Attempt<T> {
+        private final Callable<T> task;
+        private final String errorMessage;
+        private final CompletableFuture<T> result;
+        private final long deadlineNanos;
+        private final Function<Callable<T>, CompletableFuture<T>> launcher;
+        private int numAttempts = 0;
+
+        private Attempt(Callable<T> task, String errorMessage, CompletableFuture<T> result, long deadlineNanos) {
+            this(task, errorMessage, result, deadlineNanos, null);
+        }
+
+        private Attempt(Callable<T> task, String errorMessage, CompletableFuture<T> result, long deadlineNanos,
+                        Function<Callable<T>, CompletableFuture<T>> launcher) {
+            this.task = task;
+            this.errorMessage = errorMessage;
+            this.result = result;
+            this.deadlineNanos = deadlineNanos;
+            this.launcher = launcher;
+        }
+    }
+}
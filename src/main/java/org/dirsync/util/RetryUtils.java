@@ -2,6 +2,11 @@ package org.dirsync.util;
 
 import lombok.experimental.UtilityClass;
 
+/**
+ * Blocking retries that sleep on the caller's thread between attempts.
+ * @deprecated use {@link RetryScheduler}, which retries asynchronously with exponential backoff
+ */
+@Deprecated
 @UtilityClass
 public class RetryUtils {
 
@@ -36,10 +41,4 @@ public class RetryUtils {
             Thread.currentThread().interrupt();
         }
     }
-
-    static class RetryException extends RuntimeException {
-        public RetryException(Throwable throwable, String message) {
-            super(message, throwable);
-        }
-    }
 }
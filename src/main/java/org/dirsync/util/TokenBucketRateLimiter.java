@@ -0,0 +1,99 @@
+package org.dirsync.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter that spreads permits evenly over time instead of letting callers burst and then sleep.
+ * <p>
+ * Each acquisition reserves the next free slot and waits until then, so a large acquisition delays the callers after
+ * it rather than the caller itself. Unused permits are kept for up to {@value #MAX_BURST_SECONDS} seconds, which
+ * absorbs small gaps without allowing large bursts. The rate can be changed at any time and a rate of zero or less
+ * disables limiting.
+ */
+public class TokenBucketRateLimiter {
+
+    private static final double MAX_BURST_SECONDS = 0.1;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier nanoTimeSupplier;
+    private double permitsPerSecond;
+    private double maxStoredPermits;
+    private double storedPermits;
+    private long nextFreeNanos;
+
+    public TokenBucketRateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, System::nanoTime);
+    }
+
+    //VisibleForTesting
+    TokenBucketRateLimiter(double permitsPerSecond, LongSupplier nanoTimeSupplier) {
+        this.nanoTimeSupplier = nanoTimeSupplier;
+        this.nextFreeNanos = nanoTimeSupplier.getAsLong();
+        setRate(permitsPerSecond);
+    }
+
+    public synchronized void setRate(double permitsPerSecond) {
+        long now = nanoTimeSupplier.getAsLong();
+        resync(now);
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxStoredPermits = isUnlimited() ? 0 : permitsPerSecond * MAX_BURST_SECONDS;
+        this.storedPermits = Math.min(storedPermits, maxStoredPermits);
+    }
+
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Wait until the given number of permits is available
+     * @param permits the number of permits to acquire
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(long permits) throws InterruptedIOException {
+        long waitNanos = reserve(permits);
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + permits + " permits");
+        }
+    }
+
+    /**
+     * Reserve the given number of permits
+     * @return the number of nanoseconds to wait before the permits may be used
+     */
+    //VisibleForTesting
+    synchronized long reserve(long permits) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        long now = nanoTimeSupplier.getAsLong();
+        resync(now);
+        long waitNanos = Math.max(0, nextFreeNanos - now);
+        double permitsFromStore = Math.min(permits, storedPermits);
+        double freshPermits = permits - permitsFromStore;
+        nextFreeNanos += (long) (freshPermits / permitsPerSecond * NANOS_PER_SECOND);
+        storedPermits -= permitsFromStore;
+        return waitNanos;
+    }
+
+    private boolean isUnlimited() {
+        return permitsPerSecond <= 0;
+    }
+
+    private void resync(long now) {
+        if (now > nextFreeNanos) {
+            if (!isUnlimited()) {
+                double newPermits = (now - nextFreeNanos) / NANOS_PER_SECOND * permitsPerSecond;
+                storedPermits = Math.min(maxStoredPermits, storedPermits + newPermits);
+            }
+            nextFreeNanos = now;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.dirsync.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditJournalTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void recordedOperationsAreRead() throws IOException {
+        Path file = tempDir.resolve("audit.journal");
+        Path path = Path.of("source", "file.txt");
+        try (AuditJournal auditJournal = AuditJournal.open(file, 16)) {
+            auditJournal.record(AuditJournal.Operation.COPY, path, 42, 1000, AuditJournal.Result.SUCCEEDED);
+            auditJournal.record(AuditJournal.Operation.DELETE, path, 0, 2000, AuditJournal.Result.FAILED);
+        }
+
+        List<AuditJournalReader.Entry> entries = AuditJournalReader.read(file);
+
+        assertEquals(2, entries.size());
+        AuditJournalReader.Entry copy = entries.get(0);
+        assertEquals(0, copy.sequence());
+        assertEquals(AuditJournal.Operation.COPY, copy.operation());
+        assertEquals(path, copy.path());
+        assertEquals(42, copy.bytes());
+        assertEquals(1000, copy.durationNanos());
+        assertEquals(AuditJournal.Result.SUCCEEDED, copy.result());
+        assertEquals(AuditJournal.Operation.DELETE, entries.get(1).operation());
+        assertEquals(AuditJournal.Result.FAILED, entries.get(1).result());
+    }
+
+    @Test
+    void oldestRecordsAreOverwritten() throws IOException {
+        Path file = tempDir.resolve("audit.journal");
+        try (AuditJournal auditJournal = AuditJournal.open(file, 4)) {
+            for (int i = 0; i < 10; i++) {
+                auditJournal.record(AuditJournal.Operation.COPY, Path.of(i + ".txt"), i, 0,
+                        AuditJournal.Result.SUCCEEDED);
+            }
+        }
+
+        List<AuditJournalReader.Entry> entries = AuditJournalReader.read(file);
+
+        assertEquals(List.of(6L, 7L, 8L, 9L), entries.stream().map(AuditJournalReader.Entry::sequence).toList());
+        assertEquals(Path.of("9.txt"), entries.get(3).path());
+    }
+
+    @Test
+    void pathsOfOverwrittenRecordsAreCompacted() throws IOException {
+        Path file = tempDir.resolve("audit.journal");
+        try (AuditJournal auditJournal = AuditJournal.open(file, 4)) {
+            for (int i = 0; i < 100; i++) {
+                auditJournal.record(AuditJournal.Operation.COPY, Path.of(i + ".txt"), i, 0,
+                        AuditJournal.Result.SUCCEEDED);
+            }
+        }
+
+        Map<Integer, String> pathsById = new HashMap<>();
+        try (InputStream paths = Files.newInputStream(AuditJournalFormat.pathsFile(file))) {
+            AuditJournalFormat.readPaths(paths, pathsById);
+        }
+        assertTrue(pathsById.size() <= 8, () -> "Paths not compacted: " + pathsById);
+        List<AuditJournalReader.Entry> entries = AuditJournalReader.read(file);
+        assertEquals(List.of(Path.of("96.txt"), Path.of("97.txt"), Path.of("98.txt"), Path.of("99.txt")),
+                entries.stream().map(AuditJournalReader.Entry::path).toList());
+    }
+
+    @Test
+    void reopenedJournalContinuesSequenceAndPaths() throws IOException {
+        Path file = tempDir.resolve("audit.journal");
+        Path path = Path.of("file.txt");
+        try (AuditJournal auditJournal = AuditJournal.open(file, 16)) {
+            auditJournal.record(AuditJournal.Operation.COPY, path, 1, 0, AuditJournal.Result.SUCCEEDED);
+        }
+        // A path cut short by a crash
+        Files.write(AuditJournalFormat.pathsFile(file), new byte[] {0, 0, 0, 1, 0, 9, 'x'},
+                StandardOpenOption.APPEND);
+
+        try (AuditJournal auditJournal = AuditJournal.open(file, 16)) {
+            auditJournal.record(AuditJournal.Operation.UPDATE, path, 2, 0, AuditJournal.Result.SUCCEEDED);
+            auditJournal.record(AuditJournal.Operation.DELETE, Path.of("other.txt"), 0, 0,
+                    AuditJournal.Result.SUCCEEDED);
+        }
+
+        List<AuditJournalReader.Entry> entries = AuditJournalReader.read(file);
+        assertEquals(List.of(0L, 1L, 2L), entries.stream().map(AuditJournalReader.Entry::sequence).toList());
+        assertEquals(path, entries.get(1).path());
+        assertEquals(Path.of("other.txt"), entries.get(2).path());
+    }
+
+    @Test
+    void fileThatIsNotJournalIsRejected() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("audit.journal"), "not a journal");
+
+        assertThrows(IOException.class, () -> AuditJournal.open(file, 16));
+        assertThrows(IOException.class, () -> AuditJournalReader.read(file));
+    }
+}
@@ -1,24 +1,39 @@
 package org.dirsync.controller;
 
 import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.dirsync.audit.AuditJournal;
+import org.dirsync.audit.AuditJournalReader;
 import org.dirsync.exception.DirectoryWatchFailedException;
 import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.dirsync.model.file.SyncDirectory;
 import org.dirsync.model.file.SyncFile;
 import org.dirsync.model.file.SyncFileFactory;
+import org.dirsync.util.RetryScheduler;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -41,6 +56,8 @@ class DirectorySynchronizerImplTest {
 
     private AutoCloseable mocks;
 
+    private final List<SyncRetryQueue> syncRetryQueues = new ArrayList<>();
+
     private static final String SOURCE_DIR = "sourceDir";
 
     private static final String TARGET_DIR = "targetDir";
@@ -65,9 +82,24 @@ class DirectorySynchronizerImplTest {
 
     @AfterEach
     void tearDown() throws Exception {
+        syncRetryQueues.forEach(SyncRetryQueue::close);
         mocks.close();
     }
 
+    private SyncRetryQueue newSyncRetryQueue() {
+        SyncRetryQueue syncRetryQueue = new SyncRetryQueue(new RetryScheduler(), new DeadLetterStore());
+        syncRetryQueues.add(syncRetryQueue);
+        return syncRetryQueue;
+    }
+
+    private DirectorySynchronizerImpl.DirectorySynchronizerImplBuilder synchronizerBuilder() {
+        return DirectorySynchronizerImpl.builder()
+                .syncDirectoriesInfo(syncDirectoriesInfo)
+                .fileAlterationMonitor(fileAlterationMonitor)
+                .syncFileFactory(syncFileFactory)
+                .syncRetryQueue(newSyncRetryQueue());
+    }
+
     @Test
     void testStart() throws Exception {
         directorySynchronizer.start();
@@ -100,6 +132,16 @@ class DirectorySynchronizerImplTest {
         verify(syncFile).copy(syncDirectoriesInfo.targetDirPath());
     }
 
+    @Test
+    void testOnFileChange() throws IOException {
+        File file = new File("testFile.txt");
+        when(syncFileFactory.create(file.toPath())).thenReturn(syncFile);
+
+        directorySynchronizer.onFileChange(file);
+
+        verify(syncFile).update(anyString());
+    }
+
     @Test
     void testOnFileDelete() throws IOException {
         File file = new File("deletedFile.txt");
@@ -110,6 +152,172 @@ class DirectorySynchronizerImplTest {
         verify(syncFile).delete(syncDirectoriesInfo.targetDirPath());
     }
 
+    @Test
+    void testRenameIsMovedOnTarget(@TempDir Path tempDir) throws IOException {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        RenameDetector renameDetector = new RenameDetector();
+        renameDetector.recordAll(tempDir, null);
+        directorySynchronizer = synchronizerBuilder().renameDetector(renameDetector).build();
+        Path renamedFile = Files.move(file, tempDir.resolve("renamed.txt"));
+        SyncFile renamedSyncFile = mock(SyncFile.class);
+        when(syncFileFactory.create(file)).thenReturn(syncFile);
+        when(syncFileFactory.create(renamedFile)).thenReturn(renamedSyncFile);
+        when(syncFile.rename(renamedSyncFile, syncDirectoriesInfo.targetDirPath())).thenReturn(true);
+
+        directorySynchronizer.onStart(null);
+        directorySynchronizer.onFileCreate(renamedFile.toFile());
+        directorySynchronizer.onFileDelete(file.toFile());
+        directorySynchronizer.onStop(null);
+
+        verify(syncFile).rename(renamedSyncFile, syncDirectoriesInfo.targetDirPath());
+        verify(syncFile, never()).delete(anyString());
+        verify(renamedSyncFile, never()).copy(any());
+    }
+
+    @Test
+    void testDirectoryCreationIsCopiedAsWhole(@TempDir Path tempDir) throws IOException {
+        SyncDirectory syncDirectory = mock(SyncDirectory.class);
+        DirectorySynchronizerImpl synchronizer = createMirroringSynchronizer();
+        Path dir = Files.createDirectories(tempDir.resolve("dir"));
+        File file = Files.writeString(dir.resolve("file.txt"), "content").toFile();
+        when(syncFileFactory.createDirectory(dir)).thenReturn(syncDirectory);
+
+        synchronizer.onStart(null);
+        synchronizer.onDirectoryCreate(dir.toFile());
+        synchronizer.onFileCreate(file);
+        synchronizer.onStop(null);
+
+        verify(syncDirectory).copy(syncDirectoriesInfo.targetDirPath(), Set.of());
+        verify(syncFileFactory, never()).create(file.toPath());
+    }
+
+    @Test
+    void testDirectoryDeletionIsDeletedAsWhole(@TempDir Path tempDir) throws IOException {
+        SyncDirectory syncDirectory = mock(SyncDirectory.class);
+        DirectorySynchronizerImpl synchronizer = createMirroringSynchronizer();
+        Path dir = tempDir.resolve("dir");
+        File file = dir.resolve("sub").resolve("file.txt").toFile();
+        File otherFile = tempDir.resolve("other.txt").toFile();
+        when(syncFileFactory.createDirectory(dir)).thenReturn(syncDirectory);
+        when(syncFileFactory.create(otherFile.toPath())).thenReturn(syncFile);
+
+        synchronizer.onStart(null);
+        synchronizer.onFileDelete(file);
+        synchronizer.onDirectoryDelete(dir.resolve("sub").toFile());
+        synchronizer.onDirectoryDelete(dir.toFile());
+        synchronizer.onFileDelete(otherFile);
+        synchronizer.onStop(null);
+
+        verify(syncDirectory).delete(syncDirectoriesInfo.targetDirPath());
+        verify(syncFileFactory, never()).create(file.toPath());
+        verify(syncFileFactory, never()).createDirectory(dir.resolve("sub"));
+        verify(syncFile).delete(syncDirectoriesInfo.targetDirPath());
+    }
+
+    private DirectorySynchronizerImpl createMirroringSynchronizer() {
+        when(syncFileFactory.mirrorsDirectories()).thenReturn(true);
+        return new DirectorySynchronizerImpl(syncDirectoriesInfo, fileAlterationMonitor, syncFileFactory);
+    }
+
+    @Test
+    void testEchoOfOppositeWriteIsDropped() {
+        EchoSuppressor echoSuppressor = new EchoSuppressor(Duration.ofMinutes(1));
+        directorySynchronizer = synchronizerBuilder().echoSuppressor(echoSuppressor).build();
+        File file = new File("echoedFile.txt");
+        echoSuppressor.startWrite(file.toPath());
+        echoSuppressor.endWrite(file.toPath());
+
+        directorySynchronizer.onFileCreate(file);
+
+        verify(syncFileFactory, never()).create(any());
+    }
+
+    @Test
+    void testEditInsideEchoWindowIsSynchronized(@TempDir Path tempDir) throws IOException {
+        EchoSuppressor echoSuppressor = new EchoSuppressor(Duration.ofMinutes(1));
+        directorySynchronizer = synchronizerBuilder().echoSuppressor(echoSuppressor).build();
+        Path file = tempDir.resolve("editedFile.txt");
+        echoSuppressor.startWrite(file);
+        Files.writeString(file, "written by the opposite synchronizer");
+        echoSuppressor.endWrite(file);
+        when(syncFileFactory.create(file)).thenReturn(syncFile);
+        when(syncFile.getTargetFile(anyString())).thenReturn(tempDir.resolve("targetFile.txt").toFile());
+
+        Files.writeString(file, "edited");
+        directorySynchronizer.onFileChange(file.toFile());
+
+        verify(syncFile).update(syncDirectoriesInfo.targetDirPath());
+    }
+
+    @Test
+    void testModificationsAtSameTimeAreCopiedInOneDirection(@TempDir Path tempDir) throws IOException {
+        Path dirA = Files.createDirectories(tempDir.resolve("a"));
+        Path dirB = Files.createDirectories(tempDir.resolve("b"));
+        Path fileA = Files.writeString(dirA.resolve("file.txt"), "modified in a");
+        Path fileB = Files.writeString(dirB.resolve("file.txt"), "modified in b");
+        Files.setLastModifiedTime(fileA, FileTime.fromMillis(1_000_000));
+        Files.setLastModifiedTime(fileB, FileTime.fromMillis(1_000_000));
+        SyncFile syncFileB = mock(SyncFile.class);
+        when(syncFileFactory.create(fileA)).thenReturn(syncFile);
+        when(syncFileFactory.create(fileB)).thenReturn(syncFileB);
+        when(syncFile.getTargetFile(anyString())).thenReturn(fileB.toFile());
+        when(syncFileB.getTargetFile(anyString())).thenReturn(fileA.toFile());
+        EchoSuppressor echoSuppressor = new EchoSuppressor(Duration.ofMinutes(1));
+        DirectorySynchronizerImpl forward = synchronizerBuilder()
+                .syncDirectoriesInfo(new SyncDirectoriesInfo(dirA.toString(), dirB.toString()))
+                .echoSuppressor(echoSuppressor)
+                .build();
+        DirectorySynchronizerImpl backward = synchronizerBuilder()
+                .syncDirectoriesInfo(new SyncDirectoriesInfo(dirB.toString(), dirA.toString()))
+                .echoSuppressor(echoSuppressor)
+                .build();
+
+        forward.onFileChange(fileA.toFile());
+        backward.onFileChange(fileB.toFile());
+
+        verify(syncFile).update(dirB.toString());
+        verify(syncFileB, never()).update(anyString());
+    }
+
+    @Test
+    void testEventsAreSynchronizedThroughEventQueue(@TempDir Path tempDir) throws IOException {
+        directorySynchronizer = synchronizerBuilder().syncEventQueue(new SyncEventQueue(10, tempDir, 0)).build();
+        File createdFile = new File("createdFile.txt");
+        File deletedFile = new File("deletedFile.txt");
+        when(syncFileFactory.create(any())).thenReturn(syncFile);
+
+        directorySynchronizer.start();
+        directorySynchronizer.onFileCreate(createdFile);
+        directorySynchronizer.onFileDelete(deletedFile);
+        directorySynchronizer.stop();
+
+        // Stopping synchronizes the events queued in memory before
+        verify(syncFile).copy(syncDirectoriesInfo.targetDirPath());
+        verify(syncFile).delete(syncDirectoriesInfo.targetDirPath());
+    }
+
+    @Test
+    void testOperationsAreRecordedInAuditJournal(@TempDir Path tempDir) throws IOException {
+        Path journalFile = tempDir.resolve("audit.journal");
+        directorySynchronizer = synchronizerBuilder().auditJournal(AuditJournal.open(journalFile, 16)).build();
+        File createdFile = Files.writeString(tempDir.resolve("createdFile.txt"), "content").toFile();
+        File deletedFile = new File("deletedFile.txt");
+        when(syncFileFactory.create(any())).thenReturn(syncFile);
+        doThrow(new IOException("Delete failure")).when(syncFile).delete(anyString());
+
+        directorySynchronizer.onFileCreate(createdFile);
+        directorySynchronizer.onFileDelete(deletedFile);
+        directorySynchronizer.stop();
+
+        List<AuditJournalReader.Entry> entries = AuditJournalReader.read(journalFile);
+        assertEquals(AuditJournal.Operation.COPY, entries.get(0).operation());
+        assertEquals(createdFile.toPath(), entries.get(0).path());
+        assertEquals(7, entries.get(0).bytes());
+        assertEquals(AuditJournal.Result.SUCCEEDED, entries.get(0).result());
+        assertEquals(AuditJournal.Operation.DELETE, entries.get(1).operation());
+        assertEquals(AuditJournal.Result.FAILED, entries.get(1).result());
+    }
+
     @Test
     void testOnFileDeleteFileNotFound() throws IOException {
         File file = new File("deletedFile.txt");
@@ -6,11 +6,14 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -35,6 +38,7 @@ class DirectoryWatchServiceImplTest {
 
     @AfterEach
     void tearDown() throws Exception {
+        directoryWatchService.close();
         mocks.close();
     }
 
@@ -120,6 +124,39 @@ class DirectoryWatchServiceImplTest {
         givenWatchServiceReturnsEvents(List.of(watchEventCreate, watchEventDelete));
     }
 
+    @Test
+    void eventsOfSubDirectoryResolveToFullPath(@TempDir Path tempDir) throws Exception {
+        Path subDir = Files.createDirectories(tempDir.resolve("a").resolve("b"));
+        try (WatchService fileSystemWatchService = FileSystems.getDefault().newWatchService()) {
+            directoryWatchService = new DirectoryWatchServiceImpl(fileSystemWatchService);
+            directoryWatchService.registerRoot(tempDir.toString());
+
+            Path file = Files.writeString(subDir.resolve("file.txt"), "content");
+
+            Set<FileSystemEvent> fileSystemEvents = directoryWatchService.pollEvents();
+            Assertions.assertEquals(file, fileSystemEvents.iterator().next().path());
+        }
+    }
+
+    @Test
+    void eventsOfCreatedTreeArrive(@TempDir Path tempDir) throws Exception {
+        try (WatchService fileSystemWatchService = FileSystems.getDefault().newWatchService()) {
+            directoryWatchService = new DirectoryWatchServiceImpl(fileSystemWatchService);
+            directoryWatchService.registerRoot(tempDir.toString());
+
+            Path deepestDir = Files.createDirectories(tempDir.resolve("a").resolve("b").resolve("c"));
+            Path file = Files.writeString(deepestDir.resolve("file.txt"), "content");
+
+            Set<Path> paths = new HashSet<>();
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                while (!paths.contains(file)) {
+                    directoryWatchService.pollEvents().forEach(event -> paths.add(event.path()));
+                }
+            });
+            Assertions.assertTrue(paths.contains(deepestDir));
+        }
+    }
+
     private static WatchEvent<?> createWatchEvent(Path path, WatchEvent.Kind<?> kind) {
         WatchEvent watchEvent = mock(WatchEvent.class);
         when(watchEvent.context()).thenReturn(path);
@@ -0,0 +1,93 @@
+package org.dirsync.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EchoSuppressorTest {
+
+    private static final Duration WINDOW = Duration.ofSeconds(2);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final EchoSuppressor echoSuppressor = new EchoSuppressor(WINDOW, nanoTime::get);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writtenFileIsEchoWhileInFlight() {
+        Path file = tempDir.resolve("file.txt");
+        echoSuppressor.startWrite(file);
+        nanoTime.addAndGet(WINDOW.toNanos() * 10);
+
+        assertTrue(echoSuppressor.isEcho(file));
+        assertTrue(echoSuppressor.isEcho(file));
+    }
+
+    @Test
+    void writtenFileIsEchoUntilWindowExpires() throws IOException {
+        Path file = tempDir.resolve("file.txt");
+        echoSuppressor.startWrite(file);
+        Files.writeString(file, "written");
+        echoSuppressor.endWrite(file);
+
+        nanoTime.addAndGet(WINDOW.toNanos() - 1);
+        assertTrue(echoSuppressor.isEcho(file));
+
+        echoSuppressor.endWrite(file);
+        nanoTime.addAndGet(WINDOW.toNanos() + 1);
+        assertFalse(echoSuppressor.isEcho(file));
+    }
+
+    @Test
+    void echoIsDroppedOnce() throws IOException {
+        Path file = tempDir.resolve("file.txt");
+        echoSuppressor.startWrite(file);
+        Files.writeString(file, "written");
+        echoSuppressor.endWrite(file);
+
+        assertTrue(echoSuppressor.isEcho(file));
+        assertFalse(echoSuppressor.isEcho(file));
+    }
+
+    @Test
+    void editInsideWindowIsNotEcho() throws IOException {
+        Path file = tempDir.resolve("file.txt");
+        echoSuppressor.startWrite(file);
+        Files.writeString(file, "written");
+        echoSuppressor.endWrite(file);
+
+        Files.writeString(file, "edited after the write");
+        assertFalse(echoSuppressor.isEcho(file));
+    }
+
+    @Test
+    void deletionIsEchoWhileFileIsAbsent() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "written");
+        echoSuppressor.startWrite(file);
+        Files.delete(file);
+        echoSuppressor.endWrite(file);
+
+        assertTrue(echoSuppressor.isEcho(file));
+
+        echoSuppressor.startWrite(file);
+        echoSuppressor.endWrite(file);
+        Files.writeString(file, "created again");
+        assertFalse(echoSuppressor.isEcho(file));
+    }
+
+    @Test
+    void otherFileIsNotEcho() {
+        echoSuppressor.startWrite(tempDir.resolve("file.txt"));
+
+        assertFalse(echoSuppressor.isEcho(tempDir.resolve("other.txt")));
+    }
+}
@@ -0,0 +1,89 @@
+package org.dirsync.controller;
+
+import org.dirsync.controller.event.FileSystemEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotColdWatchRegistryTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private WatchService watchService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        watchService.close();
+    }
+
+    @Test
+    void leastRecentlyActiveDirectoryIsDemotedOverBudget() throws IOException {
+        HotColdWatchRegistry registry = new HotColdWatchRegistry(new WatchKeyRegistry(watchService), 2, 60_000);
+        Path a = Files.createDirectory(tempDir.resolve("a"));
+        Path b = Files.createDirectory(tempDir.resolve("b"));
+        Path c = Files.createDirectory(tempDir.resolve("c"));
+
+        registry.register(a);
+        registry.register(b);
+        registry.touch(a);
+        registry.register(c);
+
+        assertEquals(2, registry.getNumHotDirectories());
+        assertEquals(1, registry.getNumColdDirectories());
+        assertTrue(registry.isHot(a));
+        assertFalse(registry.isHot(b));
+        assertTrue(registry.isHot(c));
+    }
+
+    @Test
+    void changedColdDirectoryIsPromoted() throws IOException {
+        HotColdWatchRegistry registry = new HotColdWatchRegistry(new WatchKeyRegistry(watchService), 1, 60_000);
+        Path a = Files.createDirectory(tempDir.resolve("a"));
+        Path b = Files.createDirectory(tempDir.resolve("b"));
+        Path deleted = Files.writeString(a.resolve("deleted.txt"), "content");
+        registry.register(a);
+        registry.register(b);
+
+        Files.delete(deleted);
+        Path created = Files.writeString(a.resolve("created.txt"), "content");
+        List<HotColdWatchRegistry.Change> changes = registry.pollCold();
+
+        assertEquals(Set.of(new HotColdWatchRegistry.Change(created, FileSystemEvent.Type.CREATED),
+                new HotColdWatchRegistry.Change(deleted, FileSystemEvent.Type.DELETED)), Set.copyOf(changes));
+        assertTrue(registry.isHot(a));
+        assertFalse(registry.isHot(b));
+    }
+
+    @Test
+    void unchangedColdDirectoryStaysCold() throws IOException {
+        HotColdWatchRegistry registry = new HotColdWatchRegistry(new WatchKeyRegistry(watchService), 1, 60_000);
+        Path a = Files.createDirectory(tempDir.resolve("a"));
+        Path b = Files.createDirectory(tempDir.resolve("b"));
+        Files.writeString(a.resolve("file.txt"), "content");
+        registry.register(a);
+        registry.register(b);
+
+        assertEquals(List.of(), registry.pollCold());
+        assertFalse(registry.isHot(a));
+        assertEquals(1, registry.getNumColdDirectories());
+    }
+}
@@ -0,0 +1,101 @@
+package org.dirsync.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenameDetectorTest {
+
+    @TempDir
+    private Path sourceDir;
+
+    private final RenameDetector renameDetector = new RenameDetector();
+
+    private Path file;
+    private Path renamedFile;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        file = Files.writeString(sourceDir.resolve("file.txt"), "content");
+        renamedFile = sourceDir.resolve("sub").resolve("renamed.txt");
+        Files.createDirectories(renamedFile.getParent());
+        renameDetector.recordAll(sourceDir, null);
+    }
+
+    @Test
+    void deletionBeforeCreationIsRename() throws IOException {
+        Files.move(file, renamedFile);
+
+        renameDetector.startCheck();
+        assertTrue(renameDetector.deferDeletion(file));
+        assertTrue(renameDetector.deferCreation(renamedFile));
+        RenameDetector.Resolution resolution = renameDetector.endCheck();
+
+        assertEquals(List.of(new RenameDetector.Rename(file, renamedFile)), resolution.renames());
+        assertTrue(resolution.deletions().isEmpty());
+        assertTrue(resolution.creations().isEmpty());
+    }
+
+    @Test
+    void creationBeforeDeletionIsRename() throws IOException {
+        Files.move(file, renamedFile);
+
+        renameDetector.startCheck();
+        assertTrue(renameDetector.deferCreation(renamedFile));
+        assertTrue(renameDetector.deferDeletion(file));
+        RenameDetector.Resolution resolution = renameDetector.endCheck();
+
+        assertEquals(List.of(new RenameDetector.Rename(file, renamedFile)), resolution.renames());
+    }
+
+    @Test
+    void unmatchedEventsAreNotRenames() throws IOException {
+        Path hardLink = Files.createLink(sourceDir.resolve("link.txt"), file);
+        Path other = Files.writeString(sourceDir.resolve("other.txt"), "other");
+        renameDetector.record(other);
+        Files.delete(other);
+
+        renameDetector.startCheck();
+        // A new file may reuse the file key of the deleted one, but not its size and last modified time
+        assertFalse(renameDetector.deferCreation(Files.writeString(sourceDir.resolve("new.txt"), "new")));
+        assertTrue(renameDetector.deferCreation(hardLink));
+        assertTrue(renameDetector.deferDeletion(other));
+        RenameDetector.Resolution resolution = renameDetector.endCheck();
+
+        assertTrue(resolution.renames().isEmpty());
+        assertEquals(List.of(other), resolution.deletions());
+        assertEquals(List.of(hardLink), resolution.creations());
+    }
+
+    @Test
+    void eventsOutsideCheckAreNotDeferred() throws IOException {
+        Files.move(file, renamedFile);
+
+        assertFalse(renameDetector.deferDeletion(file));
+        assertFalse(renameDetector.deferCreation(renamedFile));
+    }
+
+    @Test
+    void renamedFileCanBeRenamedAgain() throws IOException {
+        Files.move(file, renamedFile);
+        renameDetector.renamed(new RenameDetector.Rename(file, renamedFile));
+        Path renamedAgain = Files.move(renamedFile, sourceDir.resolve("again.txt"));
+
+        renameDetector.startCheck();
+        assertFalse(renameDetector.deferDeletion(file));
+        assertTrue(renameDetector.deferDeletion(renamedFile));
+        assertTrue(renameDetector.deferCreation(renamedAgain));
+
+        assertEquals(List.of(new RenameDetector.Rename(renamedFile, renamedAgain)),
+                renameDetector.endCheck().renames());
+    }
+}
@@ -0,0 +1,181 @@
+package org.dirsync.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncEventQueueTest {
+
+    @TempDir
+    private Path spillDir;
+
+    private SyncEventQueue syncEventQueue;
+
+    @AfterEach
+    void tearDown() {
+        if (syncEventQueue != null) {
+            syncEventQueue.discard();
+        }
+    }
+
+    @Test
+    void eventsAreTakenInOrder() throws IOException {
+        syncEventQueue = new SyncEventQueue(10, spillDir, 0);
+        List<SyncEventQueue.SyncEvent> events = events(5);
+
+        for (SyncEventQueue.SyncEvent event : events) {
+            syncEventQueue.put(event);
+        }
+
+        assertEquals(events, takeAll(5));
+        assertEquals(0, syncEventQueue.getMetrics().numSpilled());
+    }
+
+    @Test
+    void eventsPastCapacityAreSpilledInOrder() throws IOException {
+        // Segments of a few events, so spilled events span several of them
+        syncEventQueue = new SyncEventQueue(10, spillDir, 0, 100);
+        List<SyncEventQueue.SyncEvent> events = events(100);
+
+        for (SyncEventQueue.SyncEvent event : events.subList(0, 50)) {
+            syncEventQueue.put(event);
+        }
+        List<SyncEventQueue.SyncEvent> taken = new ArrayList<>(takeAll(20));
+        // Events put while spilled events are pending are spilled too
+        for (SyncEventQueue.SyncEvent event : events.subList(50, 100)) {
+            syncEventQueue.put(event);
+        }
+        taken.addAll(takeAll(80));
+
+        assertEquals(events, taken);
+        SyncEventQueue.Metrics metrics = syncEventQueue.getMetrics();
+        assertEquals(100, metrics.numPut());
+        assertEquals(100, metrics.numTaken());
+        assertEquals(90, metrics.numSpilled());
+        assertEquals(0, metrics.numSpilledPending());
+        assertEquals(0, metrics.spilledBytes());
+        try (Stream<Path> segments = Files.list(spillDir)) {
+            assertEquals(0, segments.count());
+        }
+    }
+
+    @Test
+    void putBlocksWhenSpilledBytesReachLimit() throws Exception {
+        syncEventQueue = new SyncEventQueue(1, spillDir, 1);
+        List<SyncEventQueue.SyncEvent> events = events(3);
+        syncEventQueue.put(events.get(0));
+        syncEventQueue.put(events.get(1));
+
+        CompletableFuture<Void> blockedPut = CompletableFuture.runAsync(() -> {
+            try {
+                syncEventQueue.put(events.get(2));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(blockedPut.isDone());
+
+        assertEquals(events.subList(0, 2), takeAll(2));
+        blockedPut.get(5, TimeUnit.SECONDS);
+        assertEquals(events.get(2), syncEventQueue.take());
+    }
+
+    @Test
+    void takeReturnsNullOnceClosedAndDrained() throws IOException {
+        syncEventQueue = new SyncEventQueue(1, spillDir, 0);
+        List<SyncEventQueue.SyncEvent> events = events(2);
+        syncEventQueue.put(events.get(0));
+        syncEventQueue.put(events.get(1));
+
+        syncEventQueue.close();
+
+        assertThrows(IllegalStateException.class, () -> syncEventQueue.put(events.get(0)));
+        assertEquals(events, takeAll(2));
+        assertNull(syncEventQueue.take());
+    }
+
+    @Test
+    void eventsNotTakenAreReplayedByNextQueue() throws IOException {
+        syncEventQueue = new SyncEventQueue(2, spillDir, 0, 100);
+        List<SyncEventQueue.SyncEvent> events = events(20);
+        for (SyncEventQueue.SyncEvent event : events.subList(0, 15)) {
+            syncEventQueue.put(event);
+        }
+        List<SyncEventQueue.SyncEvent> taken = new ArrayList<>(takeAll(5));
+
+        syncEventQueue.closeKeepingSpilled();
+        SyncEventQueue.SyncEvent event;
+        while ((event = syncEventQueue.take()) != null) {
+            taken.add(event);
+        }
+        syncEventQueue.release();
+        int numTaken = taken.size();
+        assertTrue(numTaken < 15);
+
+        syncEventQueue = new SyncEventQueue(2, spillDir, 0, 100);
+        for (SyncEventQueue.SyncEvent replayed : events.subList(15, 20)) {
+            syncEventQueue.put(replayed);
+        }
+        taken.addAll(takeAll(20 - numTaken));
+
+        assertEquals(events, taken);
+    }
+
+    @Test
+    void eventCutShortIsNotReplayed() throws IOException {
+        syncEventQueue = new SyncEventQueue(1, spillDir, 0);
+        List<SyncEventQueue.SyncEvent> events = events(3);
+        for (SyncEventQueue.SyncEvent event : events) {
+            syncEventQueue.put(event);
+        }
+        syncEventQueue.closeKeepingSpilled();
+        assertEquals(events.get(0), syncEventQueue.take());
+        assertNull(syncEventQueue.take());
+        syncEventQueue.release();
+        Path segment;
+        try (Stream<Path> segments = Files.list(spillDir)) {
+            segment = segments.findFirst().orElseThrow();
+        }
+        // A crash while spilling the next event
+        Files.write(segment, new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+
+        syncEventQueue = new SyncEventQueue(1, spillDir, 0);
+
+        assertEquals(2, syncEventQueue.getMetrics().numSpilledPending());
+        assertEquals(events.subList(1, 3), takeAll(2));
+    }
+
+    private List<SyncEventQueue.SyncEvent> takeAll(int numEvents) throws IOException {
+        List<SyncEventQueue.SyncEvent> taken = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            taken.add(syncEventQueue.take());
+        }
+        return taken;
+    }
+
+    private static List<SyncEventQueue.SyncEvent> events(int numEvents) {
+        SyncEventQueue.SyncEvent.Type[] types = SyncEventQueue.SyncEvent.Type.values();
+        List<SyncEventQueue.SyncEvent> events = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            events.add(new SyncEventQueue.SyncEvent(types[i % types.length], Path.of("dir", i + ".txt"), i));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,201 @@
+package org.dirsync.controller;
+
+import org.dirsync.controller.SyncOperationScheduler.Lane;
+import org.dirsync.controller.SyncOperationScheduler.LaneSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncOperationSchedulerTest {
+
+    private static final long SMALL_FILE_THRESHOLD = 1024;
+
+    private SyncOperationScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void smallFilesAreNotBlockedByLargeFiles() throws Exception {
+        scheduler = new SyncOperationScheduler(2, SMALL_FILE_THRESHOLD, Map.of(
+                Lane.SMALL_FILES, new LaneSettings(1, 1),
+                Lane.LARGE_FILES, new LaneSettings(1, 1)));
+        CountDownLatch largeFileCopying = new CountDownLatch(1);
+        CompletableFuture<Void> largeFile =
+                scheduler.submit(Lane.LARGE_FILES, Path.of("large1"), () -> await(largeFileCopying));
+        scheduler.submit(Lane.LARGE_FILES, Path.of("large2"), () -> await(largeFileCopying));
+
+        List<CompletableFuture<Void>> smallFiles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            smallFiles.add(scheduler.submit(Lane.SMALL_FILES, Path.of("small" + i), () -> {}));
+        }
+
+        CompletableFuture.allOf(smallFiles.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertFalse(largeFile.isDone());
+        largeFileCopying.countDown();
+        largeFile.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void lanesShareWorkersByWeight() throws Exception {
+        scheduler = new SyncOperationScheduler(1, SMALL_FILE_THRESHOLD, Map.of(
+                Lane.SMALL_FILES, new LaneSettings(1, 3),
+                Lane.LARGE_FILES, new LaneSettings(1, 1)));
+        CountDownLatch workerBlocked = new CountDownLatch(1);
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        scheduler.submit(Lane.DELETES, Path.of("blocker"), () -> {
+            blockerStarted.countDown();
+            await(workerBlocked);
+        });
+        // The lanes must be filled while the only worker is busy, so the round-robin starts with all of them
+        blockerStarted.await(5, TimeUnit.SECONDS);
+        List<Lane> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> operations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            operations.add(scheduler.submit(Lane.LARGE_FILES, Path.of("large" + i),
+                    () -> executionOrder.add(Lane.LARGE_FILES)));
+        }
+        for (int i = 0; i < 12; i++) {
+            operations.add(scheduler.submit(Lane.SMALL_FILES, Path.of("small" + i),
+                    () -> executionOrder.add(Lane.SMALL_FILES)));
+        }
+
+        workerBlocked.countDown();
+        CompletableFuture.allOf(operations.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < executionOrder.size(); i += 4) {
+            List<Lane> round = executionOrder.subList(i, i + 4);
+            assertEquals(3, Collections.frequency(round, Lane.SMALL_FILES), "Unexpected round: " + round);
+            assertEquals(1, Collections.frequency(round, Lane.LARGE_FILES), "Unexpected round: " + round);
+        }
+    }
+
+    @Test
+    void operationsOnSamePathRunInOrder() throws Exception {
+        scheduler = new SyncOperationScheduler(4, SMALL_FILE_THRESHOLD, Map.of(
+                Lane.LARGE_FILES, new LaneSettings(4, 1),
+                Lane.DELETES, new LaneSettings(4, 1)));
+        Path path = Path.of("file");
+        CountDownLatch copying = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(Lane.LARGE_FILES, path, () -> {
+            await(copying);
+            executionOrder.add("copy");
+        });
+        CompletableFuture<Void> delete = scheduler.submit(Lane.DELETES, path, () -> executionOrder.add("delete"));
+
+        assertFalse(delete.isDone());
+        copying.countDown();
+        delete.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("copy", "delete"), executionOrder);
+    }
+
+    @Test
+    void operationOnSeveralPathsRunsInOrderWithEach() throws Exception {
+        scheduler = new SyncOperationScheduler(4, SMALL_FILE_THRESHOLD, Map.of(
+                Lane.SMALL_FILES, new LaneSettings(4, 1),
+                Lane.DELETES, new LaneSettings(4, 1)));
+        Path from = Path.of("from");
+        Path to = Path.of("to");
+        CountDownLatch copying = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(Lane.SMALL_FILES, from, () -> {
+            await(copying);
+            executionOrder.add("copy from");
+        });
+        CompletableFuture<Void> rename = scheduler.submit(Lane.SMALL_FILES, List.of(from, to),
+                () -> executionOrder.add("rename"));
+        CompletableFuture<Void> delete = scheduler.submit(Lane.DELETES, to, () -> executionOrder.add("delete to"));
+
+        assertFalse(rename.isDone());
+        assertFalse(delete.isDone());
+        copying.countDown();
+        delete.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("copy from", "rename", "delete to"), executionOrder);
+    }
+
+    @Test
+    void treeOperationRunsInOrderWithPathsInside() throws Exception {
+        scheduler = new SyncOperationScheduler(4, SMALL_FILE_THRESHOLD, Map.of(
+                Lane.SMALL_FILES, new LaneSettings(4, 1),
+                Lane.DELETES, new LaneSettings(4, 1)));
+        Path dir = Path.of("dir");
+        CountDownLatch copying = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(Lane.SMALL_FILES, dir.resolve("sub/file"), () -> {
+            await(copying);
+            executionOrder.add("copy file");
+        });
+        CompletableFuture<Void> deleteDir = scheduler.submitTree(Lane.DELETES, dir,
+                () -> executionOrder.add("delete dir"));
+        CompletableFuture<Void> copyOther = scheduler.submit(Lane.SMALL_FILES, dir.resolve("other"),
+                () -> executionOrder.add("copy other"));
+        CompletableFuture<Void> outside = scheduler.submit(Lane.SMALL_FILES, Path.of("outside"), () -> { });
+
+        outside.get(5, TimeUnit.SECONDS);
+        assertFalse(deleteDir.isDone());
+        assertFalse(copyOther.isDone());
+        copying.countDown();
+        copyOther.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("copy file", "delete dir", "copy other"), executionOrder);
+    }
+
+    @Test
+    void failedOperationCompletesExceptionally() {
+        scheduler = new SyncOperationScheduler(1, SMALL_FILE_THRESHOLD, Map.of());
+        CompletableFuture<Void> operation = scheduler.submit(Lane.SMALL_FILES, Path.of("file"), () -> {
+            throw new IllegalStateException("Copy failed");
+        });
+        assertTrue(operation.handle((ignored, e) -> e != null).join());
+    }
+
+    @Test
+    void operationThrowingErrorCompletesExceptionally() {
+        scheduler = new SyncOperationScheduler(1, SMALL_FILE_THRESHOLD, Map.of());
+        CompletableFuture<Void> operation = scheduler.submit(Lane.SMALL_FILES, Path.of("file"), () -> {
+            throw new Error("Copy failed");
+        });
+        assertTrue(operation.handle((ignored, e) -> e instanceof Error).join());
+    }
+
+    @Test
+    void submitAfterShutdownIsRejected() throws Exception {
+        scheduler = new SyncOperationScheduler(1, SMALL_FILE_THRESHOLD, Map.of());
+        CountDownLatch copying = new CountDownLatch(1);
+        CompletableFuture<Void> copy = scheduler.submit(Lane.SMALL_FILES, Path.of("file"), () -> await(copying));
+        CompletableFuture<Void> delete = scheduler.submit(Lane.DELETES, Path.of("file"), () -> {});
+
+        scheduler.shutdown();
+
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.submit(Lane.SMALL_FILES, Path.of("other"), () -> {}));
+        // Operations submitted before the shutdown still run, including the ones waiting for their path
+        copying.countDown();
+        copy.get(5, TimeUnit.SECONDS);
+        delete.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
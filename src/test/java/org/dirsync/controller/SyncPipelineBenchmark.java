@@ -0,0 +1,123 @@
+package org.dirsync.controller;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.dirsync.model.file.InMemoryTargetStorage;
+import org.dirsync.model.file.SyncFileFactoryImpl;
+import org.dirsync.model.file.SyncFileOptions;
+import org.dirsync.model.file.TargetLayout;
+import org.dirsync.util.RetryScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of the synchronization pipeline, from the file events of the observer to the target
+ * storage, with the target kept in memory so the disk is not measured. Source files are small enough to stay in the
+ * page cache:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.dirsync.controller.SyncPipelineBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncPipelineBenchmark {
+
+    private static final int NUM_FILES = 1024;
+
+    @Param({"false", "true"})
+    private boolean tailSync;
+
+    private Path tempDir;
+    private File[] files;
+    private SyncFileFactoryImpl syncFileFactory;
+    private SyncRetryQueue syncRetryQueue;
+    private DirectorySynchronizerImpl directorySynchronizer;
+    private final AtomicInteger nextFile = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("pipeline-benchmark");
+        Path sourceDir = Files.createDirectories(tempDir.resolve("source"));
+        Path targetDir = Files.createDirectories(tempDir.resolve("target"));
+        files = new File[NUM_FILES];
+        for (int i = 0; i < NUM_FILES; i++) {
+            files[i] = Files.writeString(sourceDir.resolve(i + ".txt"), "line " + i + "\n").toFile();
+        }
+        SyncDirectoriesInfo syncDirectoriesInfo = new SyncDirectoriesInfo(sourceDir.toString(), targetDir.toString());
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder()
+                .targetLayout(TargetLayout.MIRRORED)
+                .tailSync(tailSync)
+                .build();
+        syncFileFactory = new SyncFileFactoryImpl(syncDirectoriesInfo, options, new InMemoryTargetStorage());
+        syncRetryQueue = new SyncRetryQueue(new RetryScheduler(), new DeadLetterStore());
+        directorySynchronizer = DirectorySynchronizerImpl.builder()
+                .syncDirectoriesInfo(syncDirectoriesInfo)
+                .fileAlterationMonitor(new FileAlterationMonitor())
+                .syncFileFactory(syncFileFactory)
+                .syncRetryQueue(syncRetryQueue)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // The monitor was never started, so the synchronizer is not stopped, only what it holds is closed
+        syncRetryQueue.close();
+        syncFileFactory.close();
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Benchmark
+    public void create() {
+        directorySynchronizer.onFileCreate(nextFile());
+    }
+
+    @Benchmark
+    public void createAndDelete() {
+        File file = nextFile();
+        directorySynchronizer.onFileCreate(file);
+        directorySynchronizer.onFileDelete(file);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void createConcurrently() {
+        directorySynchronizer.onFileCreate(nextFile());
+    }
+
+    private File nextFile() {
+        return files[(nextFile.getAndIncrement() & Integer.MAX_VALUE) % NUM_FILES];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SyncPipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
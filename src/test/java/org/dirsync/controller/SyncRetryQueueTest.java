@@ -0,0 +1,121 @@
+package org.dirsync.controller;
+
+import org.dirsync.controller.DeadLetterStore.DeadLetter;
+import org.dirsync.util.RetryScheduler;
+import org.dirsync.util.RetryScheduler.RetryPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncRetryQueueTest {
+
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(10),
+            1.0, 0, Duration.ofSeconds(5));
+
+    @TempDir
+    private Path tempDir;
+
+    private Path deadLetterFile;
+
+    private SyncRetryQueue syncRetryQueue;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deadLetterFile = tempDir.resolve("dead-letters.log");
+        syncRetryQueue = new SyncRetryQueue(new RetryScheduler(RETRY_POLICY), new DeadLetterStore(deadLetterFile));
+    }
+
+    @AfterEach
+    void tearDown() {
+        syncRetryQueue.close();
+    }
+
+    @Test
+    void transientFailureIsRetried() {
+        AtomicInteger numAttempts = new AtomicInteger();
+        syncRetryQueue.retry(Path.of("file.txt"), "copy", () -> {
+            if (numAttempts.incrementAndGet() < 2) {
+                throw new IOException("Transient failure");
+            }
+        }, new IOException("First failure"));
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> syncRetryQueue.getNumPendingRetries() == 0);
+        assertEquals(2, numAttempts.get());
+        assertTrue(syncRetryQueue.getDeadLetterStore().getDeadLetters().isEmpty());
+    }
+
+    @Test
+    void poisonFileIsDeadLetteredAndPersisted() throws IOException {
+        Path poisonFile = Path.of("poison.txt");
+        syncRetryQueue.retry(poisonFile, "copy", () -> {
+            throw new IOException("Permanent failure");
+        }, new IOException("First failure"));
+
+        await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> !syncRetryQueue.getDeadLetterStore().getDeadLetters().isEmpty());
+        List<DeadLetter> deadLetters = new DeadLetterStore(deadLetterFile).getDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals("copy", deadLetters.get(0).operation());
+        assertEquals(poisonFile, deadLetters.get(0).path());
+        assertEquals("Permanent failure", deadLetters.get(0).error());
+    }
+
+    @Test
+    void newerOperationCancelsPendingRetry() throws InterruptedException {
+        AtomicInteger numAttempts = new AtomicInteger();
+        Path path = Path.of("file.txt");
+        syncRetryQueue.retry(path, "copy", numAttempts::incrementAndGet, new IOException("First failure"));
+        syncRetryQueue.cancel(path);
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(0, numAttempts.get());
+        assertEquals(0, syncRetryQueue.getNumPendingRetries());
+        assertTrue(syncRetryQueue.getDeadLetterStore().getDeadLetters().isEmpty());
+    }
+
+    @Test
+    void attemptLaunchedAfterCancelDoesNothing() throws Exception {
+        AtomicInteger numAttempts = new AtomicInteger();
+        Path path = Path.of("file.txt");
+        CompletableFuture<Callable<Void>> launched = new CompletableFuture<>();
+        syncRetryQueue.retry(path, "copy", numAttempts::incrementAndGet, new IOException("First failure"), attempt -> {
+            launched.complete(attempt);
+            return new CompletableFuture<>();
+        });
+
+        Callable<Void> attempt = launched.get(5, TimeUnit.SECONDS);
+        // A newer operation on the path ran before the attempt
+        syncRetryQueue.cancel(path);
+        attempt.call();
+
+        assertEquals(0, numAttempts.get());
+    }
+
+    @Test
+    void malformedDeadLettersAreSkipped() throws IOException {
+        Files.writeString(deadLetterFile, String.join(System.lineSeparator(),
+                "2024-01-01T00:00:00Z\tcopy\tfirst.txt\tFailed",
+                "not a dead letter",
+                "2024-01-01T00:00:01Z\tdelete\tsecond.txt\tFailed"));
+
+        List<DeadLetter> deadLetters = new DeadLetterStore(deadLetterFile).getDeadLetters();
+
+        assertEquals(List.of(Path.of("first.txt"), Path.of("second.txt")),
+                deadLetters.stream().map(DeadLetter::path).toList());
+    }
+}
@@ -0,0 +1,89 @@
+package org.dirsync.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class WatchKeyRegistryTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private WatchService watchService;
+    private WatchKeyRegistry watchKeyRegistry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watchKeyRegistry = new WatchKeyRegistry(watchService);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        watchKeyRegistry.close();
+        watchService.close();
+    }
+
+    @Test
+    void treeIsRegisteredExceptExcludedDirectories() throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            dirs.add(Files.createDirectories(tempDir.resolve("dir" + i).resolve("sub" + i)));
+        }
+        Path excluded = Files.createDirectories(tempDir.resolve("excluded").resolve("sub"));
+        Files.writeString(tempDir.resolve("dir0").resolve("file.txt"), "content");
+
+        watchKeyRegistry.registerTree(tempDir, dir -> !dir.getFileName().toString().equals("excluded"),
+                watchKeyRegistry::register);
+
+        // The root, ten directories and their sub-directories
+        assertEquals(21, watchKeyRegistry.size());
+        WatchKey watchKey = watchKeyRegistry.register(dirs.get(3));
+        assertEquals(dirs.get(3), watchKeyRegistry.getDirectory(watchKey));
+        assertEquals(21, watchKeyRegistry.size());
+        // Registering a directory again returns its key, so a new key means it was not registered
+        assertNull(watchKeyRegistry.getDirectory(excluded.getParent().register(watchService, ENTRY_CREATE)));
+    }
+
+    @Test
+    void cancelTreeCancelsOnlySubDirectories() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("dir").resolve("sub").resolve("subSub"));
+        Path sibling = Files.createDirectories(tempDir.resolve("dir-sibling"));
+        watchKeyRegistry.registerTree(tempDir, path -> true, watchKeyRegistry::register);
+        WatchKey siblingKey = watchKeyRegistry.register(sibling);
+
+        List<Path> cancelled = watchKeyRegistry.cancelTree(tempDir.resolve("dir"));
+
+        assertEquals(Set.of(tempDir.resolve("dir"), dir.getParent(), dir), Set.copyOf(cancelled));
+        assertEquals(2, watchKeyRegistry.size());
+        assertEquals(sibling, watchKeyRegistry.getDirectory(siblingKey));
+        assertFalse(watchKeyRegistry.cancelTree(tempDir.resolve("missing")).iterator().hasNext());
+    }
+
+    @Test
+    void modificationsAreNotWatched() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        watchKeyRegistry.register(tempDir);
+
+        Files.writeString(file, "modified");
+
+        assertNull(watchService.poll(500, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,44 @@
+package org.dirsync.controller.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemEventUtilsTest {
+
+    private final Map<Path, FileSystemEvent> latestByPath = new HashMap<>();
+
+    @Test
+    void latestEventOfPathIsKept() {
+        // Neither file exists, the sequence alone decides
+        Path recreated = Path.of("missing", "recreated.txt");
+        Path deleted = Path.of("missing", "deleted.txt");
+        FileSystemEvent recreatedEvent = new FileSystemEvent(recreated, FileSystemEvent.Type.CREATED, 2);
+        FileSystemEvent deletedEvent = new FileSystemEvent(deleted, FileSystemEvent.Type.DELETED, 3);
+
+        FileSystemEventUtils.keepLatest(latestByPath, new FileSystemEvent(recreated, FileSystemEvent.Type.DELETED, 0));
+        FileSystemEventUtils.keepLatest(latestByPath, new FileSystemEvent(deleted, FileSystemEvent.Type.CREATED, 1));
+        FileSystemEventUtils.keepLatest(latestByPath, deletedEvent);
+        FileSystemEventUtils.keepLatest(latestByPath, recreatedEvent);
+
+        assertEquals(Set.of(recreatedEvent, deletedEvent), FileSystemEventUtils.drainLatest(latestByPath));
+    }
+
+    @Test
+    void earlierEventKeptOutOfOrderIsReplaced() {
+        Path path = Path.of("file.txt");
+        FileSystemEvent latest = new FileSystemEvent(path, FileSystemEvent.Type.DELETED, 5);
+
+        FileSystemEventUtils.keepLatest(latestByPath, latest);
+        FileSystemEventUtils.keepLatest(latestByPath, new FileSystemEvent(path, FileSystemEvent.Type.CREATED, 4));
+
+        assertEquals(Set.of(latest), FileSystemEventUtils.drainLatest(latestByPath));
+        assertTrue(latestByPath.isEmpty());
+    }
+}
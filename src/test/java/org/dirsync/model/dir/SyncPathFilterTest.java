@@ -0,0 +1,66 @@
+package org.dirsync.model.dir;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SyncPathFilterTest {
+
+    private static final String SOURCE_DIR_PATH = "source";
+
+    private static Stream<Arguments> excludes() {
+        return Stream.of(
+                Arguments.of(".git", ".git", true, false),
+                Arguments.of(".git", "project/.git/objects/ab", false, false),
+                Arguments.of(".git", ".gitignore", false, true),
+                Arguments.of("node_modules", "web/node_modules", true, false),
+                Arguments.of("target/", "module/target", true, false),
+                Arguments.of("target/", "module/target", false, true),
+                Arguments.of("build/out", "build/out/classes/A.class", false, false),
+                Arguments.of("build/out", "module/build/out", true, true),
+                Arguments.of("*.tmp", "dir/file.tmp", false, false),
+                Arguments.of("*.tmp", "dir/file.txt", false, true),
+                Arguments.of("logs/*.log", "logs/app.log", false, false),
+                Arguments.of("logs/*.log", "other/app.log", false, true),
+                Arguments.of("regex:.*/cache/.*", "a/cache/b", false, false),
+                Arguments.of("regex:.*/cache/.*", "a/b", false, true)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("excludes")
+    void testExclude(String rule, String relativePath, boolean isDirectory, boolean expectedAccepted) {
+        SyncPathFilter syncPathFilter = new SyncPathFilter(SOURCE_DIR_PATH, List.of(), List.of(rule));
+        assertEquals(expectedAccepted, syncPathFilter.accept(Path.of(SOURCE_DIR_PATH, relativePath), () -> isDirectory));
+    }
+
+    private static Stream<Arguments> includes() {
+        return Stream.of(
+                Arguments.of("*.txt", "dir/file.txt", false, true),
+                Arguments.of("*.txt", "dir/file.bin", false, false),
+                Arguments.of("*.txt", "dir", true, true),
+                Arguments.of("docs", "docs/guide/index.html", false, true),
+                Arguments.of("docs", "src/Main.java", false, false)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("includes")
+    void testInclude(String rule, String relativePath, boolean isDirectory, boolean expectedAccepted) {
+        SyncPathFilter syncPathFilter = new SyncPathFilter(SOURCE_DIR_PATH, List.of(rule), List.of());
+        assertEquals(expectedAccepted, syncPathFilter.accept(Path.of(SOURCE_DIR_PATH, relativePath), () -> isDirectory));
+    }
+
+    @ParameterizedTest
+    @MethodSource("excludes")
+    void testExcludeWinsOverInclude(String rule, String relativePath, boolean isDirectory, boolean expectedAccepted) {
+        SyncPathFilter syncPathFilter = new SyncPathFilter(SOURCE_DIR_PATH, List.of("**"), List.of(rule));
+        assertEquals(expectedAccepted, syncPathFilter.accept(Path.of(SOURCE_DIR_PATH, relativePath), () -> isDirectory));
+    }
+}
@@ -0,0 +1,99 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressingTargetStorageTest {
+
+    private static final String CONTENT = "line of text\n".repeat(1000);
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void copyCompressesFile() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.txt"), CONTENT);
+        File target = tempDir.resolve("target/source.txt.gz").toFile();
+
+        new CompressingTargetStorage(Deflater.BEST_COMPRESSION).copy(source.toFile(), target);
+
+        assertTrue(target.length() < Files.size(source));
+        assertEquals(CONTENT, decompress(target));
+    }
+
+    @Test
+    void textFileUsesCompressedTargetName() throws IOException {
+        File source = Files.writeString(tempDir.resolve("source.txt"), CONTENT).toFile();
+        String targetDirPath = tempDir.resolve("target").toString();
+        TextFile textFile = new TextFile(source, "", new CompressingTargetStorage(Deflater.DEFAULT_COMPRESSION));
+
+        textFile.copy(targetDirPath);
+        File targetFile = new File(targetDirPath, "source.txt.gz");
+        assertEquals(targetFile, textFile.getTargetFile(targetDirPath));
+        assertEquals(CONTENT, decompress(targetFile));
+
+        textFile.delete(targetDirPath);
+        assertFalse(targetFile.exists());
+    }
+
+    @Test
+    void appendAddsCompressedMember() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.txt"), CONTENT);
+        File target = tempDir.resolve("target/source.txt.gz").toFile();
+        CompressingTargetStorage storage = new CompressingTargetStorage(Deflater.DEFAULT_COMPRESSION);
+        storage.copy(source.toFile(), target);
+
+        Files.writeString(source, CONTENT + "appended line\n");
+        storage.append(source.toFile(), CONTENT.length(), Files.size(source), target);
+
+        assertEquals(CONTENT + "appended line\n", decompress(target));
+    }
+
+    @Test
+    void appendAfterSourceGrewDuringCopyCompressesAgain() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.txt"), CONTENT + "written during the copy\n");
+        File target = tempDir.resolve("target/source.txt.gz").toFile();
+        CompressingTargetStorage storage = new CompressingTargetStorage(Deflater.DEFAULT_COMPRESSION);
+        // The copy read bytes past the length the source file had when the copy started
+        storage.copy(source.toFile(), target);
+
+        storage.append(source.toFile(), CONTENT.length(), Files.size(source), target);
+
+        assertEquals(CONTENT + "written during the copy\n", decompress(target));
+    }
+
+    @Test
+    void appendAfterInterruptedAppendCompressesAgain() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.txt"), CONTENT);
+        File target = tempDir.resolve("target/source.txt.gz").toFile();
+        CompressingTargetStorage storage = new CompressingTargetStorage(Deflater.DEFAULT_COMPRESSION);
+        storage.copy(source.toFile(), target);
+        // A partial member left by an interrupted append
+        Files.write(target.toPath(), new byte[]{0x1f, (byte) 0x8b}, StandardOpenOption.APPEND);
+
+        Files.writeString(source, CONTENT + "appended line\n");
+        storage.append(source.toFile(), CONTENT.length(), Files.size(source), target);
+
+        assertEquals(CONTENT + "appended line\n", decompress(target));
+    }
+
+    private static String decompress(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ContentAddressableStorageTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private Path objectsDir;
+
+    private ContentAddressableStorage contentAddressableStorage;
+
+    @BeforeEach
+    void setUp() {
+        objectsDir = tempDir.resolve("objects");
+        contentAddressableStorage = new ContentAddressableStorage(objectsDir);
+    }
+
+    @Test
+    void identicalVersionsAreStoredOnce() throws IOException {
+        File source = createSourceFile("content");
+        File target1 = tempDir.resolve("target/file[10:00:00].bin").toFile();
+        File target2 = tempDir.resolve("target/file[10:00:01].bin").toFile();
+
+        contentAddressableStorage.copy(source, target1);
+        contentAddressableStorage.copy(source, target2);
+
+        assertEquals("content", Files.readString(target1.toPath()));
+        assertEquals("content", Files.readString(target2.toPath()));
+        assertEquals(1, countBlobs());
+    }
+
+    @Test
+    void differentVersionsAreStoredSeparately() throws IOException {
+        File source = createSourceFile("content");
+        File target1 = tempDir.resolve("target/file[10:00:00].bin").toFile();
+        contentAddressableStorage.copy(source, target1);
+
+        Files.writeString(source.toPath(), "modified content");
+        File target2 = tempDir.resolve("target/file[10:00:01].bin").toFile();
+        contentAddressableStorage.copy(source, target2);
+
+        assertEquals("content", Files.readString(target1.toPath()));
+        assertEquals("modified content", Files.readString(target2.toPath()));
+        assertEquals(2, countBlobs());
+    }
+
+    @Test
+    void blobIsRemovedWithItsLastTargetFile() throws IOException {
+        File source = createSourceFile("content");
+        File target1 = tempDir.resolve("target/file[10:00:00].bin").toFile();
+        File target2 = tempDir.resolve("target/file[10:00:01].bin").toFile();
+        contentAddressableStorage.copy(source, target1);
+        contentAddressableStorage.copy(source, target2);
+
+        contentAddressableStorage.delete(target1);
+        assertFalse(target1.exists());
+        assertEquals(1, countBlobs());
+
+        contentAddressableStorage.delete(target2);
+        assertFalse(target2.exists());
+        assertEquals(0, countBlobs());
+    }
+
+    @Test
+    void blobIsRemovedWithItsLastTargetFileAfterRestart() throws IOException {
+        File source = createSourceFile("content");
+        File target = tempDir.resolve("target/file[10:00:00].bin").toFile();
+        contentAddressableStorage.copy(source, target);
+
+        new ContentAddressableStorage(objectsDir).delete(target);
+
+        assertFalse(target.exists());
+        assertEquals(0, countBlobs());
+    }
+
+    @Test
+    void blobOfReplacedTargetFileIsRemoved() throws IOException {
+        File source = createSourceFile("content");
+        File target = tempDir.resolve("target/file.bin").toFile();
+        File destination = tempDir.resolve("target/moved.bin").toFile();
+        contentAddressableStorage.copy(source, target);
+        Files.writeString(source.toPath(), "modified content");
+        contentAddressableStorage.copy(source, destination);
+
+        contentAddressableStorage.move(target, destination);
+
+        assertEquals("content", Files.readString(destination.toPath()));
+        assertEquals(1, countBlobs());
+        contentAddressableStorage.delete(destination);
+        assertEquals(0, countBlobs());
+    }
+
+    @Test
+    void hashingStoredContentIsThrottled() throws IOException {
+        AtomicLong acquiredBytes = new AtomicLong();
+        IoThrottle countingThrottle = new IoThrottle(0, 0) {
+            @Override
+            public void acquireBytes(long numBytes) {
+                acquiredBytes.addAndGet(numBytes);
+            }
+        };
+        contentAddressableStorage = new ContentAddressableStorage(objectsDir, countingThrottle);
+        File source = createSourceFile("content");
+        contentAddressableStorage.copy(source, tempDir.resolve("target/file[10:00:00].bin").toFile());
+        acquiredBytes.set(0);
+
+        contentAddressableStorage.copy(source, tempDir.resolve("target/file[10:00:01].bin").toFile());
+
+        assertEquals("content".length(), acquiredBytes.get());
+    }
+
+    private File createSourceFile(String content) throws IOException {
+        Path source = tempDir.resolve("source.bin");
+        Files.writeString(source, content);
+        return source.toFile();
+    }
+
+    private long countBlobs() throws IOException {
+        try (Stream<Path> paths = Files.walk(objectsDir)) {
+            // Blobs are stored in sub-directories, next to the index
+            return paths.filter(Files::isRegularFile).filter(path -> !path.getParent().equals(objectsDir)).count();
+        }
+    }
+}
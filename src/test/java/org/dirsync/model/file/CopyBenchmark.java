@@ -0,0 +1,110 @@
+package org.dirsync.model.file;
+
+import org.apache.commons.io.FileUtils;
+import org.dirsync.util.DirectBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and allocation rate of the copy paths. Run it with the GC profiler, whose
+ * {@code gc.alloc.rate.norm} shows the bytes allocated per copy:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.dirsync.model.file.CopyBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"4096", "1048576"})
+    private int fileSize;
+
+    private Path tempDir;
+    private File source;
+    private File target;
+    private ExecutorService executor;
+    private TargetStorage localTargetStorage;
+    private TargetStorage contentAddressableStorage;
+    private TargetStorage parallelRangeTargetStorage;
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("copy-benchmark");
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        source = Files.write(tempDir.resolve("source.bin"), content).toFile();
+        target = tempDir.resolve("target/source.bin").toFile();
+        executor = Executors.newFixedThreadPool(4);
+        localTargetStorage = new LocalTargetStorage();
+        contentAddressableStorage = new ContentAddressableStorage(tempDir.resolve("objects"));
+        parallelRangeTargetStorage = new ParallelRangeTargetStorage(localTargetStorage, 0, 4, 64 * 1024,
+                executor, IoThrottle.unlimited());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Benchmark
+    public void localCopy() throws IOException {
+        localTargetStorage.copy(source, target);
+    }
+
+    @Benchmark
+    public void contentAddressableCopy() throws IOException {
+        contentAddressableStorage.copy(source, target);
+    }
+
+    @Benchmark
+    public void parallelRangeCopy() throws IOException {
+        parallelRangeTargetStorage.copy(source, target);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ByteBuffer pooledBuffer() {
+        DirectBufferPool pool = DirectBufferPool.shared();
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        return buffer;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CopyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
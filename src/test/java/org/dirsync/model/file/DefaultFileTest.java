@@ -35,6 +35,22 @@ class DefaultFileTest {
         Assertions.assertFalse(expectedTargetFile.exists());
     }
 
+    @Test
+    void testDeleteIgnoresTemporaryFileOfTargetFile() throws IOException {
+        File nonTxtSourceFile = createNonTxtSourceFile();
+        File expectedTargetFile = createExpectedTargetFile(nonTxtSourceFile);
+        File temporaryFile = new File(expectedTargetFile.getParentFile(), "." + expectedTargetFile.getName() + ".part");
+        temporaryFile.getParentFile().mkdirs();
+        Assertions.assertTrue(temporaryFile.createNewFile(), "Failed to create temporary file");
+        try {
+            DefaultFile defaultFile = new DefaultFile(nonTxtSourceFile, createConstantTimeSupplierForFilenameTimestamp());
+            defaultFile.delete(TARGET_DIR_PATH);
+            Assertions.assertTrue(temporaryFile.exists());
+        } finally {
+            Assertions.assertTrue(temporaryFile.delete());
+        }
+    }
+
     private static File createNonTxtSourceFile() throws IOException {
         String nonTxtExtension = FileTestUtils.generateRandomStringExcludingTxt();
         return File.createTempFile("test", "." + nonTxtExtension);
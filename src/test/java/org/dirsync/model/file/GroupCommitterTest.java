@@ -0,0 +1,145 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class GroupCommitterTest {
+
+    private static final long LONG_INTERVAL_MILLIS = Duration.ofHours(1).toMillis();
+
+    @TempDir
+    private Path tempDir;
+
+    private GroupCommitter groupCommitter;
+
+    @AfterEach
+    void afterEach() {
+        groupCommitter.close();
+    }
+
+    @Test
+    void commitForcesPendingFiles() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        groupCommitter.addFile(Files.writeString(tempDir.resolve("a.txt"), "a"));
+        groupCommitter.addFile(Files.writeString(tempDir.resolve("b.txt"), "b"));
+        assertEquals(2, groupCommitter.getNumPendingFiles());
+
+        groupCommitter.commit();
+
+        assertEquals(0, groupCommitter.getNumPendingFiles());
+    }
+
+    @Test
+    void maxFilesTriggersCommit() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 3);
+        for (int i = 0; i < 3; i++) {
+            groupCommitter.addFile(Files.writeString(tempDir.resolve(i + ".txt"), "content"));
+        }
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> groupCommitter.getNumPendingFiles() == 0);
+    }
+
+    @Test
+    void intervalTriggersCommit() throws IOException {
+        groupCommitter = new GroupCommitter(50, 1000);
+        groupCommitter.addFile(Files.writeString(tempDir.resolve("a.txt"), "a"));
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> groupCommitter.getNumPendingFiles() == 0);
+    }
+
+    @Test
+    void deletedFileIsSkipped() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        Path file = Files.writeString(tempDir.resolve("a.txt"), "a");
+        groupCommitter.addFile(file);
+        Files.delete(file);
+
+        groupCommitter.commit();
+
+        assertEquals(0, groupCommitter.getNumPendingFiles());
+    }
+
+    @Test
+    void durableStorageCommitsCopiedFiles() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        File source = Files.writeString(tempDir.resolve("source.bin"), "content").toFile();
+        File target = tempDir.resolve("target/source.bin").toFile();
+        TargetStorage targetStorage = new DurableTargetStorage(new LocalTargetStorage(), groupCommitter);
+
+        targetStorage.copy(source, target);
+        assertEquals(1, groupCommitter.getNumPendingFiles());
+        targetStorage.delete(target);
+        groupCommitter.close();
+
+        assertFalse(target.exists());
+        assertEquals(0, groupCommitter.getNumPendingFiles());
+    }
+
+    @Test
+    void filesAddedAfterCloseAreForcedRightAway() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 1);
+        groupCommitter.close();
+
+        groupCommitter.addFile(Files.writeString(tempDir.resolve("a.txt"), "a"));
+        groupCommitter.addDirectory(tempDir);
+
+        assertEquals(0, groupCommitter.getNumPendingFiles());
+    }
+
+    @Test
+    void closeCommitsPendingFiles() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        groupCommitter.addFile(Files.writeString(tempDir.resolve("a.txt"), "a"));
+
+        groupCommitter.close();
+
+        assertEquals(0, groupCommitter.getNumPendingFiles());
+    }
+
+    @Test
+    void fileFailingToBeForcedIsCopiedAgain() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        List<Path> repairedSources = new ArrayList<>();
+        groupCommitter.setRepairScheduler((source, repair) -> {
+            repairedSources.add(source);
+            return CompletableFuture.completedFuture(null);
+        });
+        Path source = tempDir.resolve("source.txt");
+        // Opening a path under a regular file fails, but not with a NoSuchFileException
+        Path file = Files.writeString(tempDir.resolve("a.txt"), "a").resolve("b.txt");
+        groupCommitter.addFile(file, source, () -> {
+        });
+
+        groupCommitter.commit();
+
+        assertEquals(List.of(source), repairedSources);
+    }
+
+    @Test
+    void durableStorageCommitsCreatedDirectories() throws IOException {
+        groupCommitter = new GroupCommitter(LONG_INTERVAL_MILLIS, 10);
+        File source = Files.writeString(tempDir.resolve("source.bin"), "content").toFile();
+        File target = tempDir.resolve("target/sub/source.bin").toFile();
+        TargetStorage targetStorage = new DurableTargetStorage(new LocalTargetStorage(), groupCommitter);
+
+        targetStorage.copy(source, target);
+
+        assertEquals(Set.of(tempDir, tempDir.resolve("target"), tempDir.resolve("target/sub")),
+                groupCommitter.getPendingDirs());
+    }
+}
@@ -0,0 +1,58 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class HardLinkTargetStorageTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private Path sourceDir;
+
+    private Path targetDir;
+
+    private TargetStorage delegate;
+
+    private HardLinkTargetStorage hardLinkTargetStorage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createDirectory(tempDir.resolve("source"));
+        targetDir = Files.createDirectory(tempDir.resolve("target"));
+        delegate = mock(TargetStorage.class);
+        hardLinkTargetStorage = new HardLinkTargetStorage(sourceDir, targetDir, delegate);
+    }
+
+    @Test
+    void linksFileOnSameFileStore() throws IOException {
+        Path source = Files.writeString(sourceDir.resolve("file.txt"), "content");
+        File target = targetDir.resolve("subfolder/file.txt").toFile();
+
+        hardLinkTargetStorage.copy(source.toFile(), target);
+
+        assertTrue(Files.isSameFile(source, target.toPath()));
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void fallsBackToDelegateWhenLinkFails() throws IOException {
+        File source = sourceDir.resolve("missing.txt").toFile();
+        File target = targetDir.resolve("missing.txt").toFile();
+
+        hardLinkTargetStorage.copy(source, target);
+
+        verify(delegate).copy(source, target);
+    }
+}
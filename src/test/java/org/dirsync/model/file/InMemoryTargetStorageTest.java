@@ -0,0 +1,82 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryTargetStorageTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private final InMemoryTargetStorage inMemoryTargetStorage = new InMemoryTargetStorage();
+
+    @Test
+    void copyMoveAndDelete() throws IOException {
+        File source = Files.writeString(tempDir.resolve("file.txt"), "content").toFile();
+        File target = tempDir.resolve("target").resolve("a").resolve("file.txt").toFile();
+        File movedTarget = tempDir.resolve("target").resolve("moved.txt").toFile();
+
+        inMemoryTargetStorage.copy(source, target);
+        assertArrayEquals(bytes("content"), inMemoryTargetStorage.read(target));
+        assertEquals(source.lastModified(), inMemoryTargetStorage.getLastModifiedMillis(target));
+        assertTrue(inMemoryTargetStorage.exists(target));
+        assertEquals(List.of("a"), inMemoryTargetStorage.list(tempDir.resolve("target").toFile()));
+        assertFalse(Files.exists(target.toPath()));
+
+        inMemoryTargetStorage.move(target, movedTarget);
+        assertFalse(inMemoryTargetStorage.exists(target));
+        assertEquals(List.of(), inMemoryTargetStorage.list(target.getParentFile()));
+        assertArrayEquals(bytes("content"), inMemoryTargetStorage.read(movedTarget));
+
+        inMemoryTargetStorage.delete(movedTarget);
+        assertEquals(0, inMemoryTargetStorage.getNumFiles());
+        assertThrows(NoSuchFileException.class, () -> inMemoryTargetStorage.delete(movedTarget));
+    }
+
+    @Test
+    void appendReplacesBytesPastOffset() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("file.txt"), "line1\n");
+        File target = tempDir.resolve("target").resolve("file.txt").toFile();
+        inMemoryTargetStorage.copy(source.toFile(), target);
+        Files.writeString(source, "line1\nline2\n");
+
+        inMemoryTargetStorage.append(source.toFile(), 6, 12, target);
+
+        assertArrayEquals(bytes("line1\nline2\n"), inMemoryTargetStorage.read(target));
+    }
+
+    @Test
+    void textFileIsSynchronizedInMemory() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("file.txt"), "line1\n");
+        String targetDirPath = tempDir.resolve("target").toString();
+        TextFile textFile = new TextFile(source.toFile(), "", inMemoryTargetStorage, new TailSyncIndex());
+
+        textFile.copy(targetDirPath);
+        Files.writeString(source, "line2\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        textFile.update(targetDirPath);
+        assertArrayEquals(bytes("line1\nline2\n"), inMemoryTargetStorage.read(textFile.getTargetFile(targetDirPath)));
+
+        textFile.delete(targetDirPath);
+        assertEquals(0, inMemoryTargetStorage.getNumFiles());
+        assertFalse(Files.exists(Path.of(targetDirPath)));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IntegrityScrubberTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private final ChecksumManifest checksumManifest = new ChecksumManifest();
+    private final LocalTargetStorage localTargetStorage =
+            new LocalTargetStorage(IoThrottle.unlimited(), checksumManifest);
+    private final IntegrityScrubber integrityScrubber =
+            new IntegrityScrubber(checksumManifest, localTargetStorage, IoThrottle.unlimited());
+
+    @Test
+    void copyRecordsChecksumInline() throws IOException {
+        File source = Files.writeString(tempDir.resolve("source.txt"), "content").toFile();
+        File target = tempDir.resolve("target").resolve("source.txt").toFile();
+
+        localTargetStorage.copy(source, target);
+
+        CRC32C expected = new CRC32C();
+        expected.update("content".getBytes(StandardCharsets.UTF_8));
+        ChecksumManifest.Entry entry = checksumManifest.get(target.toPath());
+        assertEquals((int) expected.getValue(), entry.checksum());
+        assertEquals(source.length(), entry.sourceLength());
+        assertEquals(source.lastModified(), entry.sourceLastModifiedMillis());
+
+        localTargetStorage.delete(target);
+        assertNull(checksumManifest.get(target.toPath()));
+    }
+
+    @Test
+    void matchingTargetIsVerified() throws IOException {
+        copy("content");
+
+        assertEquals(new IntegrityScrubber.ScrubResult(1, 0, 0), integrityScrubber.scrub());
+    }
+
+    @Test
+    void corruptedTargetIsRepairedFromUnmodifiedSource() throws IOException {
+        Path target = copy("content");
+        Files.writeString(target, "corrupt");
+
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 1, 0), integrityScrubber.scrub());
+        assertEquals("content", Files.readString(target));
+        assertEquals(new IntegrityScrubber.ScrubResult(1, 0, 0), integrityScrubber.scrub());
+    }
+
+    @Test
+    void missingTargetIsRepaired() throws IOException {
+        Path target = copy("content");
+        Files.delete(target);
+
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 1, 0), integrityScrubber.scrub());
+        assertEquals("content", Files.readString(target));
+    }
+
+    @Test
+    void corruptedTargetOfModifiedSourceIsNotRepaired() throws IOException {
+        Path target = copy("content");
+        Path source = tempDir.resolve("source.txt");
+        Files.writeString(source, "modified content");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(source.toFile().lastModified() + 1000));
+        Files.writeString(target, "corrupt");
+
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 0, 1), integrityScrubber.scrub());
+        assertEquals("corrupt", Files.readString(target));
+    }
+
+    @Test
+    void checksumsAreLoadedAfterRestart() throws IOException {
+        Path manifestFile = tempDir.resolve("checksums");
+        ChecksumManifest savedManifest = new ChecksumManifest(manifestFile);
+        LocalTargetStorage savedTargetStorage = new LocalTargetStorage(IoThrottle.unlimited(), savedManifest);
+        File source = Files.writeString(tempDir.resolve("source.txt"), "content").toFile();
+        Path target = tempDir.resolve("target").resolve("source.txt");
+        savedTargetStorage.copy(source, target.toFile());
+        savedManifest.save();
+        Files.writeString(target, "corrupt");
+
+        ChecksumManifest loadedManifest = new ChecksumManifest(manifestFile);
+        IntegrityScrubber restartedScrubber = new IntegrityScrubber(loadedManifest,
+                new LocalTargetStorage(IoThrottle.unlimited(), loadedManifest), IoThrottle.unlimited());
+
+        assertEquals(savedManifest.get(target), loadedManifest.get(target));
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 1, 0), restartedScrubber.scrub());
+        assertEquals("content", Files.readString(target));
+    }
+
+    @Test
+    void repairIsScheduledUnderSourceFile() throws IOException {
+        Path target = copy("content");
+        Files.writeString(target, "corrupt");
+        List<Path> scheduled = new ArrayList<>();
+        integrityScrubber.setRepairScheduler((source, repair) -> {
+            scheduled.add(source);
+            return RepairScheduler.INLINE.schedule(source, repair);
+        });
+
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 1, 0), integrityScrubber.scrub());
+        assertEquals(List.of(tempDir.resolve("source.txt")), scheduled);
+        assertEquals("content", Files.readString(target));
+    }
+
+    @Test
+    void repairIsSkippedIfSourceIsCopiedMeanwhile() throws IOException {
+        Path target = copy("content");
+        Files.writeString(target, "corrupt");
+        integrityScrubber.setRepairScheduler((source, repair) -> {
+            try {
+                // A newer version is synchronized before the repair gets its turn
+                copy("newer content");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return RepairScheduler.INLINE.schedule(source, repair);
+        });
+
+        assertEquals(new IntegrityScrubber.ScrubResult(0, 0, 0), integrityScrubber.scrub());
+        assertEquals("newer content", Files.readString(target));
+    }
+
+    private Path copy(String content) throws IOException {
+        File source = Files.writeString(tempDir.resolve("source.txt"), content).toFile();
+        File target = tempDir.resolve("target").resolve("source.txt").toFile();
+        localTargetStorage.copy(source, target);
+        return target.toPath();
+    }
+}
@@ -0,0 +1,107 @@
+package org.dirsync.model.file;
+
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MirroredDirectoryTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private Path sourceDir;
+    private Path targetDir;
+    private SyncFileFactoryImpl syncFileFactory;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        sourceDir = Files.createDirectories(tempDir.resolve("source"));
+        targetDir = Files.createDirectories(tempDir.resolve("target"));
+        SyncDirectoriesInfo syncDirectoriesInfo = new SyncDirectoriesInfo(sourceDir.toString(), targetDir.toString())
+                .withFilters(List.of(), List.of("build/"));
+        syncFileFactory = new SyncFileFactoryImpl(syncDirectoriesInfo, SyncFileOptions.defaults().toBuilder()
+                .targetLayout(TargetLayout.MIRRORED)
+                .build());
+    }
+
+    @AfterEach
+    void afterEach() {
+        syncFileFactory.close();
+    }
+
+    @Test
+    void copyCopiesSubtree() throws IOException {
+        Path dir = Files.createDirectories(sourceDir.resolve("dir/sub"));
+        Files.writeString(sourceDir.resolve("dir/a.txt"), "a");
+        Files.writeString(dir.resolve("b.txt"), "b");
+        Path excluded = Files.writeString(dir.resolve("c.txt"), "c");
+        Files.createDirectories(sourceDir.resolve("dir/build"));
+        Files.writeString(sourceDir.resolve("dir/build/d.txt"), "d");
+
+        List<Path> failed = syncFileFactory.createDirectory(sourceDir.resolve("dir"))
+                .copy(targetDir.toString(), Set.of(excluded));
+
+        assertTrue(failed.isEmpty());
+        assertEquals("a", Files.readString(targetDir.resolve("dir/a.txt")));
+        assertEquals("b", Files.readString(targetDir.resolve("dir/sub/b.txt")));
+        assertFalse(Files.exists(targetDir.resolve("dir/sub/c.txt")));
+        assertFalse(Files.exists(targetDir.resolve("dir/build")));
+    }
+
+    @Test
+    void deleteDeletesTargetSubtree() throws IOException {
+        Files.createDirectories(targetDir.resolve("dir/sub"));
+        Files.writeString(targetDir.resolve("dir/a.txt"), "a");
+        Files.writeString(targetDir.resolve("dir/sub/b.txt"), "b");
+        Files.writeString(targetDir.resolve("other.txt"), "other");
+        SyncDirectory syncDirectory = syncFileFactory.createDirectory(sourceDir.resolve("dir"));
+
+        syncDirectory.delete(targetDir.toString());
+
+        assertFalse(Files.exists(targetDir.resolve("dir")));
+        assertTrue(Files.exists(targetDir.resolve("other.txt")));
+        // Deleting a missing directory is a no-op
+        syncDirectory.delete(targetDir.toString());
+    }
+
+    @Test
+    void deleteForgetsSynchronizedLengths() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("a.txt"), "a");
+        Path target = Files.writeString(Files.createDirectories(targetDir.resolve("dir")).resolve("a.txt"), "a");
+        TailSyncIndex tailSyncIndex = new TailSyncIndex();
+        tailSyncIndex.record(source, 1, target);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new MirroredDirectory(sourceDir.resolve("dir"), "dir", syncFileFactory, new LocalTargetStorage(),
+                    tailSyncIndex, null, executor).delete(targetDir.toString());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertNull(tailSyncIndex.get(target));
+    }
+
+    @Test
+    void flatLayoutDoesNotMirrorDirectories() {
+        SyncFileFactoryImpl flatFactory = new SyncFileFactoryImpl(
+                new SyncDirectoriesInfo(sourceDir.toString(), targetDir.toString()), SyncFileOptions.defaults());
+
+        assertFalse(flatFactory.mirrorsDirectories());
+        assertTrue(syncFileFactory.mirrorsDirectories());
+    }
+}
@@ -0,0 +1,88 @@
+package org.dirsync.model.file;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class ParallelRangeTargetStorageTest {
+
+    private static final int THRESHOLD = 64 * 1024;
+    private static final int RANGE_SIZE = 16 * 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @TempDir
+    private Path tempDir;
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void copyLargeFileInRanges() throws IOException {
+        byte[] content = new byte[THRESHOLD * 3 + 123];
+        new Random(42).nextBytes(content);
+        Path source = Files.write(tempDir.resolve("source.bin"), content);
+        File target = tempDir.resolve("target/source.bin").toFile();
+        TargetStorage delegate = mock(TargetStorage.class);
+
+        newStorage(delegate).copy(source.toFile(), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(target.toPath()));
+        try (var files = Files.list(target.toPath().getParent())) {
+            assertEquals(1, files.count());
+        }
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void copyReplacesExistingTarget() throws IOException {
+        byte[] content = new byte[THRESHOLD];
+        new Random(7).nextBytes(content);
+        Path source = Files.write(tempDir.resolve("source.bin"), content);
+        Path target = Files.writeString(tempDir.resolve("target.bin"), "old content");
+
+        newStorage(mock(TargetStorage.class)).copy(source.toFile(), target.toFile());
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void copySmallFileWithDelegate() throws IOException {
+        File source = Files.writeString(tempDir.resolve("source.bin"), "small").toFile();
+        File target = tempDir.resolve("target.bin").toFile();
+        TargetStorage delegate = mock(TargetStorage.class);
+
+        newStorage(delegate).copy(source, target);
+
+        verify(delegate).copy(source, target);
+    }
+
+    @Test
+    void closeShutsDownExecutor() throws IOException {
+        newStorage(mock(TargetStorage.class)).close();
+
+        assertTrue(executor.isShutdown());
+    }
+
+    private ParallelRangeTargetStorage newStorage(TargetStorage delegate) {
+        return new ParallelRangeTargetStorage(delegate, THRESHOLD, 4, RANGE_SIZE, executor, IoThrottle.unlimited());
+    }
+}
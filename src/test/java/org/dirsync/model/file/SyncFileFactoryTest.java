@@ -1,13 +1,26 @@
 package org.dirsync.model.file;
 
+import org.dirsync.model.dir.SyncDirectoriesInfo;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SyncFileFactoryTest {
 
+    private static final String SOURCE_DIR_PATH = "source";
+    private static final String TARGET_DIR_PATH = "target";
+
     private final SyncFileFactoryImpl syncFileFactory = new SyncFileFactoryImpl();
 
     @Test
@@ -21,4 +34,91 @@ class SyncFileFactoryTest {
         SyncFile syncFile = syncFileFactory.create(Path.of("filename." + FileTestUtils.generateRandomStringExcludingTxt()));
         assertTrue(syncFile instanceof DefaultFile);
     }
-}
\ No newline at end of file
+
+    @Test
+    void flatLayoutIgnoresSourceSubDirectories() {
+        SyncFile syncFile = createFactory(TargetLayout.FLAT).create(Path.of(SOURCE_DIR_PATH, "a", "b", "filename.txt"));
+        assertEquals(new File(TARGET_DIR_PATH, "filename.txt"), syncFile.getTargetFile(TARGET_DIR_PATH));
+    }
+
+    @Test
+    void mirroredLayoutKeepsSourceSubDirectories() {
+        SyncFile syncFile = createFactory(TargetLayout.MIRRORED).create(Path.of(SOURCE_DIR_PATH, "a", "b", "filename.txt"));
+        assertEquals(new File(TARGET_DIR_PATH, "a" + File.separator + "b" + File.separator + "filename.txt"),
+                syncFile.getTargetFile(TARGET_DIR_PATH));
+    }
+
+    @Test
+    void mirroredLayoutFileInSourceRoot() {
+        SyncFile syncFile = createFactory(TargetLayout.MIRRORED).create(Path.of(SOURCE_DIR_PATH, "filename.txt"));
+        assertEquals(new File(TARGET_DIR_PATH, "filename.txt"), syncFile.getTargetFile(TARGET_DIR_PATH));
+    }
+
+    @Test
+    void customTargetStorageReceivesFiles(@TempDir Path tempDir) throws IOException {
+        Path sourceDir = Files.createDirectories(tempDir.resolve(SOURCE_DIR_PATH));
+        Path file = Files.writeString(Files.createDirectories(sourceDir.resolve("a")).resolve("filename.txt"), "text");
+        InMemoryTargetStorage inMemoryTargetStorage = new InMemoryTargetStorage();
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder().targetLayout(TargetLayout.MIRRORED).build();
+        String targetDirPath = tempDir.resolve(TARGET_DIR_PATH).toString();
+        SyncFileFactoryImpl factory = new SyncFileFactoryImpl(
+                new SyncDirectoriesInfo(sourceDir.toString(), targetDirPath), options, inMemoryTargetStorage);
+
+        factory.create(file).copy(targetDirPath);
+
+        assertEquals("text", new String(inMemoryTargetStorage.read(
+                Path.of(targetDirPath, "a", "filename.txt").toFile()), StandardCharsets.UTF_8));
+        assertFalse(factory.mirrorsDirectories());
+    }
+
+    @Test
+    void hardLinksOnlyLinkTextFiles(@TempDir Path tempDir) throws IOException {
+        Path sourceDir = Files.createDirectories(tempDir.resolve(SOURCE_DIR_PATH));
+        Path targetDir = Files.createDirectories(tempDir.resolve(TARGET_DIR_PATH));
+        Path textFile = Files.writeString(sourceDir.resolve("filename.txt"), "text");
+        Path binaryFile = Files.writeString(sourceDir.resolve("filename.bin"), "version 1");
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder().hardLink(true).build();
+        SyncFileFactoryImpl factory = new SyncFileFactoryImpl(
+                new SyncDirectoriesInfo(sourceDir.toString(), targetDir.toString()), options);
+
+        factory.create(textFile).copy(targetDir.toString());
+        factory.create(binaryFile).copy(targetDir.toString());
+        // An in-place modification of the source file does not rewrite the timestamped copy
+        Files.writeString(binaryFile, "version 2");
+
+        assertTrue(Files.isSameFile(textFile, targetDir.resolve("filename.txt")));
+        try (Stream<Path> targetFiles = Files.list(targetDir)) {
+            Path version = targetFiles.filter(path -> path.getFileName().toString().endsWith(".bin"))
+                    .findFirst()
+                    .orElseThrow();
+            assertEquals("version 1", Files.readString(version));
+        }
+    }
+
+    @Test
+    void customTargetStorageRejectsLocalOptions() {
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder().compress(true).build();
+        SyncDirectoriesInfo syncDirectoriesInfo = new SyncDirectoriesInfo(SOURCE_DIR_PATH, TARGET_DIR_PATH);
+        InMemoryTargetStorage inMemoryTargetStorage = new InMemoryTargetStorage();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SyncFileFactoryImpl(syncDirectoriesInfo, options, inMemoryTargetStorage));
+    }
+
+    @Test
+    void bidirectionalRejectsParallelRangeCopies() {
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder()
+                .targetLayout(TargetLayout.MIRRORED)
+                .bidirectional(true)
+                .parallelCopyThreshold(1024)
+                .build();
+        SyncDirectoriesInfo syncDirectoriesInfo = new SyncDirectoriesInfo(SOURCE_DIR_PATH, TARGET_DIR_PATH);
+
+        assertThrows(IllegalArgumentException.class, () -> new SyncFileFactoryImpl(syncDirectoriesInfo, options));
+    }
+
+    private static SyncFileFactoryImpl createFactory(TargetLayout targetLayout) {
+        SyncFileOptions options = SyncFileOptions.defaults().toBuilder().targetLayout(targetLayout).build();
+        return new SyncFileFactoryImpl(new SyncDirectoriesInfo(SOURCE_DIR_PATH, TARGET_DIR_PATH), options);
+    }
+}
@@ -2,13 +2,23 @@ package org.dirsync.model.file;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 class TextFileTest {
 
     private static final String TARGET_DIR_PATH = System.getProperty("java.io.tmpdir") + "/targetDir";
+    private static final String RELATIVE_DIR_PATH = "subfolder1" + File.separator + "subfolder2";
 
     @Test
     void testSyncHappyPath() throws IOException {
@@ -19,6 +29,78 @@ class TextFileTest {
         Assertions.assertTrue(expectedTargetFile.exists());
     }
 
+    @Test
+    void testSyncAndDeleteInSubDirectory() throws IOException {
+        File txtSourceFile = createTxtSourceFile();
+        TextFile textFile = new TextFile(txtSourceFile, RELATIVE_DIR_PATH, new LocalTargetStorage());
+        textFile.copy(TARGET_DIR_PATH);
+        File expectedTargetFile = new File(TARGET_DIR_PATH + File.separator + RELATIVE_DIR_PATH, txtSourceFile.getName());
+        Assertions.assertTrue(expectedTargetFile.exists());
+
+        textFile.delete(TARGET_DIR_PATH);
+        Assertions.assertFalse(expectedTargetFile.exists());
+    }
+
+    @Test
+    void testTailSyncAppendsNewBytes(@TempDir Path tempDir) throws IOException {
+        Path source = Files.writeString(tempDir.resolve("app.txt"), "line 1\n");
+        String targetDirPath = tempDir.resolve("target").toString();
+        TargetStorage targetStorage = spy(new LocalTargetStorage());
+        TextFile textFile = new TextFile(source.toFile(), "", targetStorage, new TailSyncIndex());
+        textFile.copy(targetDirPath);
+
+        Files.writeString(source, "line 1\nline 2\n");
+        textFile.update(targetDirPath);
+
+        File targetFile = textFile.getTargetFile(targetDirPath);
+        Assertions.assertEquals("line 1\nline 2\n", Files.readString(targetFile.toPath()));
+        verify(targetStorage).append(source.toFile(), 7, 14, targetFile);
+    }
+
+    @Test
+    void testTailSyncCopiesRewrittenFile(@TempDir Path tempDir) throws IOException {
+        Path source = Files.writeString(tempDir.resolve("app.txt"), "line 1\n");
+        String targetDirPath = tempDir.resolve("target").toString();
+        TargetStorage targetStorage = spy(new LocalTargetStorage());
+        TextFile textFile = new TextFile(source.toFile(), "", targetStorage, new TailSyncIndex());
+        textFile.copy(targetDirPath);
+
+        Files.writeString(source, "LINE 1\nline 2\n");
+        textFile.update(targetDirPath);
+
+        Assertions.assertEquals("LINE 1\nline 2\n", Files.readString(textFile.getTargetFile(targetDirPath).toPath()));
+        verify(targetStorage, never()).append(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testModificationIgnoredWithoutTailSync(@TempDir Path tempDir) throws IOException {
+        Path source = Files.writeString(tempDir.resolve("app.txt"), "line 1\n");
+        String targetDirPath = tempDir.resolve("target").toString();
+        TextFile textFile = new TextFile(source.toFile(), "", new LocalTargetStorage());
+        textFile.copy(targetDirPath);
+
+        Files.writeString(source, "line 1\nline 2\n");
+        textFile.update(targetDirPath);
+
+        Assertions.assertEquals("line 1\n", Files.readString(textFile.getTargetFile(targetDirPath).toPath()));
+    }
+
+    @Test
+    void testRenameMovesTargetFile(@TempDir Path tempDir) throws IOException {
+        Path source = Files.writeString(tempDir.resolve("app.txt"), "content");
+        String targetDirPath = tempDir.resolve("target").toString();
+        TextFile textFile = new TextFile(source.toFile(), "", new LocalTargetStorage());
+        textFile.copy(targetDirPath);
+        Path renamedSource = Files.move(source, tempDir.resolve("renamed.txt"));
+        TextFile renamedFile = new TextFile(renamedSource.toFile(), RELATIVE_DIR_PATH, new LocalTargetStorage());
+
+        Assertions.assertTrue(textFile.rename(renamedFile, targetDirPath));
+
+        Assertions.assertFalse(textFile.getTargetFile(targetDirPath).exists());
+        Assertions.assertEquals("content", Files.readString(renamedFile.getTargetFile(targetDirPath).toPath()));
+        Assertions.assertFalse(textFile.rename(renamedFile, targetDirPath));
+    }
+
     private File createExpectedTargetFile(File txtSourceFile) {
         return new File(TARGET_DIR_PATH + File.separator + txtSourceFile.getName());
     }
@@ -26,4 +108,4 @@ class TextFileTest {
     private File createTxtSourceFile() throws IOException {
         return File.createTempFile("test", ".txt");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package org.dirsync.remote;
+
+import org.dirsync.model.file.IoThrottle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteTargetStorageTest {
+
+    private static final int BATCH_SIZE = 4096;
+
+    @TempDir
+    private Path tempDir;
+
+    private Path sourceDir;
+    private Path targetDir;
+    private Path receiverDir;
+    private RemoteTargetReceiver receiver;
+    private RemoteTargetStorage remoteTargetStorage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createDirectories(tempDir.resolve("source"));
+        targetDir = tempDir.resolve("target");
+        receiverDir = tempDir.resolve("receiver");
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        receiver = new RemoteTargetReceiver(receiverDir, new InetSocketAddress(loopback, 0));
+        receiver.start();
+        remoteTargetStorage = new RemoteTargetStorage(new InetSocketAddress(loopback, receiver.getPort()), targetDir,
+                IoThrottle.unlimited(), BATCH_SIZE, Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        remoteTargetStorage.close();
+        receiver.close();
+    }
+
+    @Test
+    void copyMoveAndDelete() throws IOException {
+        File source = Files.writeString(sourceDir.resolve("file.txt"), "content").toFile();
+        File target = targetDir.resolve("a").resolve("file.txt").toFile();
+        File movedTarget = targetDir.resolve("b").resolve("moved.txt").toFile();
+
+        remoteTargetStorage.copy(source, target);
+        assertEquals("content", Files.readString(receiverDir.resolve("a").resolve("file.txt")));
+        assertEquals(source.lastModified(), receiverDir.resolve("a").resolve("file.txt").toFile().lastModified());
+        assertTrue(remoteTargetStorage.exists(target));
+        assertEquals(List.of("file.txt"), remoteTargetStorage.list(target.getParentFile()));
+
+        remoteTargetStorage.move(target, movedTarget);
+        assertFalse(remoteTargetStorage.exists(target));
+        assertEquals("content", Files.readString(receiverDir.resolve("b").resolve("moved.txt")));
+
+        remoteTargetStorage.delete(movedTarget);
+        assertFalse(Files.exists(receiverDir.resolve("b").resolve("moved.txt")));
+        assertThrows(NoSuchFileException.class, () -> remoteTargetStorage.delete(movedTarget));
+        assertEquals(List.of(), remoteTargetStorage.list(targetDir.resolve("missing").toFile()));
+    }
+
+    @Test
+    void fileLargerThanBatchIsTransferred() throws IOException {
+        byte[] content = new byte[BATCH_SIZE * 25 + 7];
+        new Random(42).nextBytes(content);
+        File source = Files.write(sourceDir.resolve("large.bin"), content).toFile();
+
+        remoteTargetStorage.copy(source, targetDir.resolve("large.bin").toFile());
+
+        assertArrayEquals(content, Files.readAllBytes(receiverDir.resolve("large.bin")));
+    }
+
+    @Test
+    void concurrentCopiesArePipelined() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> copies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                // Every tenth file does not fit the batch and is transferred on its own
+                String content = String.valueOf(i).repeat(i % 10 == 0 ? BATCH_SIZE : 10);
+                File source = Files.writeString(sourceDir.resolve(i + ".txt"), content).toFile();
+                File target = targetDir.resolve(i + ".txt").toFile();
+                copies.add(executor.submit(() -> {
+                    remoteTargetStorage.copy(source, target);
+                    return null;
+                }));
+            }
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Files.readString(sourceDir.resolve(i + ".txt")),
+                    Files.readString(receiverDir.resolve(i + ".txt")));
+        }
+    }
+
+    @Test
+    void smallFileIsSentDuringLargeTransfer() throws Exception {
+        CountDownLatch transferStarted = new CountDownLatch(1);
+        CountDownLatch transferReleased = new CountDownLatch(1);
+        IoThrottle stallingThrottle = new IoThrottle(0, 0) {
+            @Override
+            public void acquireBytes(long numBytes) {
+                if (numBytes > BATCH_SIZE) {
+                    transferStarted.countDown();
+                    try {
+                        transferReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        remoteTargetStorage.close();
+        remoteTargetStorage = new RemoteTargetStorage(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                receiver.getPort()), targetDir, stallingThrottle, BATCH_SIZE, Duration.ofSeconds(10));
+        byte[] content = new byte[BATCH_SIZE * 4];
+        new Random(42).nextBytes(content);
+        File large = Files.write(sourceDir.resolve("large.bin"), content).toFile();
+        File small = Files.writeString(sourceDir.resolve("small.txt"), "content").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> largeCopy = executor.submit(() -> {
+                remoteTargetStorage.copy(large, targetDir.resolve("large.bin").toFile());
+                return null;
+            });
+            assertTrue(transferStarted.await(10, TimeUnit.SECONDS));
+
+            remoteTargetStorage.copy(small, targetDir.resolve("small.txt").toFile());
+            assertEquals("content", Files.readString(receiverDir.resolve("small.txt")));
+
+            transferReleased.countDown();
+            largeCopy.get();
+            assertArrayEquals(content, Files.readAllBytes(receiverDir.resolve("large.bin")));
+        } finally {
+            transferReleased.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void fileOutsideTargetDirIsRejected() throws IOException {
+        File source = Files.writeString(sourceDir.resolve("file.txt"), "content").toFile();
+
+        assertThrows(IOException.class,
+                () -> remoteTargetStorage.copy(source, tempDir.resolve("file.txt").toFile()));
+    }
+
+    @Test
+    void copyFailsWhenReceiverIsClosed() throws IOException {
+        File source = Files.writeString(sourceDir.resolve("file.txt"), "content").toFile();
+        receiver.close();
+
+        assertThrows(IOException.class, () -> remoteTargetStorage.copy(source, targetDir.resolve("file.txt").toFile()));
+    }
+}
@@ -0,0 +1,65 @@
+package org.dirsync.simulation;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Files kept in memory by their path relative to the root of the simulated directory. The content of a file is a
+ * version number, unique to each write of a source file, so a target file is up to date if it has the version of its
+ * source file.
+ */
+class SimulatedFileSystem {
+
+    record SimulatedFile(long version, long lastModifiedMillis) {
+    }
+
+    private final Map<Path, SimulatedFile> files = new ConcurrentHashMap<>();
+    // A digest of the writes and deletions in order, equal for two runs that performed the same operations
+    private long trace = 17;
+
+    SimulatedFile read(Path path) throws NoSuchFileException {
+        SimulatedFile file = files.get(path);
+        if (file == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return file;
+    }
+
+    /**
+     * @return the file, or null if it does not exist
+     */
+    SimulatedFile get(Path path) {
+        return files.get(path);
+    }
+
+    boolean exists(Path path) {
+        return files.containsKey(path);
+    }
+
+    void write(Path path, SimulatedFile file) {
+        files.put(path, file);
+        traced(path, file.version());
+    }
+
+    void delete(Path path) throws NoSuchFileException {
+        if (files.remove(path) == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        traced(path, -1);
+    }
+
+    Map<Path, SimulatedFile> snapshot() {
+        return new HashMap<>(files);
+    }
+
+    synchronized long getTrace() {
+        return trace;
+    }
+
+    private synchronized void traced(Path path, long version) {
+        trace = 31 * (31 * trace + path.hashCode()) + Long.hashCode(version);
+    }
+}
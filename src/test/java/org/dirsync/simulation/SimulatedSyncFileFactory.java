@@ -0,0 +1,86 @@
+package org.dirsync.simulation;
+
+import lombok.NonNull;
+import org.dirsync.model.file.SyncDirectory;
+import org.dirsync.model.file.SyncFile;
+import org.dirsync.model.file.SyncFileFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Creates files synchronized from a simulated source directory to a simulated target directory, mirrored by their
+ * relative path. Operations fail at random at the given rate, like a target directory that is briefly unavailable.
+ */
+class SimulatedSyncFileFactory implements SyncFileFactory {
+
+    private final Path sourceDir;
+    private final SimulatedFileSystem source;
+    private final SimulatedFileSystem target;
+    private final Random failures;
+    private final double failureRate;
+
+    SimulatedSyncFileFactory(Path sourceDir, SimulatedFileSystem source, SimulatedFileSystem target, Random failures,
+                             double failureRate) {
+        this.sourceDir = sourceDir;
+        this.source = source;
+        this.target = target;
+        this.failures = failures;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public SyncFile create(Path path) {
+        return new SimulatedSyncFile(sourceDir.relativize(path));
+    }
+
+    @Override
+    public SyncDirectory createDirectory(Path path) {
+        throw new IllegalStateException("Directories are not mirrored on the simulated target directory");
+    }
+
+    private void injectFailure(String operation, Path path) throws IOException {
+        if (failureRate > 0 && failures.nextDouble() < failureRate) {
+            throw new IOException("Injected failure to " + operation + ": " + path);
+        }
+    }
+
+    private final class SimulatedSyncFile implements SyncFile {
+
+        private final Path relativePath;
+
+        private SimulatedSyncFile(Path relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        @Override
+        public void copy(@NonNull String targetDirPath) throws IOException {
+            injectFailure("copy", relativePath);
+            target.write(relativePath, source.read(relativePath));
+        }
+
+        @Override
+        public void update(String targetDirPath) throws IOException {
+            injectFailure("update", relativePath);
+            target.write(relativePath, source.read(relativePath));
+        }
+
+        @Override
+        public void delete(String targetDirPath) throws IOException {
+            injectFailure("delete", relativePath);
+            target.delete(relativePath);
+        }
+
+        @Override
+        public boolean rename(SyncFile renamed, String targetDirPath) {
+            return false;
+        }
+
+        @Override
+        public File getTargetFile(String targetDirPath) {
+            return new File(targetDirPath, relativePath.toString());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.dirsync.simulation;
+
+import lombok.Builder;
+
+import java.time.Duration;
+
+import static org.dirsync.util.RetryScheduler.RetryPolicy;
+
+/**
+ * The operations replayed by a {@link SyncSimulation}, and how they are synchronized.
+ * @param seed                the seed of the operations, the order of the events and the injected failures
+ * @param numOperations       the number of modifications of the source directory
+ * @param numPaths            the number of distinct files modified
+ * @param numDirectories      the number of directories the files are spread over
+ * @param operationsPerCheck  the number of modifications between two checks of the observer
+ * @param checkIntervalMillis the time between two checks of the observer
+ * @param failureRate         the probability that a synchronization operation fails
+ * @param numWorkers          the number of workers of the operation scheduler, or 0 to run operations on the
+ *                            thread of the observer
+ * @param retryPolicy         the retries of failed operations, with the delays on the virtual clock
+ */
+@Builder(toBuilder = true)
+public record SimulationSettings(long seed, int numOperations, int numPaths, int numDirectories,
+                                 int operationsPerCheck, long checkIntervalMillis, double failureRate,
+                                 int numWorkers, RetryPolicy retryPolicy) {
+
+    public static SimulationSettings defaults(long seed) {
+        return SimulationSettings.builder()
+                .seed(seed)
+                .numOperations(10_000)
+                .numPaths(200)
+                .numDirectories(8)
+                .operationsPerCheck(20)
+                .checkIntervalMillis(1000)
+                .retryPolicy(new RetryPolicy(10, Duration.ofMillis(100), Duration.ofSeconds(5), 2.0, 0,
+                        Duration.ofMinutes(5)))
+                .build();
+    }
+}
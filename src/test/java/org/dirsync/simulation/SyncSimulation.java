@@ -0,0 +1,283 @@
+package org.dirsync.simulation;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.dirsync.controller.DeadLetterStore;
+import org.dirsync.controller.DirectorySynchronizerImpl;
+import org.dirsync.controller.SyncOperationScheduler;
+import org.dirsync.controller.SyncRetryQueue;
+import org.dirsync.model.dir.SyncDirectoriesInfo;
+import org.dirsync.util.VirtualClock;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.dirsync.simulation.SimulatedFileSystem.SimulatedFile;
+
+/**
+ * Drives a {@link DirectorySynchronizerImpl} with a randomized sequence of file creations, modifications and
+ * deletions on a simulated source directory, and checks that the simulated target directory converges to it.
+ * <p>
+ * Nothing is read from or written to disk: files are kept in memory, time is a {@link VirtualClock}, and the checks of
+ * the file alteration observer are emulated by comparing the source directory with the previous check, reporting the
+ * differences in random order. A run is reproduced from its seed: without workers, operations run on the calling
+ * thread and retries when the clock is advanced, so the same seed replays the same operations in the same order.
+ * With workers, operations run concurrently with the modifications of the source directory.
+ * <p>
+ * Millions of operations are replayed in seconds:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.dirsync.simulation.SyncSimulation \
+ *     [runs] [operations] [workers] [failure rate]
+ * </pre>
+ */
+public class SyncSimulation {
+
+    private static final long START_MILLIS = 1_000_000_000_000L;
+    private static final Logger LOGGER = (Logger) LoggerFactory.getLogger("org.dirsync");
+    // Simulations running at once share the silenced logger, whose level is restored when the last one ends
+    private static int numSilencing;
+    private static Level silencedLevel;
+
+    /**
+     * @param numEvents      the number of file events reported to the synchronizer
+     * @param numDeadLetters the number of operations given up on, e.g. copies of files deleted since
+     * @param divergences    the files whose target differs from their source once synchronized, empty if converged
+     * @param trace          a digest of the operations performed on the target directory, in order
+     */
+    public record Result(SimulationSettings settings, long numEvents, int numDeadLetters, List<String> divergences,
+                         long trace, long elapsedNanos) {
+
+        public boolean converged() {
+            return divergences.isEmpty();
+        }
+    }
+
+    private final SimulationSettings settings;
+    private final Path sourceDir;
+    private final Random random;
+    private final VirtualClock clock = new VirtualClock(START_MILLIS);
+    private final SimulatedFileSystem source = new SimulatedFileSystem();
+    private final SimulatedFileSystem target = new SimulatedFileSystem();
+    private final SyncOperationScheduler syncOperationScheduler;
+    private final SyncRetryQueue syncRetryQueue;
+    private final DirectorySynchronizerImpl directorySynchronizer;
+    private final Path[] paths;
+    private final File[] sourceFiles;
+    // The files reported by the previous check, and the files modified since, in order
+    private final Map<Path, SimulatedFile> previousCheck = new HashMap<>();
+    private final Set<Integer> modified = new LinkedHashSet<>();
+    private long nextVersion = 1;
+    private long numEvents;
+
+    /**
+     * @param sourceDir an existing directory the simulated source files are under, which is left untouched
+     * @param targetDir an existing directory the simulated target files are under, which is left untouched
+     */
+    public SyncSimulation(SimulationSettings settings, Path sourceDir, Path targetDir) {
+        this.settings = settings;
+        this.sourceDir = sourceDir;
+        this.random = new Random(settings.seed());
+        this.paths = new Path[settings.numPaths()];
+        this.sourceFiles = new File[settings.numPaths()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = Path.of("dir" + i % settings.numDirectories(), "file" + i + ".txt");
+            sourceFiles[i] = sourceDir.resolve(paths[i]).toFile();
+        }
+        Random failures = new Random(settings.seed() ^ 0x5DEECE66DL);
+        this.syncOperationScheduler = settings.numWorkers() > 0 ? newScheduler(settings.numWorkers()) : null;
+        this.syncRetryQueue = new SyncRetryQueue(clock.newRetryScheduler(settings.retryPolicy()),
+                new DeadLetterStore());
+        this.directorySynchronizer = DirectorySynchronizerImpl.builder()
+                .syncDirectoriesInfo(new SyncDirectoriesInfo(sourceDir.toString(), targetDir.toString()))
+                .fileAlterationMonitor(new FileAlterationMonitor())
+                .syncFileFactory(new SimulatedSyncFileFactory(sourceDir, source, target, failures,
+                        settings.failureRate()))
+                .syncOperationScheduler(syncOperationScheduler)
+                .syncRetryQueue(syncRetryQueue)
+                .build();
+    }
+
+    private static SyncOperationScheduler newScheduler(int numWorkers) {
+        Map<SyncOperationScheduler.Lane, SyncOperationScheduler.LaneSettings> laneSettings =
+                new EnumMap<>(SyncOperationScheduler.Lane.class);
+        for (SyncOperationScheduler.Lane lane : SyncOperationScheduler.Lane.values()) {
+            laneSettings.put(lane, new SyncOperationScheduler.LaneSettings(numWorkers, 1));
+        }
+        return new SyncOperationScheduler(numWorkers, Long.MAX_VALUE, laneSettings);
+    }
+
+    /**
+     * Replay the operations, then let the synchronizer catch up and compare the directories
+     */
+    public Result run() {
+        // Failed operations are expected, and logging every operation would measure the logging
+        silenceLogging();
+        long start = System.nanoTime();
+        try {
+            for (int i = 1; i <= settings.numOperations(); i++) {
+                modifySource();
+                clock.advance(random.nextInt(10));
+                if (i % settings.operationsPerCheck() == 0) {
+                    clock.advance(settings.checkIntervalMillis());
+                    check();
+                }
+            }
+            check();
+            awaitQuiescence();
+            return new Result(settings, numEvents, syncRetryQueue.getDeadLetterStore().getDeadLetters().size(),
+                    divergences(), target.getTrace(), System.nanoTime() - start);
+        } finally {
+            if (syncOperationScheduler != null) {
+                syncOperationScheduler.shutdown();
+            }
+            syncRetryQueue.close();
+            restoreLogging();
+        }
+    }
+
+    private static synchronized void silenceLogging() {
+        if (numSilencing++ == 0) {
+            silencedLevel = LOGGER.getLevel();
+            LOGGER.setLevel(Level.OFF);
+        }
+    }
+
+    private static synchronized void restoreLogging() {
+        if (--numSilencing == 0) {
+            LOGGER.setLevel(silencedLevel);
+            silencedLevel = null;
+        }
+    }
+
+    private void modifySource() {
+        int index = random.nextInt(paths.length);
+        Path path = paths[index];
+        if (source.exists(path) && random.nextInt(3) == 0) {
+            try {
+                source.delete(path);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            source.write(path, new SimulatedFile(nextVersion++, clock.currentTimeMillis()));
+        }
+        modified.add(index);
+    }
+
+    /**
+     * Report the differences since the previous check, like a check of a file alteration observer. Only the files
+     * modified since are compared, so a check costs the number of modifications rather than of files.
+     */
+    private void check() {
+        List<Integer> changed = new ArrayList<>(modified.size());
+        for (int index : modified) {
+            if (!Objects.equals(previousCheck.get(paths[index]), source.get(paths[index]))) {
+                changed.add(index);
+            }
+        }
+        modified.clear();
+        // The observer walks directories in an order of its own
+        Collections.shuffle(changed, random);
+        directorySynchronizer.onStart(null);
+        for (int index : changed) {
+            Path path = paths[index];
+            SimulatedFile current = source.get(path);
+            SimulatedFile previous = current == null ? previousCheck.remove(path) : previousCheck.put(path, current);
+            if (current == null) {
+                directorySynchronizer.onFileDelete(sourceFiles[index]);
+            } else if (previous == null) {
+                directorySynchronizer.onFileCreate(sourceFiles[index]);
+            } else {
+                directorySynchronizer.onFileChange(sourceFiles[index]);
+            }
+        }
+        directorySynchronizer.onStop(null);
+        numEvents += changed.size();
+    }
+
+    /**
+     * Wait until no operation is scheduled or running, and no retry is pending
+     */
+    private void awaitQuiescence() {
+        do {
+            while (syncOperationScheduler != null && !syncOperationScheduler.isIdle()) {
+                Thread.onSpinWait();
+            }
+            clock.advanceUntilIdle();
+        } while (syncOperationScheduler != null && !syncOperationScheduler.isIdle());
+    }
+
+    private List<String> divergences() {
+        Map<Path, SimulatedFile> sourceFiles = source.snapshot();
+        Map<Path, SimulatedFile> targetFiles = target.snapshot();
+        TreeSet<Path> allPaths = new TreeSet<>(sourceFiles.keySet());
+        allPaths.addAll(targetFiles.keySet());
+        List<String> divergences = new ArrayList<>();
+        for (Path path : allPaths) {
+            SimulatedFile sourceFile = sourceFiles.get(path);
+            SimulatedFile targetFile = targetFiles.get(path);
+            if (!Objects.equals(sourceFile, targetFile)) {
+                divergences.add(path + ": source " + sourceFile + ", target " + targetFile);
+            }
+        }
+        return divergences;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numRuns = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int numOperations = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int numWorkers = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+        Path tempDir = Files.createTempDirectory("sync-simulation");
+        boolean converged = true;
+        try {
+            Path sourceDir = Files.createDirectories(tempDir.resolve("source"));
+            Path targetDir = Files.createDirectories(tempDir.resolve("target"));
+            long numReplayed = 0;
+            long numDeadLetters = 0;
+            long elapsedNanos = 0;
+            for (long seed = 0; seed < numRuns; seed++) {
+                SimulationSettings settings = SimulationSettings.defaults(seed).toBuilder()
+                        .numOperations(numOperations)
+                        .numWorkers(numWorkers)
+                        .failureRate(failureRate)
+                        .build();
+                Result result = new SyncSimulation(settings, sourceDir, targetDir).run();
+                numReplayed += numOperations;
+                numDeadLetters += result.numDeadLetters();
+                elapsedNanos += result.elapsedNanos();
+                if (!result.converged()) {
+                    System.out.println("Seed " + seed + " did not converge: " + result.divergences());
+                    converged = false;
+                    break;
+                }
+            }
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            System.out.printf("Replayed %d operations in %d ms, %d operations/s, %d dead letters%n", numReplayed,
+                    elapsedMillis, numReplayed * 1000 / elapsedMillis, numDeadLetters);
+        } finally {
+            FileUtils.deleteDirectory(tempDir.toFile());
+        }
+        if (!converged) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.dirsync.simulation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncSimulationTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private Path sourceDir;
+    private Path targetDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createDirectories(tempDir.resolve("source"));
+        targetDir = Files.createDirectories(tempDir.resolve("target"));
+    }
+
+    @Test
+    void targetConverges() {
+        for (long seed = 0; seed < 50; seed++) {
+            assertConverged(run(SimulationSettings.defaults(seed)));
+        }
+    }
+
+    @Test
+    void targetConvergesDespiteFailedOperations() {
+        for (long seed = 0; seed < 50; seed++) {
+            assertConverged(run(SimulationSettings.defaults(seed).toBuilder()
+                    .failureRate(0.1)
+                    .build()));
+        }
+    }
+
+    @Test
+    void targetConvergesWithConcurrentOperations() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertConverged(run(SimulationSettings.defaults(seed).toBuilder()
+                    .numWorkers(4)
+                    .build()));
+        }
+    }
+
+    @Test
+    void sameSeedReplaysSameOperations() {
+        SimulationSettings settings = SimulationSettings.defaults(42).toBuilder()
+                .failureRate(0.1)
+                .build();
+
+        SyncSimulation.Result first = run(settings);
+        SyncSimulation.Result second = run(settings);
+
+        assertEquals(first.numEvents(), second.numEvents());
+        assertEquals(first.trace(), second.trace());
+    }
+
+    private SyncSimulation.Result run(SimulationSettings settings) {
+        return new SyncSimulation(settings, sourceDir, targetDir).run();
+    }
+
+    private static void assertConverged(SyncSimulation.Result result) {
+        assertTrue(result.converged(),
+                () -> "Seed " + result.settings().seed() + " did not converge: " + result.divergences());
+    }
+}
@@ -0,0 +1,55 @@
+package org.dirsync.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectBufferPoolTest {
+
+    private final DirectBufferPool pool = new DirectBufferPool(1024, 1, 2);
+
+    @Test
+    void testReleasedBufferIsReusedCleared() {
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        buffer.put((byte) 1).flip();
+
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquire();
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1024, reused.limit());
+    }
+
+    @Test
+    void testEmptyPoolAllocates() {
+        assertNotSame(pool.acquire(), pool.acquire());
+    }
+
+    @Test
+    void testPoolIsBounded() {
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(2, pool.getNumPooledBuffers());
+    }
+
+    @Test
+    void testForeignBufferIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocate(1024)));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(512)));
+    }
+}
@@ -0,0 +1,107 @@
+package org.dirsync.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.dirsync.util.RetryScheduler.RetryPolicy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetrySchedulerTest {
+
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(40),
+            2.0, 0, Duration.ofSeconds(5));
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testSuccessOnFirstAttempt() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, RETRY_POLICY, System::nanoTime);
+        CompletableFuture<String> result = retryScheduler.retry(() -> "done", "Task failed");
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSuccessOnRetry() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, RETRY_POLICY, System::nanoTime);
+        AtomicInteger numAttempts = new AtomicInteger();
+        CompletableFuture<Void> result = retryScheduler.retry(() -> {
+            if (numAttempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Attempt failed");
+            }
+        }, "Task failed");
+        result.get(5, TimeUnit.SECONDS);
+        assertEquals(3, numAttempts.get());
+    }
+
+    @Test
+    void testFailureAfterMaxAttempts() {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, RETRY_POLICY, System::nanoTime);
+        AtomicInteger numAttempts = new AtomicInteger();
+        CompletableFuture<Void> result = retryScheduler.retry(() -> {
+            numAttempts.incrementAndGet();
+            throw new IllegalStateException("Attempt failed");
+        }, "Task failed");
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RetryException.class, exception.getCause());
+        assertEquals("Task failed", exception.getCause().getMessage());
+        assertInstanceOf(IllegalStateException.class, exception.getCause().getCause());
+        assertEquals(3, numAttempts.get());
+    }
+
+    @Test
+    void testNoRetryAfterDeadline() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, Duration.ofMillis(10), Duration.ofMillis(10), 1.0, 0,
+                Duration.ofMillis(5));
+        RetryScheduler retryScheduler = new RetryScheduler(executor, retryPolicy, System::nanoTime);
+        AtomicInteger numAttempts = new AtomicInteger();
+        CompletableFuture<Void> result = retryScheduler.retry(() -> {
+            numAttempts.incrementAndGet();
+            throw new IllegalStateException("Attempt failed");
+        }, "Task failed");
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, numAttempts.get());
+    }
+
+    @Test
+    void testRetryDoesNotBlockCaller() {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, RETRY_POLICY, System::nanoTime);
+        CompletableFuture<Void> result = retryScheduler.retry(() -> {
+            throw new IllegalStateException("Attempt failed");
+        }, "Task failed");
+        assertTrue(!result.isDone() || result.isCompletedExceptionally());
+    }
+
+    @Test
+    void testBackoffGrowsUpToMaxDelay() {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), RETRY_POLICY.delayNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), RETRY_POLICY.delayNanos(2));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40), RETRY_POLICY.delayNanos(3));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40), RETRY_POLICY.delayNanos(4));
+    }
+
+    @Test
+    void testBackoffSettingsAreValidated() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(3, Duration.ofMillis(10),
+                Duration.ofMillis(40), 0.5, 0, Duration.ofSeconds(5)));
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(3, Duration.ofMillis(10),
+                Duration.ofMillis(40), 2.0, 1.5, Duration.ofSeconds(5)));
+    }
+}
@@ -3,7 +3,6 @@ package org.dirsync.util;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
-import static org.dirsync.util.RetryUtils.RetryException;
 import static org.dirsync.util.RetryUtils.retryWithInterval;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
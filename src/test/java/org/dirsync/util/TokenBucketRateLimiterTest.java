@@ -0,0 +1,57 @@
+package org.dirsync.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketRateLimiterTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void testUnlimitedNeverWaits() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(0, nanoTime::get);
+        assertEquals(0, rateLimiter.reserve(1_000_000));
+        assertEquals(0, rateLimiter.reserve(1_000_000));
+    }
+
+    @Test
+    void testPermitsAreSpreadEvenly() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, nanoTime::get);
+        assertEquals(0, rateLimiter.reserve(1));
+        assertEquals(millis(100), rateLimiter.reserve(1));
+        assertEquals(millis(200), rateLimiter.reserve(1));
+    }
+
+    @Test
+    void testLargeReservationDelaysNextCaller() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1000, nanoTime::get);
+        assertEquals(0, rateLimiter.reserve(500));
+        assertEquals(millis(500), rateLimiter.reserve(1));
+    }
+
+    @Test
+    void testIdlePermitsAreCappedToSmallBurst() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1000, nanoTime::get);
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, rateLimiter.reserve(100));
+        assertEquals(0, rateLimiter.reserve(100));
+        assertEquals(millis(100), rateLimiter.reserve(1));
+    }
+
+    @Test
+    void testRateChangeAppliesToNextReservation() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, nanoTime::get);
+        rateLimiter.reserve(1);
+        rateLimiter.setRate(100);
+        assertEquals(millis(100), rateLimiter.reserve(1));
+        assertEquals(millis(110), rateLimiter.reserve(1));
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
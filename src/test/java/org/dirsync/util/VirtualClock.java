@@ -0,0 +1,201 @@
+package org.dirsync.util;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.dirsync.util.RetryScheduler.RetryPolicy;
+
+/**
+ * A clock that only moves when advanced, with a scheduled executor running its tasks on the thread advancing the
+ * clock once they are due. Delays then take no real time, and tasks run in the same order on every run.
+ */
+public class VirtualClock {
+
+    private final Executor executor = new Executor();
+    private long nanos;
+    private long nextTaskSequence;
+
+    public VirtualClock(long startMillis) {
+        this.nanos = TimeUnit.MILLISECONDS.toNanos(startMillis);
+    }
+
+    public synchronized long nanoTime() {
+        return nanos;
+    }
+
+    public synchronized long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public ScheduledExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * @return a retry scheduler waiting for this clock between attempts. The jitter of the policy should be 0 for the
+     * attempts to be made at the same times on every run.
+     */
+    public RetryScheduler newRetryScheduler(RetryPolicy retryPolicy) {
+        return new RetryScheduler(executor, retryPolicy, this::nanoTime);
+    }
+
+    /**
+     * Move the clock forward, running the tasks due until then in order
+     */
+    public void advance(long millis) {
+        long until = nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        Task<?> task;
+        while ((task = executor.pollDue(until)) != null) {
+            task.run();
+        }
+        synchronized (this) {
+            nanos = Math.max(nanos, until);
+        }
+    }
+
+    /**
+     * Move the clock forward until no task is scheduled, including the tasks scheduled by the tasks run
+     */
+    public void advanceUntilIdle() {
+        Task<?> task;
+        while ((task = executor.pollDue(Long.MAX_VALUE)) != null) {
+            task.run();
+        }
+    }
+
+    public int getNumScheduledTasks() {
+        return executor.size();
+    }
+
+    private final class Task<T> extends FutureTask<T> implements ScheduledFuture<T> {
+
+        private final long dueNanos;
+        private final long sequence;
+
+        private Task(Callable<T> callable, long dueNanos, long sequence) {
+            super(callable);
+            this.dueNanos = dueNanos;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task<?> task = (Task<?>) other;
+            int comparison = Long.compare(dueNanos, task.dueNanos);
+            return comparison != 0 ? comparison : Long.compare(sequence, task.sequence);
+        }
+    }
+
+    private final class Executor extends AbstractExecutorService implements ScheduledExecutorService {
+
+        private final PriorityQueue<Task<?>> tasks = new PriorityQueue<>();
+        private boolean shutdown;
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(() -> {
+                command.run();
+                return null;
+            }, delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            synchronized (VirtualClock.this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Virtual clock executor is shut down");
+                }
+                Task<V> task = new Task<>(callable, nanos + unit.toNanos(Math.max(0, delay)), nextTaskSequence++);
+                tasks.add(task);
+                return task;
+            }
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                                                      TimeUnit unit) {
+            throw new UnsupportedOperationException("Periodic tasks are not supported");
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                                                         TimeUnit unit) {
+            throw new UnsupportedOperationException("Periodic tasks are not supported");
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (VirtualClock.this) {
+                shutdown = true;
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            synchronized (VirtualClock.this) {
+                shutdown = true;
+                List<Runnable> pending = List.copyOf(tasks);
+                tasks.clear();
+                return pending;
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (VirtualClock.this) {
+                return shutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (VirtualClock.this) {
+                return shutdown && tasks.isEmpty();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+
+        /**
+         * @return the next task due at the given time, with the clock moved to its due time, or null if none is due
+         */
+        private Task<?> pollDue(long untilNanos) {
+            synchronized (VirtualClock.this) {
+                Task<?> task = tasks.peek();
+                if (task == null || task.dueNanos > untilNanos) {
+                    return null;
+                }
+                tasks.poll();
+                nanos = Math.max(nanos, task.dueNanos);
+                return task;
+            }
+        }
+
+        private int size() {
+            synchronized (VirtualClock.this) {
+                return tasks.size();
+            }
+        }
+    }
+}